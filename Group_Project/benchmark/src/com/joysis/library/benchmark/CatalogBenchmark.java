@@ -0,0 +1,53 @@
+package com.joysis.library.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Catalog reads: title/author search and the full "Display All Books" listing.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class CatalogBenchmark {
+
+    // Search keywords, drawn from the same vocabulary as the seeded titles
+    @State(Scope.Thread)
+    public static class Keywords {
+        private final Random random = new Random(7);
+
+        String next() {
+            String first = CatalogSeeder.WORDS[random.nextInt(CatalogSeeder.WORDS.length)];
+            if (random.nextBoolean()) {
+                return first.substring(0, Math.min(4, first.length())); // Prefix of a single word
+            }
+            return first + " " + CatalogSeeder.WORDS[random.nextInt(CatalogSeeder.WORDS.length)];
+        }
+    }
+
+    @Benchmark
+    public void searchBookByTitle(LibraryFixture fixture, Keywords keywords) {
+        fixture.bookFunction.searchBookByTitle(keywords.next());
+    }
+
+    // Walks the entire catalog, so one call is one sample
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public void displayAllBooks(LibraryFixture fixture) {
+        fixture.bookFunction.displayAllBooks();
+    }
+}
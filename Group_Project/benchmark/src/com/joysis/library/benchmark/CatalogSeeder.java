@@ -0,0 +1,183 @@
+package com.joysis.library.benchmark;
+
+import com.joysis.library.util.StorageBackend;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Random;
+
+/**
+ * Creates and fills an embedded benchmark database: catalogSize books with generated
+ * titles and authors, loansPerBook returned loans per book as history, and an active
+ * loan on every tenth book (a third of them overdue). Also registers the librarian
+ * BENCH_USERNAME. The data is generated from a fixed seed, so every run sees the same
+ * catalog. A database that was already seeded with the same sizes is left as it is.
+ */
+public final class CatalogSeeder {
+
+    public static final String BENCH_USERNAME = "bench";
+    public static final String BENCH_PASSWORD = "bench";
+    public static final int ACTIVE_LOAN_EVERY = 10; // Books whose id is a multiple of this start out borrowed
+
+    static final String[] WORDS = {
+        "river", "shadow", "garden", "winter", "silver", "empire", "secret", "ocean", "forest", "midnight",
+        "stone", "crown", "fire", "glass", "harbor", "island", "journey", "kingdom", "letter", "memory",
+        "north", "orchard", "paper", "quiet", "road", "storm", "tide", "valley", "wind", "wolf",
+        "history", "science", "modern", "ancient", "guide", "art", "music", "city", "night", "summer",
+        "house", "light", "dark", "golden", "lost", "last", "first", "little", "great", "hidden",
+        "mountain", "desert", "star", "moon", "sun", "blood", "bone", "iron", "rose", "thorn",
+        "machine", "code", "data", "design", "economy", "nation", "war", "peace", "love", "death"
+    };
+    private static final String[] FIRST_NAMES = {
+        "Maria", "Jose", "Ana", "Juan", "Grace", "Mark", "Liza", "Paolo", "Ramon", "Carmen",
+        "Kurt", "Dawn", "Janelle", "Gabriel", "Rosa", "Miguel", "Elena", "Andres", "Luz", "Tomas"
+    };
+    private static final String[] LAST_NAMES = {
+        "Santos", "Reyes", "Cruz", "Bautista", "Ocampo", "Garcia", "Mendoza", "Torres", "Tolentino", "Castillo",
+        "Gonzales", "Acepa", "Bacada", "Camacho", "Villanueva", "Ramos", "Aquino", "Navarro", "Flores", "Lim"
+    };
+
+    private static final int BATCH_SIZE = 5000;
+    private static final long SEED = 42L;
+
+    private CatalogSeeder() {
+    }
+
+    // Seeds the database at url unless it already holds a catalog of this shape
+    public static void seed(String url, String username, String password, int catalogSize, int loansPerBook) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url, username, password)) {
+            createSchema(connection);
+            if (alreadySeeded(connection, catalogSize, loansPerBook)) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            dropSchema(connection); // Recreated so the generated ids start at 1 again
+            createSchema(connection);
+            connection.setAutoCommit(false);
+            insertLibrarian(connection);
+            insertBooks(connection, catalogSize);
+            insertLoans(connection, catalogSize, loansPerBook);
+            try (PreparedStatement prep = connection.prepareStatement("INSERT INTO benchmark_seed (catalog_size, loans_per_book) VALUES (?, ?)")) {
+                prep.setInt(1, catalogSize);
+                prep.setInt(2, loansPerBook);
+                prep.executeUpdate();
+            }
+            connection.commit();
+            System.err.println("Seeded " + catalogSize + " books and " + (catalogSize * loansPerBook) + " past loans in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    private static void createSchema(Connection connection) throws SQLException {
+        StorageBackend.H2.createSchema(connection);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS benchmark_seed (catalog_size INT NOT NULL, loans_per_book INT NOT NULL)");
+        }
+    }
+
+    private static boolean alreadySeeded(Connection connection, int catalogSize, int loansPerBook) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT catalog_size, loans_per_book FROM benchmark_seed")) {
+            return rs.next() && rs.getInt(1) == catalogSize && rs.getInt(2) == loansPerBook;
+        }
+    }
+
+    private static void dropSchema(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP VIEW IF EXISTS all_loans");
+            statement.execute("DROP TABLE IF EXISTS loan_history");
+            statement.execute("DROP TABLE IF EXISTS borrower_list");
+            statement.execute("DROP TABLE IF EXISTS booklist");
+            statement.execute("DROP TABLE IF EXISTS user_credentials");
+            statement.execute("DROP TABLE IF EXISTS benchmark_seed");
+            statement.execute("DROP TABLE IF EXISTS schema_version"); // So DbConnection re-applies the indexes
+        }
+    }
+
+    private static void insertLibrarian(Connection connection) throws SQLException {
+        try (PreparedStatement prep = connection.prepareStatement("INSERT INTO user_credentials (username, password) VALUES (?, ?)")) {
+            prep.setString(1, BENCH_USERNAME);
+            prep.setString(2, BENCH_PASSWORD);
+            prep.executeUpdate();
+        }
+    }
+
+    // Book ids are generated as 1..catalogSize in insertion order
+    private static void insertBooks(Connection connection, int catalogSize) throws SQLException {
+        Random random = new Random(SEED);
+        String query = "INSERT INTO booklist (title, author, year, isbn, status) VALUES (?, ?, ?, ?, ?)";
+        try (PreparedStatement prep = connection.prepareStatement(query)) {
+            for (int id = 1; id <= catalogSize; id++) {
+                prep.setString(1, title(random));
+                prep.setString(2, FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)]);
+                prep.setInt(3, 1900 + random.nextInt(125));
+                prep.setString(4, String.format("BENCH-%09d", id));
+                prep.setInt(5, id % ACTIVE_LOAN_EVERY == 0 ? 1 : 0);
+                prep.addBatch();
+                if (id % BATCH_SIZE == 0) {
+                    prep.executeBatch();
+                }
+            }
+            prep.executeBatch();
+        }
+    }
+
+    private static void insertLoans(Connection connection, int catalogSize, int loansPerBook) throws SQLException {
+        Random random = new Random(SEED + 1);
+        LocalDateTime now = LocalDateTime.now();
+        String query = "INSERT INTO borrower_list (book_id, borrower_name, time_in, scheduled_return, time_out) VALUES (?, ?, ?, ?, ?)";
+        try (PreparedStatement prep = connection.prepareStatement(query)) {
+            int pending = 0;
+            for (int bookId = 1; bookId <= catalogSize; bookId++) {
+                // Past loans, all returned
+                LocalDateTime timeIn = now.minusDays(60L * (loansPerBook + 1) + random.nextInt(30));
+                for (int i = 0; i < loansPerBook; i++) {
+                    LocalDateTime due = timeIn.plusDays(14);
+                    addLoan(prep, bookId, random, timeIn, due, timeIn.plusDays(random.nextInt(20)));
+                    timeIn = timeIn.plusDays(60);
+                    pending++;
+                }
+                // The active loan on every tenth book; a third of those are overdue
+                if (bookId % ACTIVE_LOAN_EVERY == 0) {
+                    boolean overdue = (bookId / ACTIVE_LOAN_EVERY) % 3 == 0;
+                    LocalDateTime activeIn = now.minusDays(overdue ? 20 + random.nextInt(30) : random.nextInt(7));
+                    addLoan(prep, bookId, random, activeIn, activeIn.plusDays(14), null);
+                    pending++;
+                }
+                if (pending >= BATCH_SIZE) {
+                    prep.executeBatch();
+                    pending = 0;
+                }
+            }
+            prep.executeBatch();
+        }
+    }
+
+    private static void addLoan(PreparedStatement prep, int bookId, Random random, LocalDateTime timeIn,
+                                LocalDateTime due, LocalDateTime timeOut) throws SQLException {
+        prep.setInt(1, bookId);
+        prep.setString(2, FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)]);
+        prep.setTimestamp(3, Timestamp.valueOf(timeIn));
+        prep.setTimestamp(4, Timestamp.valueOf(due));
+        prep.setTimestamp(5, timeOut != null ? Timestamp.valueOf(timeOut) : null);
+        prep.addBatch();
+    }
+
+    private static String title(Random random) {
+        int words = 2 + random.nextInt(4);
+        StringBuilder title = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            if (i > 0) {
+                title.append(' ');
+            }
+            title.append(Character.toUpperCase(word.charAt(0))).append(word.substring(1));
+        }
+        return title.toString();
+    }
+}
@@ -0,0 +1,69 @@
+package com.joysis.library.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Borrowing and returning single books. Each measured call is paired with an
+ * unmeasured call that puts the book back the way it was, so the catalog does not
+ * drift during a run. Per-invocation fixtures add a little timing overhead, which is
+ * small next to a database transaction.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class CirculationBenchmark {
+
+    private static final int LOAN_DAYS = 14;
+
+    // Picks an available book; the borrowed book is returned after the measured call
+    @State(Scope.Thread)
+    public static class BorrowTarget {
+        int bookId;
+
+        @Setup(Level.Invocation)
+        public void pick(LibraryFixture fixture) {
+            bookId = fixture.nextCirculationBookId();
+        }
+
+        @TearDown(Level.Invocation)
+        public void giveBack(LibraryFixture fixture) {
+            fixture.borrowerFunction.returnBook(bookId);
+        }
+    }
+
+    // Borrows a book before the measured call so there is something to return
+    @State(Scope.Thread)
+    public static class ReturnTarget {
+        int bookId;
+
+        @Setup(Level.Invocation)
+        public void lend(LibraryFixture fixture) {
+            bookId = fixture.nextCirculationBookId();
+            fixture.borrowerFunction.borrowBook(bookId, "Benchmark Borrower", LOAN_DAYS);
+        }
+    }
+
+    @Benchmark
+    public boolean borrowBook(LibraryFixture fixture, BorrowTarget target) {
+        return fixture.borrowerFunction.borrowBook(target.bookId, "Benchmark Borrower", LOAN_DAYS);
+    }
+
+    @Benchmark
+    public boolean returnBook(LibraryFixture fixture, ReturnTarget target) {
+        return fixture.borrowerFunction.returnBook(target.bookId);
+    }
+}
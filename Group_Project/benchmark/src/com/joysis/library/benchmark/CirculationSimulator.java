@@ -0,0 +1,361 @@
+package com.joysis.library.benchmark;
+
+import com.joysis.library.functions.BookFunction;
+import com.joysis.library.functions.BorrowerFunction;
+import com.joysis.library.metrics.OperationStats;
+import com.joysis.library.model.AvailabilityReport;
+import com.joysis.library.model.CatalogEntry;
+import com.joysis.library.util.DbConnection;
+import com.joysis.library.util.StorageBackend;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load generator for the circulation desks: N threads, each a desk, run a weighted mix
+ * of search, borrow, return and list operations against a freshly seeded H2 database
+ * for a fixed time, through the same BookFunction and BorrowerFunction the console and
+ * server use. Reports throughput, p50/p99 latency, rejections (book already borrowed or
+ * not on loan) and errors per operation, then checks the database for consistency
+ * violations: books with more than one active loan, booklist statuses that disagree
+ * with the loans, and active loan counts that do not add up with the successful
+ * borrows and returns.
+ *
+ * Borrows pick from the first hotBooks books, so desks compete for the same books.
+ * Returns mostly take a book some desk borrowed, and sometimes a random one.
+ *
+ * Run with: ant simulate -Dsimulate.args="--desks 16 --seconds 30 --mix search=40,borrow=25,return=25,list=10"
+ * Options (defaults): --desks 8, --seconds 20, --catalog 10000, --hot-books 500,
+ * --mix search=40,borrow=25,return=25,list=10, --think-ms 0, --db build/benchmark/db/simulation
+ */
+public final class CirculationSimulator {
+
+    private static final String[] OPERATIONS = {"search", "borrow", "return", "list"};
+    private static final int LOAN_DAYS = 14;
+    private static final int PAGE_SIZE = 50;
+
+    private final int desks;
+    private final long durationNanos;
+    private final int catalogSize;
+    private final int hotBooks;
+    private final int[] weights;
+    private final long thinkMillis;
+    private final String url;
+
+    private final Map<String, OperationStats> latency = new LinkedHashMap<>();
+    private final Map<String, LongAdder> rejected = new LinkedHashMap<>();
+    private final LongAdder borrowed = new LongAdder();
+    private final LongAdder returned = new LongAdder();
+    private final ConcurrentLinkedQueue<Integer> onLoan = new ConcurrentLinkedQueue<>(); // Books borrowed during the run
+    private final ConsoleSink console = new ConsoleSink();
+
+    private BookFunction bookFunction;
+    private BorrowerFunction borrowerFunction;
+
+    private CirculationSimulator(Map<String, String> options) {
+        desks = Integer.parseInt(options.getOrDefault("desks", "8"));
+        durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("seconds", "20")));
+        catalogSize = Integer.parseInt(options.getOrDefault("catalog", "10000"));
+        hotBooks = Math.min(catalogSize, Integer.parseInt(options.getOrDefault("hot-books", "500")));
+        weights = parseMix(options.getOrDefault("mix", "search=40,borrow=25,return=25,list=10"));
+        thinkMillis = Long.parseLong(options.getOrDefault("think-ms", "0"));
+        File db = new File(options.getOrDefault("db", "build/benchmark/db/simulation")).getAbsoluteFile();
+        new File(db.getPath() + ".mv.db").delete(); // Every run starts from the same freshly seeded catalog
+        url = StorageBackend.H2.fileUrl(db.getPath());
+        for (String operation : OPERATIONS) {
+            latency.put(operation, new OperationStats(operation));
+            rejected.put(operation, new LongAdder());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected an --option, found '" + args[i] + "'");
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        int violations = new CirculationSimulator(options).run();
+        System.exit(violations == 0 ? 0 : 1);
+    }
+
+    // Seeds, runs the desks, prints the report; returns the number of consistency violations
+    private int run() throws Exception {
+        PrintStream out = System.out;
+        System.err.println("Seeding " + catalogSize + " books...");
+        CatalogSeeder.seed(url, "sa", "", catalogSize, 1);
+
+        System.setOut(new PrintStream(console, true)); // Function-class messages; errors are picked out of them
+        DbConnection dbConnection = new DbConnection(url, "sa", "");
+        try {
+            bookFunction = new BookFunction(dbConnection);
+            borrowerFunction = new BorrowerFunction(dbConnection, bookFunction);
+            bookFunction.loadSearchIndex();
+            bookFunction.loadAvailabilityIndex();
+            borrowerFunction.loadFineLedger();
+            long activeBefore = countActiveLoans(dbConnection);
+
+            out.println("Running " + desks + " desks for " + TimeUnit.NANOSECONDS.toSeconds(durationNanos) + " s against "
+                    + catalogSize + " books (" + hotBooks + " in circulation), mix " + describeMix() + "...");
+            long elapsed = runDesks();
+
+            printReport(out, elapsed);
+            return checkConsistency(out, dbConnection, activeBefore);
+        } finally {
+            dbConnection.close();
+            System.setOut(out);
+        }
+    }
+
+    private long runDesks() throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(desks);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>(desks);
+        for (int desk = 1; desk <= desks; desk++) {
+            String borrower = "Desk " + desk + " Patron";
+            Thread thread = new Thread(() -> {
+                ready.countDown();
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long end = System.nanoTime() + durationNanos;
+                while (System.nanoTime() < end) {
+                    runOne(borrower);
+                    if (thinkMillis > 0) {
+                        try {
+                            Thread.sleep(thinkMillis);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }, "desk-" + desk);
+            threads.add(thread);
+            thread.start();
+        }
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.nanoTime() - start;
+    }
+
+    // One operation picked by the mix weights
+    private void runOne(String borrower) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String operation = pickOperation(random);
+        console.startOperation();
+        long start = System.nanoTime();
+        boolean failed = false;
+        boolean rejection = false;
+        try {
+            switch (operation) {
+                case "search": {
+                    String keyword = CatalogSeeder.WORDS[random.nextInt(CatalogSeeder.WORDS.length)];
+                    failed = bookFunction.searchBooks(keyword) == null;
+                    break;
+                }
+                case "borrow": {
+                    int bookId = 1 + random.nextInt(hotBooks);
+                    if (borrowerFunction.borrowBook(bookId, borrower, LOAN_DAYS)) {
+                        borrowed.increment();
+                        onLoan.add(bookId);
+                    } else {
+                        rejection = true;
+                    }
+                    break;
+                }
+                case "return": {
+                    Integer polled = random.nextInt(10) < 9 ? onLoan.poll() : null;
+                    int bookId = polled != null ? polled : 1 + random.nextInt(hotBooks);
+                    if (borrowerFunction.returnBook(bookId)) {
+                        returned.increment();
+                    } else {
+                        rejection = true;
+                    }
+                    break;
+                }
+                default: {
+                    List<CatalogEntry> page = bookFunction.listBooks(random.nextInt(catalogSize), PAGE_SIZE);
+                    failed = page == null;
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            failed = true;
+        }
+        failed |= console.sawError(); // The function classes report SQL failures as "Error ..." lines
+        latency.get(operation).record(System.nanoTime() - start, failed);
+        if (rejection && !failed) {
+            rejected.get(operation).increment();
+        }
+    }
+
+    private String pickOperation(ThreadLocalRandom random) {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        int roll = random.nextInt(total);
+        for (int i = 0; i < weights.length; i++) {
+            roll -= weights[i];
+            if (roll < 0) {
+                return OPERATIONS[i];
+            }
+        }
+        return OPERATIONS[OPERATIONS.length - 1];
+    }
+
+    private void printReport(PrintStream out, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        long totalCalls = 0;
+        long totalErrors = 0;
+        out.println();
+        out.printf("%-8s %10s %10s %10s %8s %10s %10s %10s%n", "OP", "CALLS", "OPS/S", "REJECTED", "ERRORS", "P50 MS", "P99 MS", "MAX MS");
+        for (String operation : OPERATIONS) {
+            OperationStats stats = latency.get(operation);
+            totalCalls += stats.getCalls();
+            totalErrors += stats.getErrors();
+            out.printf("%-8s %10d %10.1f %10d %8d %10.2f %10.2f %10.2f%n", operation, stats.getCalls(), stats.getCalls() / seconds,
+                       rejected.get(operation).sum(), stats.getErrors(), stats.getPercentileMillis(0.50),
+                       stats.getPercentileMillis(0.99), stats.getMaxMillis());
+        }
+        out.printf("%-8s %10d %10.1f %10s %8d%n", "total", totalCalls, totalCalls / seconds, "", totalErrors);
+        out.println(borrowed.sum() + " books borrowed and " + returned.sum() + " returned in " + String.format("%.1f", seconds) + " s.");
+    }
+
+    /**
+     * Looks for what concurrent desks could break: a book with two active loans, a
+     * status that disagrees with the loans, or active loans that do not match the
+     * successful borrows and returns.
+     */
+    private int checkConsistency(PrintStream out, DbConnection dbConnection, long activeBefore) throws SQLException {
+        int violations = 0;
+        out.println();
+        out.println("--- Consistency Checks ---");
+
+        String doubleQuery = "SELECT book_id, COUNT(*) FROM borrower_list WHERE time_out IS NULL GROUP BY book_id HAVING COUNT(*) > 1";
+        try (Connection connection = dbConnection.connect();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(doubleQuery)) {
+            while (rs.next()) {
+                out.println("VIOLATION: book " + rs.getInt(1) + " has " + rs.getInt(2) + " active loans");
+                violations++;
+            }
+        }
+
+        AvailabilityReport report = bookFunction.checkAvailability(false);
+        if (report == null) {
+            out.println("VIOLATION: statuses could not be checked");
+            violations++;
+        } else if (!report.isConsistent()) {
+            out.println("VIOLATION: " + report);
+            violations += report.getStatusWithoutLoan().size() + report.getLoanWithoutStatus().size();
+        }
+
+        long expected = activeBefore + borrowed.sum() - returned.sum();
+        long actual = countActiveLoans(dbConnection);
+        if (actual != expected) {
+            out.println("VIOLATION: " + actual + " active loans, expected " + expected + " from " + activeBefore
+                    + " + " + borrowed.sum() + " borrowed - " + returned.sum() + " returned");
+            violations++;
+        }
+
+        out.println(violations == 0 ? "No violations." : violations + " violation(s).");
+        return violations;
+    }
+
+    private static long countActiveLoans(DbConnection dbConnection) throws SQLException {
+        try (Connection connection = dbConnection.connect();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM borrower_list WHERE time_out IS NULL")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    // "search=40,borrow=25,..." to weights in OPERATIONS order; operations not named get 0
+    private static int[] parseMix(String mix) {
+        int[] parsed = new int[OPERATIONS.length];
+        for (String part : mix.split(",")) {
+            String[] pair = part.split("=");
+            int index = -1;
+            for (int i = 0; i < OPERATIONS.length; i++) {
+                if (OPERATIONS[i].equalsIgnoreCase(pair[0].trim())) {
+                    index = i;
+                }
+            }
+            if (index < 0 || pair.length != 2) {
+                throw new IllegalArgumentException("Invalid mix entry '" + part + "'. Use search, borrow, return and list, e.g. borrow=25.");
+            }
+            parsed[index] = Math.max(0, Integer.parseInt(pair[1].trim()));
+        }
+        int total = 0;
+        for (int weight : parsed) {
+            total += weight;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("The mix needs at least one operation with a positive weight.");
+        }
+        return parsed;
+    }
+
+    private String describeMix() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            text.append(i > 0 ? "," : "").append(OPERATIONS[i]).append('=').append(weights[i]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Swallows the function classes' console output, noting per thread whether the
+     * current operation printed a line starting with "Error".
+     */
+    private static final class ConsoleSink extends OutputStream {
+        private static final byte[] ERROR = "Error".getBytes();
+
+        private final ThreadLocal<int[]> state = ThreadLocal.withInitial(() -> new int[2]); // {matched prefix bytes, error seen}
+
+        void startOperation() {
+            int[] current = state.get();
+            current[0] = 0;
+            current[1] = 0;
+        }
+
+        boolean sawError() {
+            return state.get()[1] != 0;
+        }
+
+        @Override
+        public void write(int b) {
+            int[] current = state.get();
+            if (b == '\n') {
+                current[0] = 0;
+            } else if (current[0] >= 0 && current[0] < ERROR.length) {
+                current[0] = (b == ERROR[current[0]]) ? current[0] + 1 : -1;
+                if (current[0] == ERROR.length) {
+                    current[1] = 1;
+                }
+            }
+        }
+    }
+}
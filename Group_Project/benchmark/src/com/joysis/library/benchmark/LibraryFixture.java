@@ -0,0 +1,90 @@
+package com.joysis.library.benchmark;
+
+import com.joysis.library.functions.BookFunction;
+import com.joysis.library.functions.BorrowerFunction;
+import com.joysis.library.functions.UserFunction;
+import com.joysis.library.util.DbConnection;
+import com.joysis.library.util.StorageBackend;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * One seeded embedded database and the function classes wired to it, shared by every
+ * benchmark thread. Each catalog size gets its own H2 file under bench.dir (default
+ * build/benchmark/db), so the expensive seeding happens only on the first run.
+ *
+ * The function classes report to System.out; the console is swapped for a sink during
+ * the trial so the numbers include building the output but not writing it to a terminal.
+ */
+@State(Scope.Benchmark)
+public class LibraryFixture {
+
+    @Param({"1000", "100000", "1000000"})
+    public int catalogSize;
+
+    @Param({"1"})
+    public int loansPerBook;
+
+    public DbConnection dbConnection;
+    public UserFunction userFunction;
+    public BookFunction bookFunction;
+    public BorrowerFunction borrowerFunction;
+
+    private final AtomicInteger circulationCursor = new AtomicInteger();
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void open() throws SQLException {
+        File dir = new File(System.getProperty("bench.dir", "build/benchmark/db"));
+        String url = StorageBackend.H2.fileUrl(new File(dir, "catalog-" + catalogSize).getAbsolutePath());
+        CatalogSeeder.seed(url, "sa", "", catalogSize, loansPerBook);
+
+        console = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+
+        dbConnection = new DbConnection(url, "sa", "");
+        userFunction = new UserFunction(dbConnection);
+        bookFunction = new BookFunction(dbConnection);
+        borrowerFunction = new BorrowerFunction(dbConnection, bookFunction);
+        bookFunction.loadSearchIndex();
+        bookFunction.loadAvailabilityIndex();
+        borrowerFunction.loadFineLedger();
+        borrowerFunction.loadCirculationStats();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        dbConnection.close();
+        System.setOut(console);
+    }
+
+    /**
+     * Next book for the circulation benchmarks, walking the whole catalog so lookups do
+     * not all hit the same cached rows. Books that start out borrowed are skipped.
+     */
+    public int nextCirculationBookId() {
+        while (true) {
+            int id = 1 + Math.floorMod(circulationCursor.getAndIncrement(), catalogSize);
+            if (id % CatalogSeeder.ACTIVE_LOAN_EVERY != 0) {
+                return id;
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.joysis.library.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Librarian login against the seeded user_credentials table.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class LoginBenchmark {
+
+    @Benchmark
+    public boolean loginUser(LibraryFixture fixture) {
+        return fixture.userFunction.loginUser(CatalogSeeder.BENCH_USERNAME, CatalogSeeder.BENCH_PASSWORD);
+    }
+}
@@ -0,0 +1,319 @@
+package com.joysis.library.circulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory availability of every book, one bit per book ID in each of four bitmaps:
+ * the book exists, booklist.status says borrowed, it has an active loan in
+ * borrower_list, and its state is unknown (dirty) since a failed borrow or return.
+ *
+ * Lookups and counts read the bitmaps without locking. Updates are synchronized, so a
+ * book's bits and the counts always change together. Each book also remembers the last
+ * loan a borrow or return was recorded for, so events that arrive out of order are
+ * ignored (see recordLoan). A million books take about 4.5 MB.
+ *
+ * The database stays the source of truth. borrowBook still claims a book with a
+ * conditional UPDATE; the index only answers questions that used to need a query.
+ * A reload fills a new index and swaps it in (see startRebuild), so the old one keeps
+ * answering and keeps taking updates while the database is read.
+ */
+public class AvailabilityIndex {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private volatile Bitmap exists = new Bitmap(INITIAL_CAPACITY);
+    private volatile Bitmap statusBorrowed = new Bitmap(INITIAL_CAPACITY);
+    private volatile Bitmap activeLoan = new Bitmap(INITIAL_CAPACITY);
+    private volatile Bitmap dirty = new Bitmap(INITIAL_CAPACITY);
+    private int[] lastLoan = new int[INITIAL_CAPACITY]; // Only used under the lock
+
+    private volatile int bookCount;
+    private volatile int borrowedCount; // Books with an active loan
+    private volatile int inconsistentCount; // Books whose status and active loan disagree
+    private volatile boolean loaded;
+    private BitSet touchedDuringRebuild; // Books updated since startRebuild; null when no rebuild runs
+
+    // True once the index has been filled from the database
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Call before reading the database into a new index. Books updated here from now
+     * until replaceWith may have been read before the update, so they are marked dirty
+     * in the new index and re-read on their next lookup.
+     */
+    public synchronized void startRebuild() {
+        touchedDuringRebuild = new BitSet();
+    }
+
+    // The rebuild failed; this index stays as it is
+    public synchronized void cancelRebuild() {
+        touchedDuringRebuild = null;
+    }
+
+    /**
+     * Takes over the contents of rebuilt, filled since startRebuild, and marks it loaded.
+     * The last loan seen for each book is kept, so a borrow or return recorded before the
+     * rebuild is still recognised as stale if it turns up again.
+     */
+    public synchronized void replaceWith(AvailabilityIndex rebuilt) {
+        int[] latestLoans = rebuilt.lastLoan;
+        for (int bookId = 0; bookId < Math.min(lastLoan.length, latestLoans.length); bookId++) {
+            latestLoans[bookId] = Math.max(latestLoans[bookId], lastLoan[bookId]);
+        }
+        exists = rebuilt.exists;
+        statusBorrowed = rebuilt.statusBorrowed;
+        activeLoan = rebuilt.activeLoan;
+        dirty = rebuilt.dirty;
+        lastLoan = latestLoans;
+        bookCount = rebuilt.bookCount;
+        borrowedCount = rebuilt.borrowedCount;
+        inconsistentCount = rebuilt.inconsistentCount;
+        BitSet touched = touchedDuringRebuild;
+        touchedDuringRebuild = null;
+        if (touched != null) {
+            for (int bookId = touched.nextSetBit(0); bookId >= 0; bookId = touched.nextSetBit(bookId + 1)) {
+                ensureCapacity(bookId);
+                dirty.set(bookId, true);
+            }
+        }
+        loaded = true;
+    }
+
+    /**
+     * Records a book's state as read from the database.
+     *
+     * @param borrowedStatus booklist.status is 1
+     * @param hasActiveLoan  borrower_list has a row for it with time_out NULL
+     */
+    public synchronized void put(int bookId, boolean borrowedStatus, boolean hasActiveLoan) {
+        if (bookId <= 0) {
+            return;
+        }
+        touch(bookId);
+        ensureCapacity(bookId);
+        int latestLoan = lastLoan[bookId];
+        forget(bookId);
+        lastLoan[bookId] = latestLoan;
+        exists.set(bookId, true);
+        statusBorrowed.set(bookId, borrowedStatus);
+        activeLoan.set(bookId, hasActiveLoan);
+        bookCount++;
+        if (hasActiveLoan) {
+            borrowedCount++;
+        }
+        if (borrowedStatus != hasActiveLoan) {
+            inconsistentCount++;
+        }
+    }
+
+    // A new book, available
+    public void add(int bookId) {
+        put(bookId, false, false);
+    }
+
+    public synchronized void remove(int bookId) {
+        if (bookId > 0) {
+            touch(bookId);
+        }
+        if (bookId > 0 && bookId < exists.capacity()) {
+            forget(bookId);
+        }
+    }
+
+    // As put, also noting the newest loan the database had for the book when it was read
+    public synchronized void put(int bookId, boolean borrowedStatus, boolean hasActiveLoan, int latestLoanId) {
+        put(bookId, borrowedStatus, hasActiveLoan);
+        if (bookId > 0) {
+            lastLoan[bookId] = Math.max(lastLoan[bookId], latestLoanId);
+        }
+    }
+
+    /**
+     * After a committed borrow (true) or return (false) of loanId: status and loan change
+     * together. Desks record these after their own commits, so they can arrive out of
+     * order. Loan IDs only grow, so an event about an older loan than the last one
+     * recorded, or a borrow of a loan that was already returned, is stale and ignored.
+     * A loanId of 0 (not known) marks the book dirty instead.
+     *
+     * @return whether the event was applied
+     */
+    public synchronized boolean recordLoan(int bookId, int loanId, boolean borrowed) {
+        if (bookId <= 0) {
+            return false;
+        }
+        touch(bookId);
+        if (loanId <= 0) {
+            markDirty(bookId);
+            return false;
+        }
+        ensureCapacity(bookId);
+        int latest = lastLoan[bookId];
+        if (loanId < latest || (loanId == latest && borrowed && !activeLoan.get(bookId))) {
+            return false;
+        }
+        put(bookId, borrowed, borrowed);
+        lastLoan[bookId] = loanId;
+        return true;
+    }
+
+    // After booklist.status alone was changed, e.g. by updateBookStatus
+    public synchronized void setStatus(int bookId, boolean borrowedStatus) {
+        if (exists(bookId)) {
+            put(bookId, borrowedStatus, activeLoan.get(bookId));
+        }
+    }
+
+    // Marks a book whose state is unknown, e.g. after another desk won a race for it
+    public synchronized void markDirty(int bookId) {
+        if (bookId > 0) {
+            touch(bookId);
+        }
+        if (bookId > 0 && bookId < dirty.capacity()) {
+            dirty.set(bookId, true);
+        }
+    }
+
+    public boolean isDirty(int bookId) {
+        return bookId > 0 && dirty.get(bookId);
+    }
+
+    public boolean exists(int bookId) {
+        return bookId > 0 && exists.get(bookId);
+    }
+
+    // Exists, is not marked borrowed and has no active loan
+    public boolean isAvailable(int bookId) {
+        return exists(bookId) && !statusBorrowed.get(bookId) && !activeLoan.get(bookId);
+    }
+
+    public boolean hasActiveLoan(int bookId) {
+        return bookId > 0 && activeLoan.get(bookId);
+    }
+
+    public int getBookCount() {
+        return bookCount;
+    }
+
+    public int getBorrowedCount() {
+        return borrowedCount;
+    }
+
+    // Books without an active loan
+    public int getAvailableCount() {
+        return bookCount - borrowedCount;
+    }
+
+    public int getInconsistentCount() {
+        return inconsistentCount;
+    }
+
+    // Book IDs marked borrowed in booklist but without an active loan, in ID order
+    public List<Integer> getStatusWithoutLoan() {
+        return scan(true);
+    }
+
+    // Book IDs with an active loan but marked available in booklist, in ID order
+    public List<Integer> getLoanWithoutStatus() {
+        return scan(false);
+    }
+
+    private synchronized List<Integer> scan(boolean statusSet) {
+        List<Integer> ids = new ArrayList<>();
+        Bitmap wanted = statusSet ? statusBorrowed : activeLoan;
+        Bitmap other = statusSet ? activeLoan : statusBorrowed;
+        for (int word = 0; word < wanted.words.length(); word++) {
+            long mismatches = wanted.words.get(word) & ~other.words.get(word) & exists.words.get(word);
+            while (mismatches != 0) {
+                int bit = Long.numberOfTrailingZeros(mismatches);
+                ids.add(word * 64 + bit);
+                mismatches &= mismatches - 1;
+            }
+        }
+        return ids;
+    }
+
+    private void touch(int bookId) {
+        if (touchedDuringRebuild != null) {
+            touchedDuringRebuild.set(bookId);
+        }
+    }
+
+    // Clears a book's bits and takes it out of the counts
+    private void forget(int bookId) {
+        if (!exists.get(bookId)) {
+            dirty.set(bookId, false);
+            return;
+        }
+        boolean borrowedStatus = statusBorrowed.get(bookId);
+        boolean hasActiveLoan = activeLoan.get(bookId);
+        bookCount--;
+        if (hasActiveLoan) {
+            borrowedCount--;
+        }
+        if (borrowedStatus != hasActiveLoan) {
+            inconsistentCount--;
+        }
+        exists.set(bookId, false);
+        statusBorrowed.set(bookId, false);
+        activeLoan.set(bookId, false);
+        dirty.set(bookId, false);
+        lastLoan[bookId] = 0;
+    }
+
+    private void ensureCapacity(int bookId) {
+        if (bookId < exists.capacity()) {
+            return;
+        }
+        int capacity = exists.capacity();
+        while (capacity <= bookId) {
+            capacity = capacity > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : capacity * 2;
+        }
+        // Readers may briefly see the old arrays; they hold the same bits for every existing ID
+        exists = exists.grow(capacity);
+        statusBorrowed = statusBorrowed.grow(capacity);
+        activeLoan = activeLoan.grow(capacity);
+        dirty = dirty.grow(capacity);
+        lastLoan = Arrays.copyOf(lastLoan, capacity);
+    }
+
+    // Fixed-size bitmap whose words can be read safely while another thread writes them
+    private static final class Bitmap {
+        final AtomicLongArray words;
+
+        Bitmap(int capacity) {
+            words = new AtomicLongArray((capacity + 63) >>> 6);
+        }
+
+        int capacity() {
+            return words.length() << 6;
+        }
+
+        boolean get(int index) {
+            int word = index >>> 6;
+            return word < words.length() && (words.get(word) & (1L << index)) != 0;
+        }
+
+        void set(int index, boolean value) {
+            int word = index >>> 6;
+            long mask = 1L << index;
+            long current;
+            do {
+                current = words.get(word);
+            } while (!words.compareAndSet(word, current, value ? current | mask : current & ~mask));
+        }
+
+        Bitmap grow(int capacity) {
+            Bitmap bigger = new Bitmap(capacity);
+            for (int i = 0; i < words.length(); i++) {
+                bigger.words.set(i, words.get(i));
+            }
+            return bigger;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package com.joysis.library.circulation;
+
+import com.joysis.library.fines.FineLedger;
+import com.joysis.library.metrics.Metrics;
+import com.joysis.library.model.CirculationReport;
+import com.joysis.library.model.LabelCount;
+import com.joysis.library.model.RowMappers;
+import com.joysis.library.snapshot.SnapshotReader;
+import com.joysis.library.snapshot.SnapshotWriter;
+import com.joysis.library.util.DbConnection;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running circulation totals: loans per day and month, loans per title and author,
+ * loan durations, late returns and fines collected.
+ *
+ * The counters are rebuilt once at startup from every loan in all_loans, split by id
+ * range over several threads, and after that kept current by recordBorrow and
+ * recordReturn as the desks work. Reports only read the counters, so they never scan
+ * the loan tables. The counters are LongAdders, so desks recording at the same time
+ * do not contend on one value.
+ */
+public class CirculationStats {
+
+    public static final int DEFAULT_REBUILD_THREADS = 4;
+    private static final int FETCH_SIZE = 1000;
+    private static final String UNKNOWN = "(unknown)";
+
+    private static final String ID_RANGE_QUERY = "SELECT MIN(id), MAX(id) FROM all_loans";
+    private static final String SLICE_QUERY =
+            "SELECT l.time_in, l.scheduled_return, l.time_out, bl.title, bl.author " +
+            "FROM all_loans l LEFT JOIN booklist bl ON bl.id = l.book_id " +
+            "WHERE l.id BETWEEN ? AND ?";
+
+    private volatile Counters counters = new Counters();
+
+    // After a loan was committed
+    public void recordBorrow(LocalDateTime timeIn, String title, String author) {
+        counters.borrow(timeIn, title, author);
+    }
+
+    // After a return was committed, with the fine charged for it
+    public void recordReturn(LocalDateTime timeIn, LocalDateTime scheduledReturn, LocalDateTime timeOut, double fine) {
+        counters.giveBack(timeIn, scheduledReturn, timeOut, fine);
+    }
+
+    /**
+     * Recounts every loan, current and archived, on up to threads pooled connections.
+     * The new totals replace the old ones only when every slice has been read. Borrows
+     * and returns recorded while the rebuild runs may be lost, so call it at startup
+     * before the desks open.
+     *
+     * @return true if the totals were rebuilt, false if the loans could not be read
+     */
+    public boolean rebuild(DbConnection dbConnection, int threads) {
+        return Metrics.time("CirculationStats.rebuild", () -> doRebuild(dbConnection, threads));
+    }
+
+    private boolean doRebuild(DbConnection dbConnection, int threads) {
+        long minId;
+        long maxId;
+        try (Connection connection = dbConnection.connect();
+             Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery(ID_RANGE_QUERY)) {
+            result.next();
+            minId = result.getLong(1);
+            maxId = result.getLong(2);
+            if (result.wasNull()) {
+                counters = new Counters(); // No loans yet
+                return true;
+            }
+        } catch (SQLException e) {
+            System.out.println("Error reading circulation history: " + e.getMessage());
+            return false;
+        }
+
+        int slices = (int) Math.max(1, Math.min(Math.max(1, threads), maxId - minId + 1));
+        long sliceSize = (maxId - minId + slices) / slices;
+        Counters rebuilt = new Counters();
+        ExecutorService executor = Executors.newFixedThreadPool(slices, runnable -> {
+            Thread thread = new Thread(runnable, "circulation-stats-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Void>> futures = new ArrayList<>(slices);
+            for (long from = minId; from <= maxId; from += sliceSize) {
+                long first = from;
+                long last = Math.min(maxId, from + sliceSize - 1);
+                futures.add(executor.submit(() -> {
+                    readSlice(dbConnection, first, last, rebuilt);
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            System.out.println("Error reading circulation history: " + e.getCause().getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            executor.shutdownNow();
+        }
+        counters = rebuilt;
+        return true;
+    }
+
+    // Adds the loans with ids first..last to the counters
+    private static void readSlice(DbConnection dbConnection, long first, long last, Counters into) throws SQLException {
+        try (Connection connection = dbConnection.connect();
+             PreparedStatement prep = connection.prepareStatement(SLICE_QUERY)) {
+            prep.setLong(1, first);
+            prep.setLong(2, last);
+            prep.setFetchSize(FETCH_SIZE);
+            try (ResultSet result = prep.executeQuery()) {
+                while (result.next()) {
+                    LocalDateTime timeIn = RowMappers.toLocalDateTime(result.getTimestamp("time_in"));
+                    LocalDateTime scheduledReturn = RowMappers.toLocalDateTime(result.getTimestamp("scheduled_return"));
+                    LocalDateTime timeOut = RowMappers.toLocalDateTime(result.getTimestamp("time_out"));
+                    into.borrow(timeIn, result.getString("title"), result.getString("author"));
+                    if (timeOut != null) {
+                        double fine = scheduledReturn != null
+                                ? FineLedger.fineFor(scheduledReturn.toLocalDate(), timeOut.toLocalDate()) : 0.0;
+                        into.giveBack(timeIn, scheduledReturn, timeOut, fine);
+                    }
+                }
+            }
+        }
+    }
+
+    // Takes over another instance's totals, e.g. ones read from a snapshot
+    public void copyFrom(CirculationStats other) {
+        counters = other.counters;
+    }
+
+    // Writes the totals to a snapshot; readFrom reads them back
+    public void writeTo(SnapshotWriter out) throws IOException {
+        Counters current = counters;
+        out.writeLong(current.totalLoans.sum());
+        out.writeLong(current.returnedLoans.sum());
+        out.writeLong(current.overdueReturns.sum());
+        out.writeLong(current.loanMinutes.sum());
+        out.writeDouble(current.finesCollected.sum());
+        Map<LocalDate, LongAdder> perDay = new HashMap<>(current.loansPerDay);
+        out.writeInt(perDay.size());
+        for (Map.Entry<LocalDate, LongAdder> entry : perDay.entrySet()) {
+            out.writeLong(entry.getKey().toEpochDay());
+            out.writeLong(entry.getValue().sum());
+        }
+        Map<YearMonth, LongAdder> perMonth = new HashMap<>(current.loansPerMonth);
+        out.writeInt(perMonth.size());
+        for (Map.Entry<YearMonth, LongAdder> entry : perMonth.entrySet()) {
+            out.writeInt(entry.getKey().getYear() * 12 + entry.getKey().getMonthValue() - 1);
+            out.writeLong(entry.getValue().sum());
+        }
+        writeCounts(out, current.loansPerTitle);
+        writeCounts(out, current.loansPerAuthor);
+    }
+
+    private static void writeCounts(SnapshotWriter out, Map<String, LongAdder> counts) throws IOException {
+        Map<String, LongAdder> copy = new HashMap<>(counts);
+        out.writeInt(copy.size());
+        for (Map.Entry<String, LongAdder> entry : copy.entrySet()) {
+            out.writeString(entry.getKey());
+            out.writeLong(entry.getValue().sum());
+        }
+    }
+
+    // Replaces the totals with ones written by writeTo
+    public void readFrom(SnapshotReader in) throws IOException {
+        Counters loaded = new Counters();
+        loaded.totalLoans.add(in.readLong());
+        loaded.returnedLoans.add(in.readLong());
+        loaded.overdueReturns.add(in.readLong());
+        loaded.loanMinutes.add(in.readLong());
+        loaded.finesCollected.add(in.readDouble());
+        for (int i = in.readCount(2 * Long.BYTES); i > 0; i--) {
+            LocalDate day = LocalDate.ofEpochDay(in.readLong());
+            Counters.add(loaded.loansPerDay, day, in.readLong());
+        }
+        for (int i = in.readCount(Integer.BYTES + Long.BYTES); i > 0; i--) {
+            int month = in.readInt();
+            Counters.add(loaded.loansPerMonth, YearMonth.of(Math.floorDiv(month, 12), Math.floorMod(month, 12) + 1), in.readLong());
+        }
+        readCounts(in, loaded.loansPerTitle);
+        readCounts(in, loaded.loansPerAuthor);
+        counters = loaded;
+    }
+
+    private static void readCounts(SnapshotReader in, Map<String, LongAdder> into) throws IOException {
+        for (int i = in.readCount(Integer.BYTES + Long.BYTES); i > 0; i--) {
+            String label = in.readString();
+            Counters.add(into, label, in.readLong());
+        }
+    }
+
+    /**
+     * The current totals, with the loans of the last days days and months months up to
+     * today and the top most borrowed titles and authors.
+     */
+    public CirculationReport report(int days, int months, int top) {
+        Counters current = counters;
+        LocalDate today = LocalDate.now();
+
+        List<LabelCount> perDay = new ArrayList<>(Math.max(0, days));
+        for (int i = days - 1; i >= 0; i--) {
+            LocalDate day = today.minusDays(i);
+            perDay.add(new LabelCount(day.toString(), sum(current.loansPerDay.get(day))));
+        }
+        List<LabelCount> perMonth = new ArrayList<>(Math.max(0, months));
+        YearMonth thisMonth = YearMonth.from(today);
+        for (int i = months - 1; i >= 0; i--) {
+            YearMonth month = thisMonth.minusMonths(i);
+            perMonth.add(new LabelCount(month.toString(), sum(current.loansPerMonth.get(month))));
+        }
+
+        long returned = current.returnedLoans.sum();
+        double averageDays = returned == 0 ? 0.0 : current.loanMinutes.sum() / (double) returned / (24 * 60);
+        return new CirculationReport(current.totalLoans.sum(), returned, current.overdueReturns.sum(), averageDays,
+                                     current.finesCollected.sum(), perDay, perMonth,
+                                     top(current.loansPerTitle, top), top(current.loansPerAuthor, top));
+    }
+
+    // The n largest counts, largest first; ties in label order
+    private static List<LabelCount> top(Map<String, LongAdder> counts, int n) {
+        if (n <= 0) {
+            return new ArrayList<>();
+        }
+        Comparator<LabelCount> order = Comparator.comparingLong(LabelCount::getCount)
+                                                 .thenComparing(LabelCount::getLabel, Comparator.reverseOrder());
+        PriorityQueue<LabelCount> smallestFirst = new PriorityQueue<>(n + 1, order);
+        for (Map.Entry<String, LongAdder> entry : counts.entrySet()) {
+            smallestFirst.add(new LabelCount(entry.getKey(), entry.getValue().sum()));
+            if (smallestFirst.size() > n) {
+                smallestFirst.poll();
+            }
+        }
+        List<LabelCount> ranked = new ArrayList<>(smallestFirst);
+        ranked.sort(Collections.reverseOrder(order));
+        return ranked;
+    }
+
+    private static long sum(LongAdder adder) {
+        return adder != null ? adder.sum() : 0;
+    }
+
+    // One generation of totals; rebuild fills a new one and swaps it in
+    private static final class Counters {
+        final Map<LocalDate, LongAdder> loansPerDay = new ConcurrentHashMap<>();
+        final Map<YearMonth, LongAdder> loansPerMonth = new ConcurrentHashMap<>();
+        final Map<String, LongAdder> loansPerTitle = new ConcurrentHashMap<>();
+        final Map<String, LongAdder> loansPerAuthor = new ConcurrentHashMap<>();
+        final LongAdder totalLoans = new LongAdder();
+        final LongAdder returnedLoans = new LongAdder();
+        final LongAdder overdueReturns = new LongAdder();
+        final LongAdder loanMinutes = new LongAdder();
+        final DoubleAdder finesCollected = new DoubleAdder();
+
+        void borrow(LocalDateTime timeIn, String title, String author) {
+            totalLoans.increment();
+            if (timeIn != null) {
+                increment(loansPerDay, timeIn.toLocalDate());
+                increment(loansPerMonth, YearMonth.from(timeIn));
+            }
+            increment(loansPerTitle, label(title));
+            increment(loansPerAuthor, label(author));
+        }
+
+        void giveBack(LocalDateTime timeIn, LocalDateTime scheduledReturn, LocalDateTime timeOut, double fine) {
+            returnedLoans.increment();
+            if (timeIn != null && timeOut.isAfter(timeIn)) {
+                loanMinutes.add(ChronoUnit.MINUTES.between(timeIn, timeOut));
+            }
+            if (scheduledReturn != null && timeOut.toLocalDate().isAfter(scheduledReturn.toLocalDate())) {
+                overdueReturns.increment(); // Same rule as the fine: late means a later day
+            }
+            if (fine > 0) {
+                finesCollected.add(fine);
+            }
+        }
+
+        private static <K> void increment(Map<K, LongAdder> counts, K key) {
+            counts.computeIfAbsent(key, k -> new LongAdder()).increment();
+        }
+
+        static <K> void add(Map<K, LongAdder> counts, K key, long amount) {
+            counts.computeIfAbsent(key, k -> new LongAdder()).add(amount);
+        }
+
+        // Loans of deleted books have no title or author any more
+        private static String label(String value) {
+            return value == null || value.trim().isEmpty() ? UNKNOWN : value.trim();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.joysis.library.circulation;
+
+import com.joysis.library.metrics.Metrics;
+import com.joysis.library.util.DbConnection;
+import com.joysis.library.util.InClause;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves loans that were returned more than retentionDays ago from borrower_list to
+ * loan_history, so borrower_list only holds current circulation and recent returns.
+ * The all_loans view still shows every loan.
+ *
+ * Rows are moved in batches of at most InClause.MAX_SIZE, each copied and deleted in
+ * its own short transaction, with a pause between batches, so the circulation desks
+ * never wait long on a lock held by the archiver. Active loans (time_out NULL) are
+ * never touched.
+ *
+ * Scheduled runs never write to the console, which belongs to the menu or script in the
+ * foreground; their timings and failed statements go to Metrics ("LoanArchiver.archive")
+ * and the foreground can ask for getArchivedCount() and getLastError().
+ */
+public class LoanArchiver {
+
+    public static final int DEFAULT_RETENTION_DAYS = 365;
+    private static final int BATCH_SIZE = InClause.MAX_SIZE;
+    private static final long PAUSE_BETWEEN_BATCHES_MS = 50;
+    private static final long FIRST_RUN_DELAY_MINUTES = 1; // Keep startup quiet
+
+    private static final String SELECT_BATCH_QUERY =
+            "SELECT id FROM borrower_list WHERE time_out IS NOT NULL AND time_out < ? ORDER BY time_out LIMIT ?";
+
+    private final DbConnection dbConnection;
+    private final int retentionDays;
+    private ScheduledExecutorService scheduler;
+    private final AtomicLong archivedCount = new AtomicLong();
+    private volatile String lastError; // From the most recent run; null if it succeeded
+
+    public LoanArchiver(DbConnection dbConnection, int retentionDays) {
+        if (retentionDays < 0) {
+            throw new IllegalArgumentException("Retention days cannot be negative: " + retentionDays);
+        }
+        this.dbConnection = dbConnection;
+        this.retentionDays = retentionDays;
+    }
+
+    /**
+     * Archives every loan returned before the retention cutoff.
+     *
+     * @return the number of loans moved, or -1 if a batch failed (earlier batches stay archived)
+     */
+    public long archive() {
+        long moved = runArchive();
+        if (moved < 0) {
+            System.out.println(lastError);
+        }
+        return moved;
+    }
+
+    // One run, recorded in the counters instead of printed
+    private long runArchive() {
+        long moved = Metrics.time("LoanArchiver.archive", this::doArchive);
+        if (moved > 0) {
+            archivedCount.addAndGet(moved);
+        }
+        return moved;
+    }
+
+    private long doArchive() {
+        Timestamp cutoff = Timestamp.valueOf(LocalDateTime.now().minusDays(retentionDays));
+        long moved = 0;
+        try {
+            while (true) {
+                int batch = archiveBatch(cutoff);
+                moved += batch;
+                if (batch < BATCH_SIZE) {
+                    lastError = null;
+                    return moved;
+                }
+                Thread.sleep(PAUSE_BETWEEN_BATCHES_MS); // Let the desks in between batches
+            }
+        } catch (SQLException e) {
+            archivedCount.addAndGet(moved); // Those batches were committed
+            lastError = "Error archiving closed loans (" + moved + " archived before the error): " + e.getMessage();
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return moved;
+        }
+    }
+
+    // Copies one batch to loan_history and deletes it from borrower_list in one transaction
+    private int archiveBatch(Timestamp cutoff) throws SQLException {
+        return dbConnection.inTransaction(connection -> {
+            List<Integer> ids = new ArrayList<>(BATCH_SIZE);
+            try (PreparedStatement prep = connection.prepareStatement(SELECT_BATCH_QUERY)) {
+                prep.setTimestamp(1, cutoff);
+                prep.setInt(2, BATCH_SIZE);
+                try (ResultSet result = prep.executeQuery()) {
+                    while (result.next()) {
+                        ids.add(result.getInt(1));
+                    }
+                }
+            }
+            if (ids.isEmpty()) {
+                return 0;
+            }
+
+            int slots = InClause.paddedSize(ids.size());
+            String in = " WHERE id IN (" + InClause.placeholders(slots) + ") AND time_out IS NOT NULL";
+            String copyQuery = "INSERT INTO loan_history (id, book_id, borrower_name, time_in, scheduled_return, time_out, archived_at) " +
+                               "SELECT id, book_id, borrower_name, time_in, scheduled_return, time_out, ? FROM borrower_list" + in;
+            String deleteQuery = "DELETE FROM borrower_list" + in;
+
+            int copied;
+            try (PreparedStatement prep = connection.prepareStatement(copyQuery)) {
+                prep.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now()));
+                bindIds(prep, 2, ids, slots);
+                copied = prep.executeUpdate();
+            }
+            try (PreparedStatement prep = connection.prepareStatement(deleteQuery)) {
+                bindIds(prep, 1, ids, slots);
+                int deleted = prep.executeUpdate();
+                if (deleted != copied) {
+                    throw new SQLException("Archived " + copied + " loans but deleted " + deleted + "; batch rolled back.");
+                }
+            }
+            return copied;
+        });
+    }
+
+    // Binds the IDs, repeating the last one to fill the padded IN list
+    private static void bindIds(PreparedStatement prep, int firstIndex, List<Integer> ids, int slots) throws SQLException {
+        for (int i = 0; i < slots; i++) {
+            prep.setInt(firstIndex + i, ids.get(Math.min(i, ids.size() - 1)));
+        }
+    }
+
+    /**
+     * Runs {@link #archive()} on a daemon thread a minute after the call, then every
+     * intervalMinutes.
+     */
+    public synchronized void start(long intervalMinutes) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "loan-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::runArchive, FIRST_RUN_DELAY_MINUTES, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    // Loans moved to loan_history since this archiver was created
+    public long getArchivedCount() {
+        return archivedCount.get();
+    }
+
+    // Why the most recent run failed, or null if it succeeded or none has run
+    public String getLastError() {
+        return lastError;
+    }
+
+    public int getRetentionDays() {
+        return retentionDays;
+    }
+}
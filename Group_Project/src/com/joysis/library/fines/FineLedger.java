@@ -0,0 +1,167 @@
+package com.joysis.library.fines;
+
+import com.joysis.library.model.Loan;
+import com.joysis.library.model.OverdueLoan;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps every active loan ordered by due date and accrues overdue fines incrementally.
+ *
+ * Loans that are not yet overdue wait in a priority queue keyed by due day. When the
+ * ledger moves to a new day, only the loans that just became overdue are popped off the
+ * queue. For the overdue set the ledger keeps a count and the sum of due days, so the
+ * total fine on any day is FINE_PER_DAY * (count * today - sum of due days): no loan has
+ * to be visited to answer it. Listing the overdue loans visits only the overdue loans.
+ */
+public class FineLedger {
+
+    public static final double FINE_PER_DAY = 10.0; // $10 per day
+
+    private final PriorityQueue<Entry> notYetDue = new PriorityQueue<>((a, b) -> Long.compare(a.dueDay, b.dueDay));
+    private final Map<Integer, Entry> overdue = new LinkedHashMap<>();
+    private final Map<Integer, Entry> active = new HashMap<>();
+    private final Map<Integer, Entry> activeByBook = new HashMap<>();
+
+    private long overdueDueDaySum;
+    private long currentDay = Long.MIN_VALUE;
+
+    /**
+     * Fine for a book due on scheduledReturnDate and returned (or checked) on actualDate.
+     */
+    public static double fineFor(LocalDate scheduledReturnDate, LocalDate actualDate) {
+        if (actualDate.isAfter(scheduledReturnDate)) {
+            long daysOverdue = ChronoUnit.DAYS.between(scheduledReturnDate, actualDate);
+            return daysOverdue * FINE_PER_DAY;
+        }
+        return 0.0; // No fine if returned on or before due date
+    }
+
+    // Starts tracking an active loan. Loans without a due date never accrue fines.
+    public synchronized void add(Loan loan) {
+        if (loan.getScheduledReturn() == null || active.containsKey(loan.getId())) {
+            return;
+        }
+        Entry entry = new Entry(loan, loan.getScheduledReturn().toLocalDate().toEpochDay());
+        active.put(loan.getId(), entry);
+        activeByBook.put(loan.getBookId(), entry);
+        if (currentDay != Long.MIN_VALUE && entry.dueDay < currentDay) {
+            markOverdue(entry);
+        } else {
+            notYetDue.add(entry);
+        }
+    }
+
+    /**
+     * Stops tracking a loan that has been returned and returns the fine owed on the
+     * given day, or -1 if the ledger does not know the loan.
+     */
+    public synchronized double settle(int loanId, LocalDate returnDate) {
+        Entry entry = active.remove(loanId);
+        if (entry == null) {
+            return -1;
+        }
+        entry.removed = true; // Lazily dropped from the priority queue when it reaches the head
+        activeByBook.remove(entry.loan.getBookId(), entry);
+        if (overdue.remove(loanId) != null) {
+            overdueDueDaySum -= entry.dueDay;
+        }
+        return Math.max(0, returnDate.toEpochDay() - entry.dueDay) * FINE_PER_DAY;
+    }
+
+    // Fine built up so far by an active loan, or -1 if the ledger does not know the loan
+    public synchronized double fineFor(int loanId, LocalDate today) {
+        Entry entry = active.get(loanId);
+        if (entry == null) {
+            return -1;
+        }
+        return Math.max(0, today.toEpochDay() - entry.dueDay) * FINE_PER_DAY;
+    }
+
+    // Sum of the fines of every active overdue loan as of today, in O(1) once the day is current
+    public synchronized double getTotalOutstandingFines(LocalDate today) {
+        advanceTo(today.toEpochDay());
+        return (overdue.size() * currentDay - overdueDueDaySum) * FINE_PER_DAY;
+    }
+
+    public synchronized int getOverdueCount(LocalDate today) {
+        advanceTo(today.toEpochDay());
+        return overdue.size();
+    }
+
+    // The overdue loans as of today, oldest due date first
+    public synchronized List<OverdueLoan> getOverdueLoans(LocalDate today) {
+        advanceTo(today.toEpochDay());
+        // The overdue set is in the order loans became overdue; a loan added when it was
+        // already overdue lands after later due dates, so sort here
+        List<Entry> entries = new ArrayList<>(overdue.values());
+        entries.sort(Comparator.comparingLong((Entry entry) -> entry.dueDay).thenComparingInt(entry -> entry.loan.getId()));
+        List<OverdueLoan> result = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            long days = currentDay - entry.dueDay;
+            result.add(new OverdueLoan(entry.loan, days, days * FINE_PER_DAY));
+        }
+        return result;
+    }
+
+    // The active loan the ledger knows for a book, or null
+    public synchronized Loan activeLoanFor(int bookId) {
+        Entry entry = activeByBook.get(bookId);
+        return entry != null ? entry.loan : null;
+    }
+
+    public synchronized int getActiveCount() {
+        return active.size();
+    }
+
+    public synchronized void clear() {
+        notYetDue.clear();
+        overdue.clear();
+        active.clear();
+        activeByBook.clear();
+        overdueDueDaySum = 0;
+        currentDay = Long.MIN_VALUE;
+    }
+
+    // Moves loans that became overdue since the last call from the queue to the overdue set
+    private void advanceTo(long today) {
+        if (today < currentDay) {
+            // The clock went backwards: put everything back in the queue and start over
+            for (Entry entry : overdue.values()) {
+                notYetDue.add(entry);
+            }
+            overdue.clear();
+            overdueDueDaySum = 0;
+        }
+        currentDay = today;
+        while (!notYetDue.isEmpty() && notYetDue.peek().dueDay < today) {
+            Entry entry = notYetDue.poll();
+            if (!entry.removed) {
+                markOverdue(entry);
+            }
+        }
+    }
+
+    private void markOverdue(Entry entry) {
+        overdue.put(entry.loan.getId(), entry);
+        overdueDueDaySum += entry.dueDay;
+    }
+
+    private static final class Entry {
+        final Loan loan;
+        final long dueDay;
+        boolean removed;
+
+        Entry(Loan loan, long dueDay) {
+            this.loan = loan;
+            this.dueDay = dueDay;
+        }
+    }
+}
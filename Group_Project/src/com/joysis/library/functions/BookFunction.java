@@ -1,14 +1,32 @@
 package com.joysis.library.functions;
 
+import com.joysis.library.circulation.AvailabilityIndex;
+import com.joysis.library.metrics.Metrics;
+import com.joysis.library.model.AvailabilityReport;
+import com.joysis.library.model.Book;
+import com.joysis.library.model.BookUpdateResult;
+import com.joysis.library.model.CatalogEntry;
+import com.joysis.library.model.Loan;
+import com.joysis.library.model.RowMappers;
+import com.joysis.library.render.Column;
+import com.joysis.library.render.OutputFormat;
+import com.joysis.library.render.RowRenderer;
+import com.joysis.library.search.BookSearchIndex;
+import com.joysis.library.util.CacheStats;
 import com.joysis.library.util.DbConnection;
+import com.joysis.library.util.InClause;
+import com.joysis.library.util.LruCache;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.sql.Timestamp;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
 
 /**
  *
@@ -16,7 +34,35 @@ import java.time.format.DateTimeFormatter;
  */
 public class BookFunction {
 
+    private static final int DISPLAY_ALL_PAGE_SIZE = 500;
+    // Columns read by RowMappers.BOOK
+    private static final String BOOK_COLUMNS = "id, title, author, year, isbn, status, version";
+    public static final int ANY_VERSION = -1; // updateBook without the optimistic version check
+    // Columns read by RowMappers.CATALOG_ENTRY: the book plus its active loan from a LEFT JOIN
+    static final String CATALOG_COLUMNS = "bl.id, bl.title, bl.author, bl.year, bl.isbn, bl.status, bl.version, " +
+                                                  "br.id AS loan_id, br.borrower_name, br.time_in, br.scheduled_return";
+    private static final int BOOK_CACHE_SIZE = 10_000; // Books kept in the lookup-by-ID cache
+
+    // Columns of the book list, shared by the table on screen and the CSV/JSON exports
+    private static final List<Column<CatalogEntry>> CATALOG_LISTING = Arrays.asList(
+        Column.<CatalogEntry>of("id", "ID", 5, entry -> entry.getBook().getId()),
+        Column.<CatalogEntry>of("title", "TITLE", 30, entry -> entry.getBook().getTitle()),
+        Column.<CatalogEntry>of("author", "AUTHOR", 20, entry -> entry.getBook().getAuthor()),
+        Column.<CatalogEntry>of("year", "YEAR", 5, entry -> entry.getBook().getYear()),
+        Column.<CatalogEntry>of("isbn", "ISBN", 15, entry -> entry.getBook().getIsbn()),
+        Column.<CatalogEntry>of("status", "STATUS", 10, entry -> entry.isBorrowed() ? "Borrowed" : "Available"),
+        Column.<CatalogEntry>of("borrowedBy", "BORROWED BY", 20, entry -> activeLoanOf(entry) == null ? null : activeLoanOf(entry).getBorrowerName())
+              // Small consistency check for cases where book is marked borrowed but no active record is joined
+              .withTableText(entry -> entry.isBorrowed() && entry.getActiveLoan() == null ? "N/A (Data Inconsistent)"
+                                     : activeLoanOf(entry) == null ? "N/A" : activeLoanOf(entry).getBorrowerName()),
+        Column.<CatalogEntry>of("borrowDate", "BORROW DATE", 20, entry -> activeLoanOf(entry) == null ? null : activeLoanOf(entry).getTimeIn()),
+        Column.<CatalogEntry>of("dueDate", "DUE DATE", 20, entry -> activeLoanOf(entry) == null ? null : activeLoanOf(entry).getScheduledReturn())
+    );
+
     private final DbConnection dbConnection; // composition
+    private final BookSearchIndex searchIndex = new BookSearchIndex();
+    private final LruCache<Integer, Book> bookCache = new LruCache<>(BOOK_CACHE_SIZE);
+    private final AvailabilityIndex availabilityIndex = new AvailabilityIndex();
 
     // constructor injection
     public BookFunction(DbConnection dbConnection) {
@@ -26,11 +72,15 @@ public class BookFunction {
     // --- CRUD Operations for Books ---
 
     // 1. Create Operation (Add Book)
-    public void addBook(String title, String author, int year, String isbn) {
+    public boolean addBook(String title, String author, int year, String isbn) {
+        return Metrics.time("BookFunction.addBook", () -> doAddBook(title, author, year, isbn));
+    }
+
+    private boolean doAddBook(String title, String author, int year, String isbn) {
         String query = "INSERT INTO booklist (title, author, year, isbn, status) VALUES (?, ?, ?, ?, 0)"; // Default status 0 (available)
 
         try (Connection connection = dbConnection.connect();
-             PreparedStatement prep = connection.prepareStatement(query)) {
+             PreparedStatement prep = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
 
             prep.setString(1, title);
             prep.setString(2, author);
@@ -38,156 +88,245 @@ public class BookFunction {
             prep.setString(4, isbn);
 
             prep.executeUpdate();
+            try (ResultSet keys = prep.getGeneratedKeys()) {
+                if (keys.next()) {
+                    searchIndex.put(keys.getInt(1), title, author);
+                    availabilityIndex.add(keys.getInt(1));
+                }
+            }
             System.out.println("Book '" + title + "' added successfully!\n");
+            return true;
         } catch (SQLException e) {
             System.out.println("Error adding book: " + e.getMessage());
+            return false;
         }
     }
 
     // 2. Read Operation (Display All Books)
     public void displayAllBooks() {
-        String query = "SELECT bl.id, bl.title, bl.author, bl.year, bl.isbn, bl.status, " +
-                       " br.borrower_name AS current_borrower, " +
-                       " br.time_in AS borrow_date, " +
-                       " br.scheduled_return AS scheduled_return_date " +
-                       " FROM booklist bl " +
-                       " LEFT JOIN borrower_list br ON bl.id = br.book_id AND br.time_out IS NULL"; // Join to get active borrowed info
+        Metrics.run("BookFunction.displayAllBooks", () -> exportAllBooks(OutputFormat.TABLE, null));
+    }
 
-        try (Connection connection = dbConnection.connect();
-             Statement state = connection.createStatement();
-             ResultSet result = state.executeQuery(query)) {
-
-            System.out.println("\n--- Current Book List ---");
-            System.out.printf("%-5s %-30s %-20s %-5s %-15s %-10s %-20s %-20s %-20s\n",
-                              "ID", "TITLE", "AUTHOR", "YEAR", "ISBN", "STATUS", "BORROWED BY", "BORROW DATE", "DUE DATE");
-            System.out.println("-----------------------------------------------------------------------------------------------------------------------------------------------------------------------");
-
-            boolean foundBooks = false;
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
-
-            while (result.next()) {
-                foundBooks = true;
-                int id = result.getInt("id");
-                String title = result.getString("title");
-                String author = result.getString("author");
-                int year = result.getInt("year");
-                String isbn = result.getString("isbn");
-                int status = result.getInt("status");
-
-                String statusText = (status == 1) ? "Borrowed" : "Available";
-
-                String currentBorrower;
-                String borrowDateStr;
-                String scheduledReturnDateStr;
-
-                if (statusText.equals("Borrowed")) {
-                    currentBorrower = result.getString("current_borrower");
-                    Timestamp borrowTimestamp = result.getTimestamp("borrow_date");
-                    Timestamp scheduledReturnTimestamp = result.getTimestamp("scheduled_return_date");
-
-                    borrowDateStr = (borrowTimestamp != null) ? borrowTimestamp.toLocalDateTime().format(formatter) : "N/A";
-                    scheduledReturnDateStr = (scheduledReturnTimestamp != null) ? scheduledReturnTimestamp.toLocalDateTime().format(formatter) : "N/A";
-                    
-                    // Small consistency check for cases where book is marked borrowed but no active record is joined
-                    if (currentBorrower == null) {
-                         currentBorrower = "N/A (Data Inconsistent)"; 
-                         borrowDateStr = "N/A";
-                         scheduledReturnDateStr = "N/A";
-                    }
+    /**
+     * Writes the whole catalog as a table, CSV or JSON, to standard output (filePath null)
+     * or to a file. Walks the catalog one page at a time, so memory use does not grow with
+     * the size of the booklist, and each page is fetched in full before it is written.
+     *
+     * @return false if the file could not be written
+     */
+    public boolean exportAllBooks(OutputFormat format, String filePath) {
+        return Metrics.time("BookFunction.exportAllBooks", () -> doExportAllBooks(format, filePath));
+    }
 
-                } else {
-                    currentBorrower = "N/A";
-                    borrowDateStr = "N/A";
-                    scheduledReturnDateStr = "N/A";
+    private boolean doExportAllBooks(OutputFormat format, String filePath) {
+        try (RowRenderer<CatalogEntry> renderer = RowRenderer.open(format, CATALOG_LISTING, filePath)) {
+            renderer.begin("Current Book List");
+            int afterId = 0;
+            List<CatalogEntry> page;
+            do {
+                page = listBooks(afterId, DISPLAY_ALL_PAGE_SIZE);
+                renderer.rows(page);
+                if (!page.isEmpty()) {
+                    afterId = page.get(page.size() - 1).getBook().getId();
                 }
-
-                System.out.printf("%-5d %-30s %-20s %-5d %-15s %-10s %-20s %-20s %-20s\n",
-                                  id, title, author, year, isbn, statusText, currentBorrower, borrowDateStr, scheduledReturnDateStr);
+            } while (page.size() >= DISPLAY_ALL_PAGE_SIZE);
+            String summary = availabilityIndex.isLoaded() && format == OutputFormat.TABLE
+                    ? availabilityIndex.getBookCount() + " book(s): " + availabilityIndex.getAvailableCount() + " available, "
+                      + availabilityIndex.getBorrowedCount() + " borrowed"
+                    : null;
+            renderer.end("No books found in the library.", summary);
+            if (filePath != null && !filePath.trim().isEmpty()) {
+                System.out.println(renderer.getRowCount() + " book(s) exported to " + filePath.trim() + ".");
             }
-            if (!foundBooks) {
-                System.out.println("No books found in the library.");
+            return true;
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("Error exporting books: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Returns up to pageSize books with an ID greater than afterId, in ID order, each joined
+     * with its active borrowing record. Pass 0 for the first page and the last ID of the
+     * previous page after that (keyset pagination), so every page is an index range scan
+     * no matter how deep into the catalog it is.
+     */
+    public List<CatalogEntry> listBooks(int afterId, int pageSize) {
+        return Metrics.time("BookFunction.listBooks", () -> doListBooks(afterId, pageSize));
+    }
+
+    private List<CatalogEntry> doListBooks(int afterId, int pageSize) {
+        String query = "SELECT " + CATALOG_COLUMNS +
+                       " FROM (SELECT id, title, author, year, isbn, status, version FROM booklist " +
+                       "       WHERE id > ? ORDER BY id LIMIT ?) bl " +
+                       " LEFT JOIN borrower_list br ON bl.id = br.book_id AND br.time_out IS NULL" + // Join to get active borrowed info
+                       " ORDER BY bl.id";
+
+        List<CatalogEntry> page = new ArrayList<>(Math.max(pageSize, 0));
+        try (Connection connection = dbConnection.connect();
+             PreparedStatement prep = connection.prepareStatement(query)) {
+
+            prep.setInt(1, afterId);
+            prep.setInt(2, pageSize);
+            prep.setFetchSize(pageSize); // Stream the page instead of buffering more than we asked for
+
+            try (ResultSet result = prep.executeQuery()) {
+                while (result.next()) {
+                    page.add(RowMappers.CATALOG_ENTRY.map(result));
+                }
             }
-            System.out.println("-----------------------------------------------------------------------------------------------------------------------------------------------------------------------\n");
         } catch (SQLException e) {
+            System.out.println("Error listing books: " + e.getMessage());
+        }
+        return page;
+    }
+
+    // Prints one page returned by listBooks, with the usual table header and footer
+    public void displayBookPage(List<CatalogEntry> page) {
+        printBookList("Current Book List", page, "No more books to display.");
+    }
+
+    private void printBookList(String heading, List<CatalogEntry> entries, String emptyMessage) {
+        try (RowRenderer<CatalogEntry> renderer = RowRenderer.toStdout(OutputFormat.TABLE, CATALOG_LISTING)) {
+            renderer.begin(heading);
+            renderer.rows(entries);
+            renderer.end(emptyMessage, null);
+        } catch (IOException | UncheckedIOException e) {
             System.out.println("Error displaying books: " + e.getMessage());
         }
     }
 
+    // Null when the book is available
+    private static Loan activeLoanOf(CatalogEntry entry) {
+        return entry.isBorrowed() ? entry.getActiveLoan() : null;
+    }
+
     // 3. Read Operation (Search Book by Title)
     public void searchBookByTitle(String keyword) {
-        String query = "SELECT bl.id, bl.title, bl.author, bl.year, bl.isbn, bl.status, " +
-                       " br.borrower_name AS current_borrower, " +
-                       " br.time_in AS borrow_date, " +
-                       " br.scheduled_return AS scheduled_return_date " +
+        Metrics.run("BookFunction.searchBookByTitle", () -> doSearchBookByTitle(keyword));
+    }
+
+    private void doSearchBookByTitle(String keyword) {
+        List<CatalogEntry> matches = searchBooks(keyword);
+        if (matches == null) {
+            return; // The error has been printed
+        }
+        printBookList("Search Results for '" + keyword + "'", matches, "No books found matching your search.");
+    }
+
+    /**
+     * Finds books whose title or author contains words starting with every word of the
+     * keyword ("tolk hob"). Uses the in-memory search index once it has been loaded, and
+     * falls back to a LIKE scan on the title before that. Null if the search failed.
+     */
+    public List<CatalogEntry> searchBooks(String keyword) {
+        return Metrics.time("BookFunction.searchBooks", () -> doSearchBooks(keyword));
+    }
+
+    private List<CatalogEntry> doSearchBooks(String keyword) {
+        if (!searchIndex.isLoaded()) {
+            return searchBooksByLike(keyword);
+        }
+        return findBooksByIds(searchIndex.search(keyword));
+    }
+
+    /**
+     * Loads every book's title and author into the search index. Called once at startup;
+     * addBook, updateBook and deleteBook keep it current after that.
+     */
+    public void loadSearchIndex() {
+        Metrics.run("BookFunction.loadSearchIndex", this::doLoadSearchIndex);
+    }
+
+    private void doLoadSearchIndex() {
+        String query = "SELECT id, title, author FROM booklist";
+
+        searchIndex.clear();
+        try (Connection connection = dbConnection.connect();
+             PreparedStatement prep = connection.prepareStatement(query)) {
+
+            prep.setFetchSize(DISPLAY_ALL_PAGE_SIZE);
+            try (ResultSet result = prep.executeQuery()) {
+                while (result.next()) {
+                    searchIndex.put(result.getInt("id"), result.getString("title"), result.getString("author"));
+                }
+            }
+            searchIndex.markLoaded();
+        } catch (SQLException e) {
+            searchIndex.clear();
+            System.out.println("Error loading search index (searches will scan the booklist): " + e.getMessage());
+        }
+    }
+
+    // Fetches the catalog rows for the given book IDs, in ID order; null on error
+    private List<CatalogEntry> findBooksByIds(int[] ids) {
+        List<CatalogEntry> entries = new ArrayList<>(ids.length);
+        try (Connection connection = dbConnection.connect()) {
+            for (int from = 0; from < ids.length; from += InClause.MAX_SIZE) {
+                int count = Math.min(InClause.MAX_SIZE, ids.length - from);
+                int slots = InClause.paddedSize(count);
+                String query = "SELECT " + CATALOG_COLUMNS +
+                               " FROM booklist bl " +
+                               " LEFT JOIN borrower_list br ON bl.id = br.book_id AND br.time_out IS NULL " +
+                               " WHERE bl.id IN (" + InClause.placeholders(slots) + ") ORDER BY bl.id";
+
+                try (PreparedStatement prep = connection.prepareStatement(query)) {
+                    for (int i = 0; i < slots; i++) {
+                        prep.setInt(i + 1, ids[from + Math.min(i, count - 1)]);
+                    }
+                    try (ResultSet result = prep.executeQuery()) {
+                        while (result.next()) {
+                            entries.add(RowMappers.CATALOG_ENTRY.map(result));
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println("Error searching books: " + e.getMessage());
+            return null;
+        }
+        return entries;
+    }
+
+    // Search used until the index is loaded: a full scan with LIKE on the title; null on error
+    private List<CatalogEntry> searchBooksByLike(String keyword) {
+        String query = "SELECT " + CATALOG_COLUMNS +
                        " FROM booklist bl " +
                        " LEFT JOIN borrower_list br ON bl.id = br.book_id AND br.time_out IS NULL " +
                        " WHERE bl.title LIKE ?";
 
+        List<CatalogEntry> entries = new ArrayList<>();
         try (Connection connection = dbConnection.connect();
              PreparedStatement prep = connection.prepareStatement(query)) {
 
             prep.setString(1, "%" + keyword + "%");
 
-            ResultSet result = prep.executeQuery();
-
-            System.out.println("\n--- Search Results for '" + keyword + "' ---");
-            System.out.printf("%-5s %-30s %-20s %-5s %-15s %-10s %-20s %-20s %-20s\n",
-                              "ID", "TITLE", "AUTHOR", "YEAR", "ISBN", "STATUS", "BORROWED BY", "BORROW DATE", "DUE DATE");
-            System.out.println("-----------------------------------------------------------------------------------------------------------------------------------------------------------------------");
-
-            boolean foundBooks = false;
-            DateTimeFormatter foatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
-
-            while (result.next()) {
-                foundBooks = true;
-                int id = result.getInt("id");
-                String title = result.getString("title");
-                String author = result.getString("author");
-                int year = result.getInt("year");
-                String isbn = result.getString("isbn");
-                int status = result.getInt("status");
-
-                String statusText = (status == 1) ? "Borrowed" : "Available";
-
-                String currentBorrower;
-                String borrowDateStr;
-                String scheduledReturnDateStr;
-
-                if (statusText.equals("Borrowed")) {
-                    currentBorrower = result.getString("current_borrower");
-                    Timestamp borrowTimestamp = result.getTimestamp("borrow_date");
-                    Timestamp scheduledReturnTimestamp = result.getTimestamp("scheduled_return_date");
-
-                    borrowDateStr = (borrowTimestamp != null) ? borrowTimestamp.toLocalDateTime().format(formatter) : "N/A";
-                    scheduledReturnDateStr = (scheduledReturnTimestamp != null) ? scheduledReturnTimestamp.toLocalDateTime().format(formatter) : "N/A";
-                    
-                     if (currentBorrower == null) {
-                         currentBorrower = "N/A (Data Inconsistent)";
-                         borrowDateStr = "N/A";
-                         scheduledReturnDateStr = "N/A";
-                    }
-
-                } else {
-                    currentBorrower = "N/A";
-                    borrowDateStr = "N/A";
-                    scheduledReturnDateStr = "N/A";
+            try (ResultSet result = prep.executeQuery()) {
+                while (result.next()) {
+                    entries.add(RowMappers.CATALOG_ENTRY.map(result));
                 }
-
-                System.out.printf("%-5d %-30s %-20s %-5d %-15s %-10s %-20s %-20s %-20s\n",
-                                  id, title, author, year, isbn, statusText, currentBorrower, borrowDateStr, scheduledReturnDateStr);
-            }
-            if (!foundBooks) {
-                System.out.println("No books found matching your search.");
             }
-            System.out.println("-----------------------------------------------------------------------------------------------------------------------------------------------------------------------\n");
         } catch (SQLException e) {
             System.out.println("Error searching books: " + e.getMessage());
+            return null;
         }
+        return entries;
     }
 
     // 4. Update Operation (Update Book Details)
-    public void updateBook(int bookId, String newTitle, String newAuthor, int newYear, String newISBN) {
-        String query = "UPDATE booklist SET title = ?, author = ?, year = ?, isbn = ? WHERE id = ?";
+    /**
+     * Saves new details for a book, but only if it is still at expectedVersion (the
+     * version of the Book the caller showed for editing). Returns CONFLICT with the book's
+     * current state when another desk changed it in the meantime; nothing is saved and
+     * nobody waits on a lock. ANY_VERSION overwrites whatever is there.
+     */
+    public BookUpdateResult updateBook(int bookId, int expectedVersion, String newTitle, String newAuthor, int newYear, String newISBN) {
+        return Metrics.time("BookFunction.updateBook", () -> doUpdateBook(bookId, expectedVersion, newTitle, newAuthor, newYear, newISBN));
+    }
+
+    private BookUpdateResult doUpdateBook(int bookId, int expectedVersion, String newTitle, String newAuthor, int newYear, String newISBN) {
+        String query = "UPDATE booklist SET title = ?, author = ?, year = ?, isbn = ?, version = version + 1 WHERE id = ?" +
+                       (expectedVersion == ANY_VERSION ? "" : " AND version = ?");
 
         try (Connection connection = dbConnection.connect();
              PreparedStatement prep = connection.prepareStatement(query)) {
@@ -197,20 +336,38 @@ public class BookFunction {
             prep.setInt(3, newYear);
             prep.setString(4, newISBN);
             prep.setInt(5, bookId);
+            if (expectedVersion != ANY_VERSION) {
+                prep.setInt(6, expectedVersion);
+            }
 
             int rowsAffected = prep.executeUpdate();
+            if (rowsAffected > 0) {
+                searchIndex.put(bookId, newTitle, newAuthor);
+            }
+            Book current = readBook(connection, bookId);
+            if (current == null) {
+                System.out.println("Book ID " + bookId + " not found.\n");
+                return BookUpdateResult.notFound();
+            }
             if (rowsAffected > 0) {
                 System.out.println("Book ID " + bookId + " updated successfully!\n");
-            } else {
-                System.out.println("Book ID " + bookId + " not found or no changes made.\n");
+                return BookUpdateResult.updated(current);
             }
+            System.out.println("Book ID " + bookId + " was changed at another desk since it was read.");
+            return BookUpdateResult.conflict(current);
         } catch (SQLException e) {
+            bookCache.invalidate(bookId);
             System.out.println("Error updating book: " + e.getMessage());
+            return BookUpdateResult.failed();
         }
     }
 
     // 5. Delete Operation (Delete Book - Hard Delete)
-    public void deleteBook(int bookId) {
+    public boolean deleteBook(int bookId) {
+        return Metrics.time("BookFunction.deleteBook", () -> doDeleteBook(bookId));
+    }
+
+    private boolean doDeleteBook(int bookId) {
         String query = "DELETE FROM booklist WHERE id = ?";
 
         try (Connection connection = dbConnection.connect();
@@ -220,103 +377,347 @@ public class BookFunction {
 
             int rowsAffected = prep.executeUpdate();
             if (rowsAffected > 0) {
+                searchIndex.remove(bookId);
+                bookCache.invalidate(bookId);
+                availabilityIndex.remove(bookId);
                 System.out.println("Book ID " + bookId + " deleted successfully!\n");
-            } else {
-                System.out.println("Book ID " + bookId + " not found.\n");
+                return true;
             }
+            System.out.println("Book ID " + bookId + " not found.\n");
+            return false;
         } catch (SQLException e) {
             System.out.println("Error deleting book: " + e.getMessage());
             // Provide a more user-friendly message if it's a foreign key constraint
             if (e.getMessage().contains("a foreign key constraint fails")) {
                  System.out.println("Cannot delete book: It might be currently borrowed or referenced in another table.");
             }
+            return false;
         }
     }
 
     // --- Helper Method for Internal Use (e.g., by BorrowingFunction) ---
-    // This method is called by BorrowerFunction to change a book's status (available/borrowed)
-    public void updateBookStatus(int bookId, int newStatus) {
-        String query = "UPDATE booklist SET status = ? WHERE id = ?";
+    // Changes a book's status (available/borrowed). Only applies if the book is not already
+    // in that status; otherwise someone else got there first and the result is CONFLICT.
+    public BookUpdateResult updateBookStatus(int bookId, int newStatus) {
+        return Metrics.time("BookFunction.updateBookStatus", () -> doUpdateBookStatus(bookId, newStatus));
+    }
+
+    private BookUpdateResult doUpdateBookStatus(int bookId, int newStatus) {
+        String query = "UPDATE booklist SET status = ?, version = version + 1 WHERE id = ? AND status <> ?";
         try (Connection connection = dbConnection.connect();
              PreparedStatement prep = connection.prepareStatement(query)) {
             prep.setInt(1, newStatus);
             prep.setInt(2, bookId);
-            prep.executeUpdate();
+            prep.setInt(3, newStatus);
+            int rowsAffected = prep.executeUpdate();
+            Book current = readBook(connection, bookId);
+            if (current == null) {
+                availabilityIndex.remove(bookId);
+                return BookUpdateResult.notFound();
+            }
+            availabilityIndex.setStatus(bookId, current.isBorrowed());
+            return rowsAffected > 0 ? BookUpdateResult.updated(current) : BookUpdateResult.conflict(current);
         } catch (SQLException e) {
+            invalidateCachedBook(bookId);
             System.out.println("Error updating book status for ID " + bookId + ": " + e.getMessage());
+            return BookUpdateResult.failed();
         }
     }
 
-    // New: Check if a book ID exists and is available
+    // New: Check if a book ID exists and is available (not marked borrowed and no active loan)
     public boolean isBookAvailable(int bookId) {
-        String query = "SELECT status FROM booklist WHERE id = ?";
-        try (Connection connection = dbConnection.connect();
-             PreparedStatement prep = connection.prepareStatement(query)) {
-            prep.setInt(1, bookId);
-            ResultSet result = prep.executeQuery();
-            if (result.next()) {
-                return result.getInt("status") == 0; // 0 means available
-            }
-        } catch (SQLException e) {
-            System.out.println("Error checking book availability: " + e.getMessage());
+        return Metrics.time("BookFunction.isBookAvailable", () -> doIsBookAvailable(bookId));
+    }
+
+    private boolean doIsBookAvailable(int bookId) {
+        if (availabilityReady(bookId)) {
+            return availabilityIndex.isAvailable(bookId);
         }
-        return false; // Book not found or error
+        Book book = getBookDetailsById(bookId);
+        return book != null && book.isAvailable();
     }
 
     // New: Get book title by ID (used for display in Main before borrowing/returning confirmation)
     public String getBookTitleById(int bookId) {
-        String query = "SELECT title FROM booklist WHERE id = ?";
-        try (Connection connection = dbConnection.connect();
-             PreparedStatement prep = connection.prepareStatement(query)) {
-            prep.setInt(1, bookId);
-            ResultSet result = prep.executeQuery();
-            if (result.next()) {
-                return result.getString("title");
+        return Metrics.time("BookFunction.getBookTitleById", () -> doGetBookTitleById(bookId));
+    }
+
+    private String doGetBookTitleById(int bookId) {
+        Book book = getBookDetailsById(bookId);
+        return book != null ? book.getTitle() : null; // Book not found or error
+    }
+
+    // New: Check if a book ID exists at all (used in Main for update/delete checks)
+    public boolean bookExists(int bookId) {
+        return Metrics.time("BookFunction.bookExists", () -> doBookExists(bookId));
+    }
+
+    private boolean doBookExists(int bookId) {
+        if (availabilityReady(bookId)) {
+            return availabilityIndex.exists(bookId);
+        }
+        return getBookDetailsById(bookId) != null;
+    }
+
+    // True when the book has an active loan in borrower_list, whatever its status says
+    public boolean hasActiveLoan(int bookId) {
+        return Metrics.time("BookFunction.hasActiveLoan", () -> doHasActiveLoan(bookId));
+    }
+
+    private boolean doHasActiveLoan(int bookId) {
+        if (!availabilityReady(bookId)) {
+            refreshAvailability(bookId);
+        }
+        return availabilityIndex.hasActiveLoan(bookId);
+    }
+
+    public int countAvailableBooks() {
+        return availabilityIndex.getAvailableCount();
+    }
+
+    public int countBorrowedBooks() {
+        return availabilityIndex.getBorrowedCount();
+    }
+
+    /**
+     * Loads the availability index from booklist.status and the active loans. Called once
+     * at startup; borrow, return, add and delete keep it current after that.
+     */
+    public boolean loadAvailabilityIndex() {
+        return Metrics.time("BookFunction.loadAvailabilityIndex", this::doLoadAvailabilityIndex);
+    }
+
+    private boolean doLoadAvailabilityIndex() {
+        String loanQuery = "SELECT DISTINCT book_id FROM borrower_list WHERE time_out IS NULL";
+        String bookQuery = "SELECT id, status FROM booklist";
+
+        // Filled on the side and swapped in, so the current index keeps serving the desks meanwhile
+        AvailabilityIndex rebuilt = new AvailabilityIndex();
+        availabilityIndex.startRebuild();
+        try (Connection connection = dbConnection.connect()) {
+            BitSet onLoan = new BitSet();
+            try (PreparedStatement prep = connection.prepareStatement(loanQuery)) {
+                prep.setFetchSize(DISPLAY_ALL_PAGE_SIZE);
+                try (ResultSet result = prep.executeQuery()) {
+                    while (result.next()) {
+                        onLoan.set(result.getInt(1));
+                    }
+                }
+            }
+            try (PreparedStatement prep = connection.prepareStatement(bookQuery)) {
+                prep.setFetchSize(DISPLAY_ALL_PAGE_SIZE);
+                try (ResultSet result = prep.executeQuery()) {
+                    while (result.next()) {
+                        int bookId = result.getInt(1);
+                        rebuilt.put(bookId, result.getInt(2) == 1, onLoan.get(bookId));
+                    }
+                }
             }
+            availabilityIndex.replaceWith(rebuilt);
+            return true;
         } catch (SQLException e) {
-            System.out.println("Error getting book title: " + e.getMessage());
+            availabilityIndex.cancelRebuild();
+            System.out.println("Error loading the availability index (" + (availabilityIndex.isLoaded()
+                    ? "keeping the previous one" : "availability will be read from the booklist") + "): " + e.getMessage());
+            return false;
         }
-        return null; // Book not found or error
     }
 
-    // New: Check if a book ID exists at all (used in Main for update/delete checks)
-    public boolean bookExists(int bookId) {
-        String query = "SELECT COUNT(*) FROM booklist WHERE id = ?";
+    /**
+     * Reloads the availability index and lists every book whose booklist.status disagrees
+     * with borrower_list. With repair, those statuses are corrected to match the loans,
+     * since the loan records are what returnBook and the fines work from.
+     *
+     * @return the counts and inconsistent book IDs, or null if the database could not be read
+     */
+    public AvailabilityReport checkAvailability(boolean repair) {
+        return Metrics.time("BookFunction.checkAvailability", () -> doCheckAvailability(repair));
+    }
+
+    private AvailabilityReport doCheckAvailability(boolean repair) {
+        if (!loadAvailabilityIndex()) {
+            return null;
+        }
+        List<Integer> statusWithoutLoan = availabilityIndex.getStatusWithoutLoan();
+        List<Integer> loanWithoutStatus = availabilityIndex.getLoanWithoutStatus();
+        List<Integer> corrected = new ArrayList<>();
+        if (repair && (!statusWithoutLoan.isEmpty() || !loanWithoutStatus.isEmpty())) {
+            List<Integer> released = new ArrayList<>();
+            List<Integer> claimed = new ArrayList<>();
+            try {
+                dbConnection.inTransaction(connection -> {
+                    released.addAll(setStatuses(connection, statusWithoutLoan, 0));
+                    claimed.addAll(setStatuses(connection, loanWithoutStatus, 1));
+                    return null;
+                });
+            } catch (SQLException e) {
+                released.clear();
+                claimed.clear();
+                System.out.println("Error correcting book statuses: " + e.getMessage());
+            }
+            // Re-read on next use: a desk may have moved any of them on since the repair committed
+            for (int bookId : statusWithoutLoan) {
+                invalidateCachedBook(bookId);
+            }
+            for (int bookId : loanWithoutStatus) {
+                invalidateCachedBook(bookId);
+            }
+            corrected.addAll(released);
+            corrected.addAll(claimed);
+        }
+        return new AvailabilityReport(availabilityIndex.getBookCount(), availabilityIndex.getAvailableCount(),
+                availabilityIndex.getBorrowedCount(), statusWithoutLoan, loanWithoutStatus, corrected);
+    }
+
+    /**
+     * Sets booklist.status for each book whose loans still disagree with it when the
+     * UPDATE runs: 0 only if it has no active loan, 1 only if it has one. A desk may
+     * have borrowed or returned the book since it was found inconsistent.
+     *
+     * @return the books actually changed
+     */
+    private List<Integer> setStatuses(Connection connection, List<Integer> bookIds, int status) throws SQLException {
+        String query = "UPDATE booklist SET status = ?, version = version + 1 WHERE id = ? AND status = ? AND " +
+                       (status == 0 ? "NOT " : "") +
+                       "EXISTS (SELECT 1 FROM borrower_list br WHERE br.book_id = booklist.id AND br.time_out IS NULL)";
+        List<Integer> changed = new ArrayList<>();
+        if (bookIds.isEmpty()) {
+            return changed;
+        }
+        try (PreparedStatement prep = connection.prepareStatement(query)) {
+            for (int bookId : bookIds) {
+                prep.setInt(1, status);
+                prep.setInt(2, bookId);
+                prep.setInt(3, 1 - status);
+                prep.addBatch();
+            }
+            int[] counts = prep.executeBatch();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    changed.add(bookIds.get(i));
+                }
+            }
+        }
+        return changed;
+    }
+
+    // Whether the index can answer for this book without asking the database
+    private boolean availabilityReady(int bookId) {
+        if (!availabilityIndex.isLoaded()) {
+            return false;
+        }
+        if (availabilityIndex.isDirty(bookId)) {
+            refreshAvailability(bookId);
+        }
+        return !availabilityIndex.isDirty(bookId);
+    }
+
+    // Re-reads one book's status and active loan into the index
+    private void refreshAvailability(int bookId) {
+        String query = "SELECT bl.status, " +
+                       "(SELECT COUNT(*) FROM borrower_list br WHERE br.book_id = bl.id AND br.time_out IS NULL) AS active_loans, " +
+                       "(SELECT MAX(br.id) FROM borrower_list br WHERE br.book_id = bl.id) AS latest_loan " +
+                       "FROM booklist bl WHERE bl.id = ?";
         try (Connection connection = dbConnection.connect();
              PreparedStatement prep = connection.prepareStatement(query)) {
             prep.setInt(1, bookId);
-            ResultSet result = prep.executeQuery();
-            if (result.next()) {
-                return result.getInt(1) > 0;
+            try (ResultSet result = prep.executeQuery()) {
+                if (result.next()) {
+                    availabilityIndex.put(bookId, result.getInt("status") == 1, result.getInt("active_loans") > 0,
+                                          result.getInt("latest_loan"));
+                } else {
+                    availabilityIndex.remove(bookId);
+                }
             }
         } catch (SQLException e) {
-            System.out.println("Error checking if book exists: " + e.getMessage());
+            System.out.println("Error checking availability of book ID " + bookId + ": " + e.getMessage());
         }
-        return false;
     }
     
     /**
-     * Retrieves all details of a book by its ID.
-     * Returns a String array: {title, author, year, isbn, status} or null if not found.
-     * Status is 0 for available, 1 for borrowed.
+     * Retrieves all details of a book by its ID, or null if not found.
+     * Served from the book cache when possible; the title, existence and availability
+     * lookups above all share the same cached row.
      */
-    public String[] getBookDetailsById(int bookId) {
-        String query = "SELECT title, author, year, isbn, status FROM booklist WHERE id = ?";
-        try (Connection connection = dbConnection.connect();
-             PreparedStatement prep = connection.prepareStatement(query)) {
-            prep.setInt(1, bookId);
-            ResultSet result = prep.executeQuery();
-            if (result.next()) {
-                String title = result.getString("title");
-                String author = result.getString("author");
-                int year = result.getInt("year");
-                String isbn = result.getString("isbn");
-                int status = result.getInt("status");
-                return new String[]{title, author, String.valueOf(year), isbn, String.valueOf(status)};
-            }
+    public Book getBookDetailsById(int bookId) {
+        return Metrics.time("BookFunction.getBookDetailsById", () -> doGetBookDetailsById(bookId));
+    }
+
+    private Book doGetBookDetailsById(int bookId) {
+        Book cached = bookCache.get(bookId);
+        if (cached != null) {
+            return cached;
+        }
+
+        try (Connection connection = dbConnection.connect()) {
+            return readBook(connection, bookId);
         } catch (SQLException e) {
             System.out.println("Error getting book details: " + e.getMessage());
         }
         return null; // Book not found or error
     }
-}
\ No newline at end of file
+
+    // Reads a book from the database into the cache, or drops it from the cache if it is gone
+    private Book readBook(Connection connection, int bookId) throws SQLException {
+        try (PreparedStatement prep = connection.prepareStatement("SELECT " + BOOK_COLUMNS + " FROM booklist WHERE id = ?")) {
+            prep.setInt(1, bookId);
+            try (ResultSet result = prep.executeQuery()) {
+                if (result.next()) {
+                    Book book = RowMappers.BOOK.map(result);
+                    bookCache.put(bookId, book);
+                    return book;
+                }
+            }
+        }
+        bookCache.invalidate(bookId);
+        return null;
+    }
+
+    // Adds a book inserted outside this class (bulk import) to the search and availability indexes
+    void indexBook(int bookId, String title, String author) {
+        searchIndex.put(bookId, title, author);
+        availabilityIndex.add(bookId);
+    }
+
+    // Fills the search and availability indexes from a snapshot instead of scanning the booklist
+    void restoreIndexes(List<Book> books, BitSet onLoan) {
+        AvailabilityIndex rebuilt = new AvailabilityIndex();
+        availabilityIndex.startRebuild();
+        searchIndex.clear();
+        for (Book book : books) {
+            searchIndex.put(book.getId(), book.getTitle(), book.getAuthor());
+            rebuilt.put(book.getId(), book.isBorrowed(), onLoan.get(book.getId()));
+        }
+        searchIndex.markLoaded();
+        availabilityIndex.replaceWith(rebuilt);
+    }
+
+    // Hit/miss counters of the book cache, for tuning BOOK_CACHE_SIZE
+    public CacheStats getBookCacheStats() {
+        return bookCache.getStats();
+    }
+
+    // Called after a book's status was changed in the database; each status write bumps the version once
+    private void cacheBookStatus(int bookId, int newStatus) {
+        bookCache.refresh(bookId, cached -> cached.withStatus(newStatus, cached.getVersion() + 1));
+    }
+
+    // After a borrow (true) or return (false) of loanId was committed by SQL outside this class.
+    // The index drops the event if a newer one for the book got there first; the cached row
+    // is updated under the index's lock so it follows the same order.
+    void recordCirculation(int bookId, int loanId, boolean borrowed) {
+        synchronized (availabilityIndex) {
+            if (availabilityIndex.recordLoan(bookId, loanId, borrowed)) {
+                cacheBookStatus(bookId, borrowed ? 1 : 0);
+                return;
+            }
+        }
+        invalidateCachedBook(bookId);
+    }
+
+    // Drops a book from the cache when its current state is unknown
+    void invalidateCachedBook(int bookId) {
+        bookCache.invalidate(bookId);
+        availabilityIndex.markDirty(bookId);
+    }
+}
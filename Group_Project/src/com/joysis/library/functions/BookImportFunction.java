@@ -0,0 +1,295 @@
+package com.joysis.library.functions;
+
+import com.joysis.library.metrics.Metrics;
+import com.joysis.library.model.ImportReport;
+import com.joysis.library.util.DbConnection;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Bulk-loads books from a CSV or TSV catalog file.
+ *
+ * The file is read one line at a time, ISBNs are checked for uniqueness in memory
+ * (against the booklist and the rest of the file), and valid rows are inserted with
+ * JDBC batches, one transaction per chunk.
+ *
+ * Expected columns, in order: title, author, year, isbn. A first line whose year
+ * column is not a number is treated as a header and skipped. Files ending in .tsv,
+ * or whose first line contains a tab, are read as tab-separated.
+ */
+public class BookImportFunction {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+    private static final int MAX_REJECTION_SAMPLES = 50;
+    // booklist column sizes (see StorageBackend), checked per row so one long value cannot fail a chunk
+    private static final int MAX_TITLE_LENGTH = 255;
+    private static final int MAX_AUTHOR_LENGTH = 255;
+    private static final int MAX_ISBN_LENGTH = 32;
+
+    private final DbConnection dbConnection;
+    private final BookFunction bookFunction; // To keep the search index current
+
+    public BookImportFunction(DbConnection dbConnection, BookFunction bookFunction) {
+        this.dbConnection = dbConnection;
+        this.bookFunction = bookFunction;
+    }
+
+    /**
+     * Imports every valid row of the file, chunkSize rows per transaction.
+     *
+     * @return the import counts and throughput, or null if the file or the existing
+     *         ISBNs could not be read
+     */
+    public ImportReport importBooks(String filePath, int chunkSize) {
+        return Metrics.time("BookImportFunction.importBooks", () -> doImportBooks(filePath, chunkSize));
+    }
+
+    private ImportReport doImportBooks(String filePath, int chunkSize) {
+        if (chunkSize <= 0) {
+            System.out.println("Import failed: Chunk size must be a positive number.");
+            return null;
+        }
+
+        long start = System.currentTimeMillis();
+        Set<String> knownIsbns = loadExistingIsbns();
+        if (knownIsbns == null) {
+            return null;
+        }
+
+        Progress progress = new Progress();
+        List<String[]> chunk = new ArrayList<>(chunkSize);
+        List<Integer> chunkLines = new ArrayList<>(chunkSize);
+        Set<String> chunkIsbns = new HashSet<>(); // Known only once their chunk commits
+
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(filePath), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            int lineNumber = 1;
+            if (line != null && line.startsWith("\uFEFF")) {
+                line = line.substring(1); // Byte order mark left by spreadsheet exports
+            }
+            char delimiter = (filePath.toLowerCase().endsWith(".tsv") || (line != null && line.indexOf('\t') >= 0)) ? '\t' : ',';
+
+            if (line != null && isHeader(parseLine(line, delimiter))) {
+                line = reader.readLine();
+                lineNumber++;
+            }
+
+            for (; line != null; line = reader.readLine(), lineNumber++) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                progress.rowsRead++;
+
+                String[] fields = parseLine(line, delimiter);
+                String problem = validate(fields, knownIsbns, chunkIsbns);
+                if (problem != null) {
+                    progress.reject(1, "line " + lineNumber + ": " + problem);
+                    continue;
+                }
+                chunkIsbns.add(fields[3].trim());
+                chunk.add(fields);
+                chunkLines.add(lineNumber);
+
+                if (chunk.size() >= chunkSize) {
+                    flushChunk(chunk, chunkLines, chunkIsbns, knownIsbns, progress);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                flushChunk(chunk, chunkLines, chunkIsbns, knownIsbns, progress);
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading import file: " + e.getMessage());
+            return null;
+        } finally {
+            if (progress.rebuildIndex) {
+                // The driver did not hand back the new IDs, so rebuild once at the end
+                bookFunction.loadSearchIndex();
+                bookFunction.loadAvailabilityIndex();
+            }
+        }
+
+        return new ImportReport(progress.rowsRead, progress.rowsImported, progress.rowsRejected,
+                System.currentTimeMillis() - start, progress.rejectionSamples);
+    }
+
+    // Inserts the chunk and starts the next one; its ISBNs become known only if it committed,
+    // so a corrected row later in the file is not rejected as a duplicate of a rolled-back one
+    private void flushChunk(List<String[]> chunk, List<Integer> chunkLines, Set<String> chunkIsbns,
+                            Set<String> knownIsbns, Progress progress) {
+        if (insertChunk(chunk, chunkLines, progress)) {
+            knownIsbns.addAll(chunkIsbns);
+        }
+        chunk.clear();
+        chunkLines.clear();
+        chunkIsbns.clear();
+    }
+
+    // Inserts one chunk in a single transaction; either every row goes in or none does
+    private boolean insertChunk(List<String[]> chunk, List<Integer> chunkLines, Progress progress) {
+        String query = "INSERT INTO booklist (title, author, year, isbn, status) VALUES (?, ?, ?, ?, 0)";
+
+        List<Integer> newIds = new ArrayList<>(chunk.size());
+        try {
+            dbConnection.inTransaction(connection -> {
+                try (PreparedStatement prep = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+                    for (String[] fields : chunk) {
+                        prep.setString(1, fields[0].trim());
+                        prep.setString(2, fields[1].trim());
+                        prep.setInt(3, Integer.parseInt(fields[2].trim()));
+                        prep.setString(4, fields[3].trim());
+                        prep.addBatch();
+                    }
+                    prep.executeBatch();
+                    try (ResultSet keys = prep.getGeneratedKeys()) {
+                        while (keys.next()) {
+                            newIds.add(keys.getInt(1));
+                        }
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            progress.reject(chunk.size(), "lines " + chunkLines.get(0) + "-" + chunkLines.get(chunkLines.size() - 1)
+                    + ": chunk rolled back: " + e.getMessage());
+            return false;
+        }
+        progress.rowsImported += chunk.size();
+
+        // Only touch the search index once the rows are committed
+        if (newIds.size() == chunk.size()) {
+            for (int i = 0; i < chunk.size(); i++) {
+                bookFunction.indexBook(newIds.get(i), chunk.get(i)[0].trim(), chunk.get(i)[1].trim());
+            }
+        } else {
+            progress.rebuildIndex = true;
+        }
+        return true;
+    }
+
+    private Set<String> loadExistingIsbns() {
+        String query = "SELECT isbn FROM booklist WHERE isbn IS NOT NULL";
+
+        Set<String> isbns = new HashSet<>();
+        try (Connection connection = dbConnection.connect();
+             PreparedStatement prep = connection.prepareStatement(query)) {
+            prep.setFetchSize(DEFAULT_CHUNK_SIZE);
+            try (ResultSet result = prep.executeQuery()) {
+                while (result.next()) {
+                    isbns.add(result.getString("isbn").trim());
+                }
+            }
+            return isbns;
+        } catch (SQLException e) {
+            System.out.println("Error reading existing ISBNs: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Returns why the row cannot be imported, or null if it is fine
+    private String validate(String[] fields, Set<String> knownIsbns, Set<String> chunkIsbns) {
+        if (fields.length < 4) {
+            return "expected 4 columns (title, author, year, isbn) but found " + fields.length;
+        }
+        if (fields[0].trim().isEmpty()) {
+            return "title is empty";
+        }
+        if (fields[0].trim().length() > MAX_TITLE_LENGTH) {
+            return "title is longer than " + MAX_TITLE_LENGTH + " characters";
+        }
+        if (fields[1].trim().isEmpty()) {
+            return "author is empty";
+        }
+        if (fields[1].trim().length() > MAX_AUTHOR_LENGTH) {
+            return "author is longer than " + MAX_AUTHOR_LENGTH + " characters";
+        }
+        try {
+            Integer.parseInt(fields[2].trim());
+        } catch (NumberFormatException e) {
+            return "year '" + fields[2] + "' is not a number";
+        }
+        String isbn = fields[3].trim();
+        if (isbn.isEmpty()) {
+            return "ISBN is empty";
+        }
+        if (isbn.length() > MAX_ISBN_LENGTH) {
+            return "ISBN is longer than " + MAX_ISBN_LENGTH + " characters";
+        }
+        if (knownIsbns.contains(isbn) || chunkIsbns.contains(isbn)) {
+            return "duplicate ISBN " + isbn;
+        }
+        return null;
+    }
+
+    private boolean isHeader(String[] fields) {
+        if (fields.length < 3) {
+            return false;
+        }
+        try {
+            Integer.parseInt(fields[2].trim());
+            return false;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    // Running counts for one importBooks call
+    private static final class Progress {
+        long rowsRead;
+        long rowsImported;
+        long rowsRejected;
+        boolean rebuildIndex;
+        final List<String> rejectionSamples = new ArrayList<>();
+
+        void reject(int rows, String reason) {
+            rowsRejected += rows;
+            if (rejectionSamples.size() < MAX_REJECTION_SAMPLES) {
+                rejectionSamples.add(reason);
+            }
+        }
+    }
+
+    /**
+     * Splits one line on the delimiter. Fields may be wrapped in double quotes, with ""
+     * standing for a quote inside a quoted field.
+     */
+    static String[] parseLine(String line, char delimiter) {
+        List<String> fields = new ArrayList<>(4);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == delimiter) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+}
@@ -1,6 +1,25 @@
 package com.joysis.library.functions;
 
+import com.joysis.library.circulation.CirculationStats;
+import com.joysis.library.fines.FineLedger;
+import com.joysis.library.metrics.Metrics;
+import com.joysis.library.model.BatchCirculationResult;
+import com.joysis.library.model.Book;
+import com.joysis.library.model.BorrowedBook;
+import com.joysis.library.model.CatalogEntry;
+import com.joysis.library.model.CirculationOutcome;
+import com.joysis.library.model.CirculationReport;
+import com.joysis.library.model.LabelCount;
+import com.joysis.library.model.Loan;
+import com.joysis.library.model.OverdueLoan;
+import com.joysis.library.model.RowMappers;
+import com.joysis.library.render.Column;
+import com.joysis.library.render.OutputFormat;
+import com.joysis.library.render.RowRenderer;
 import com.joysis.library.util.DbConnection;
+import com.joysis.library.util.InClause;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -9,14 +28,65 @@ import java.sql.Statement;
 import java.sql.Timestamp; 
 import java.time.LocalDate; 
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter; 
-import java.time.temporal.ChronoUnit; 
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 
 public class BorrowerFunction {
 
+    // Marks a book as borrowed only while it is still available and has no active loan,
+    // so two desks borrowing the same book at once cannot both win
+    private static final String CLAIM_BOOK_QUERY = "UPDATE booklist SET status = 1, version = version + 1 WHERE id = ? AND status = 0 " +
+                                                   "AND NOT EXISTS (SELECT 1 FROM borrower_list WHERE book_id = ? AND time_out IS NULL)";
+    private static final String INSERT_LOAN_QUERY = "INSERT INTO borrower_list (borrower_name, book_id, time_in, scheduled_return) VALUES (?, ?, ?, ?)";
+    private static final String CLOSE_LOAN_QUERY = "UPDATE borrower_list SET time_out = ? WHERE id = ? AND time_out IS NULL";
+    private static final String RELEASE_BOOK_QUERY = "UPDATE booklist SET status = 0, version = version + 1 WHERE id = ?";
+    // Reads back loan ids the driver did not return as generated keys (SQLite batches); a claimed book has one active loan
+    private static final String ACTIVE_LOAN_IDS_QUERY = "SELECT id, book_id FROM borrower_list WHERE time_out IS NULL AND book_id IN ";
+    private static final int LEDGER_FETCH_SIZE = 500;
+    private static final int REPORT_DAYS = 14;
+    private static final int REPORT_MONTHS = 12;
+    private static final int REPORT_TOP = 10;
+    private static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    // Columns of the borrowed and overdue listings, shared by the table on screen and the CSV/JSON exports
+    private static final List<Column<BorrowedBook>> BORROWED_LISTING = Arrays.asList(
+        Column.<BorrowedBook>of("bookId", "ID", 5, borrowed -> borrowed.getLoan().getBookId()),
+        Column.<BorrowedBook>of("title", "TITLE", 30, BorrowedBook::getTitle),
+        Column.<BorrowedBook>of("borrower", "BORROWER", 20, borrowed -> borrowed.getLoan().getBorrowerName()),
+        Column.<BorrowedBook>of("borrowDate", "BORROW DATE", 20, borrowed -> borrowed.getLoan().getTimeIn()),
+        Column.<BorrowedBook>of("dueDate", "DUE DATE", 20, borrowed -> borrowed.getLoan().getScheduledReturn()),
+        Column.<BorrowedBook>of("fine", "OVERDUE FINE", 20, BorrowedBook::getFine)
+              .withTableText(borrowed -> borrowed.getFine() > 0 ? "$" + RowRenderer.twoDecimals(borrowed.getFine()) : "No Fine")
+    );
+    private static final List<Column<Loan>> HISTORY_LISTING = Arrays.asList(
+        Column.<Loan>of("loanId", "LOAN ID", 8, Loan::getId),
+        Column.<Loan>of("bookId", "BOOK ID", 8, Loan::getBookId),
+        Column.<Loan>of("borrower", "BORROWER", 20, Loan::getBorrowerName),
+        Column.<Loan>of("borrowDate", "BORROW DATE", 20, Loan::getTimeIn),
+        Column.<Loan>of("dueDate", "DUE DATE", 20, Loan::getScheduledReturn),
+        Column.<Loan>of("returnDate", "RETURNED", 20, Loan::getTimeOut)
+              .withTableText(loan -> loan.getTimeOut() == null ? "On loan" : RowRenderer.formatDateTime(loan.getTimeOut()))
+    );
+    private static final List<Column<OverdueLoan>> OVERDUE_LISTING = Arrays.asList(
+        Column.<OverdueLoan>of("loanId", "LOAN ID", 8, overdue -> overdue.getLoan().getId()),
+        Column.<OverdueLoan>of("bookId", "BOOK ID", 8, overdue -> overdue.getLoan().getBookId()),
+        Column.<OverdueLoan>of("borrower", "BORROWER", 20, overdue -> overdue.getLoan().getBorrowerName()),
+        Column.<OverdueLoan>of("dueDate", "DUE DATE", 20, overdue -> overdue.getLoan().getScheduledReturn()),
+        Column.<OverdueLoan>of("daysOverdue", "DAYS LATE", 12, OverdueLoan::getDaysOverdue),
+        Column.<OverdueLoan>of("fine", "FINE", 12, OverdueLoan::getFine)
+              .withTableText(overdue -> "$" + RowRenderer.twoDecimals(overdue.getFine()))
+    );
+
     private final DbConnection dbConnection; 
     private final BookFunction bookFunction; // To update book status
+    private final FineLedger fineLedger = new FineLedger(); // Active loans ordered by due date
+    private final CirculationStats circulationStats = new CirculationStats(); // Running totals for the reports
 
 
     public BorrowerFunction(DbConnection dbConnection, BookFunction bookFunction) {
@@ -26,6 +96,15 @@ public class BorrowerFunction {
 
 
     public boolean borrowBook(int bookId, String borrowerName, int scheduledReturnDays) {
+        return Metrics.time("BorrowerFunction.borrowBook", () -> doBorrowBook(bookId, normalizeName(borrowerName), scheduledReturnDays));
+    }
+
+    // Borrower names are stored trimmed, so lookups by name (which also trim) find them
+    private static String normalizeName(String borrowerName) {
+        return borrowerName == null ? null : borrowerName.trim();
+    }
+
+    private boolean doBorrowBook(int bookId, String borrowerName, int scheduledReturnDays) {
 
         if (bookId <= 0) {
             System.out.println("Borrow failed: Invalid Book ID. Must be a positive number.");
@@ -40,29 +119,6 @@ public class BorrowerFunction {
             return false;
         }
 
-        // Check if the book exists
-        String[] bookDetails = bookFunction.getBookDetailsById(bookId);
-        if (bookDetails == null) {
-            System.out.println("Borrow failed: Book with ID " + bookId + " does not exist.");
-            return false;
-        }
-        
-        // Check book status from the retrieved details
-        int bookStatus = Integer.parseInt(bookDetails[4]); // Status is at index 4
-        if (bookStatus == 1) { // 1 means borrowed
-            System.out.println("Borrow failed: Book '" + bookDetails[0] + "' (ID: " + bookId + ") is currently not available (already borrowed).");
-            return false;
-        }
-
-        String bookTitle = bookDetails[0]; // Title is at index 0
-
-        // Check if there's an active borrowing record for this book
-        if (isBookCurrentlyBorrowedInBorrowerList(bookId)) {
-            System.out.println("Borrow failed: An active borrowing record for Book ID " + bookId + " already exists. Data might be inconsistent.");
-            // Optionally, you might try to set book status to 1 here if it's 0 but an active record exists.
-            return false;
-        }
-
         // Get current time for time_in
         LocalDateTime now = LocalDateTime.now();
         Timestamp timeIn = Timestamp.valueOf(now);
@@ -71,200 +127,833 @@ public class BorrowerFunction {
         LocalDateTime scheduledReturnDateTime = now.plusDays(scheduledReturnDays);
         Timestamp scheduledReturn = Timestamp.valueOf(scheduledReturnDateTime);
 
-        String query = "INSERT INTO borrower_list (borrower_name, book_id, time_in, scheduled_return) VALUES (?, ?, ?, ?)";
-
-        try (Connection connection = dbConnection.connect();
-             PreparedStatement prep = connection.prepareStatement(query)) {
-
-            prep.setString(1, borrowerName);
-            prep.setInt(2, bookId);
-            prep.setTimestamp(3, timeIn);
-            prep.setTimestamp(4, scheduledReturn);
-
-            int rowsAffected = prep.executeUpdate();
-            if (rowsAffected > 0) {
-
-                bookFunction.updateBookStatus(bookId, 1);
-                System.out.println("Book '" + bookTitle + "' (ID: " + bookId + ") successfully borrowed by " + borrowerName + ".");
-                System.out.println("Scheduled return date: " + scheduledReturnDateTime.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")) + "\n");
-                return true;
-            } else {
-                System.out.println("Borrow failed: Could not record borrowing in the database.");
-                return false;
-            }
+        // Claim the book and record the loan on one connection in one transaction
+
+        String failure;
+        int[] loanId = new int[1];
+        try {
+            failure = dbConnection.inTransaction(connection -> {
+                try (PreparedStatement claimPrep = connection.prepareStatement(CLAIM_BOOK_QUERY)) {
+                    claimPrep.setInt(1, bookId);
+                    claimPrep.setInt(2, bookId);
+                    if (claimPrep.executeUpdate() == 0) {
+                        return explainUnavailable(connection, bookId);
+                    }
+                }
 
+                try (PreparedStatement insertPrep = connection.prepareStatement(INSERT_LOAN_QUERY, Statement.RETURN_GENERATED_KEYS)) {
+                    insertPrep.setString(1, borrowerName);
+                    insertPrep.setInt(2, bookId);
+                    insertPrep.setTimestamp(3, timeIn);
+                    insertPrep.setTimestamp(4, scheduledReturn);
+                    if (insertPrep.executeUpdate() == 0) {
+                        throw new SQLException("Could not record borrowing in the database.");
+                    }
+                    try (ResultSet keys = insertPrep.getGeneratedKeys()) {
+                        if (keys.next()) {
+                            loanId[0] = keys.getInt(1);
+                        }
+                    }
+                }
+                if (loanId[0] == 0) {
+                    forEachInChunk(connection, ACTIVE_LOAN_IDS_QUERY, Arrays.asList(bookId), rs -> loanId[0] = rs.getInt("id"));
+                }
+                return null;
+            });
         } catch (SQLException e) {
+            bookFunction.invalidateCachedBook(bookId);
             System.out.println("Error borrowing book: " + e.getMessage());
             return false;
         }
+
+        if (failure != null) {
+            bookFunction.invalidateCachedBook(bookId); // Someone else changed it; don't trust the cached status
+            System.out.println(failure);
+            return false;
+        }
+        bookFunction.recordCirculation(bookId, loanId[0], true);
+        trackLoan(loanId[0], bookId, borrowerName, now, scheduledReturnDateTime);
+
+        Book book = bookFunction.getBookDetailsById(bookId);
+        String bookTitle = book != null ? book.getTitle() : null;
+        circulationStats.recordBorrow(now, bookTitle, book != null ? book.getAuthor() : null);
+        System.out.println("Book '" + (bookTitle != null ? bookTitle : "ID " + bookId) + "' (ID: " + bookId + ") successfully borrowed by " + borrowerName + ".");
+        System.out.println("Scheduled return date: " + scheduledReturnDateTime.format(DATE_TIME_FORMAT) + "\n");
+        return true;
+    }
+
+    // Works out why the claim UPDATE in borrowBook matched no row. Only runs on the failure path.
+    private String explainUnavailable(Connection connection, int bookId) throws SQLException {
+        String query = "SELECT bl.title, bl.status, " +
+                       "(SELECT COUNT(*) FROM borrower_list br WHERE br.book_id = bl.id AND br.time_out IS NULL) AS active_loans " +
+                       "FROM booklist bl WHERE bl.id = ?";
+        try (PreparedStatement prep = connection.prepareStatement(query)) {
+            prep.setInt(1, bookId);
+            ResultSet rs = prep.executeQuery();
+            if (!rs.next()) {
+                return "Borrow failed: Book with ID " + bookId + " does not exist.";
+            }
+            if (rs.getInt("status") == 1) { // 1 means borrowed
+                return "Borrow failed: Book '" + rs.getString("title") + "' (ID: " + bookId + ") is currently not available (already borrowed).";
+            }
+            return "Borrow failed: An active borrowing record for Book ID " + bookId + " already exists. Data might be inconsistent.";
+        }
     }
 
 
     public boolean returnBook(int bookId) {
+        return Metrics.time("BorrowerFunction.returnBook", () -> doReturnBook(bookId));
+    }
+
+    private boolean doReturnBook(int bookId) {
         if (bookId <= 0) {
             System.out.println("Return failed: Invalid Book ID. Must be a positive number.");
             return false;
         }
 
-        // 1. Check if the book exists at all
-        if (!bookFunction.bookExists(bookId)) {
-            System.out.println("Return failed: Book with ID " + bookId + " does not exist in the library.");
-            return false;
-        }
+        // Get current time for time_out
+        LocalDateTime now = LocalDateTime.now();
+        Timestamp timeOut = Timestamp.valueOf(now);
 
-        // 2. Check if the book is actually borrowed by looking for an active record in borrower_list
-        String checkBorrowedQuery = "SELECT id, borrower_name, scheduled_return FROM borrower_list WHERE book_id = ? AND time_out IS NULL";
-        int borrowerListEntryId = -1;
-        String borrowerName = null;
-        Timestamp scheduledReturnTimestamp = null;
+        // The book, its status and its active borrowing record (if any) in one query
+        String lookupQuery = "SELECT " + BookFunction.CATALOG_COLUMNS +
+                             " FROM booklist bl " +
+                             " LEFT JOIN borrower_list br ON bl.id = br.book_id AND br.time_out IS NULL " +
+                             " WHERE bl.id = ? ORDER BY br.id";
+
+        // When the ledger knows the active loan, the return is two statements: close that loan
+        // and release the book. The lookup only runs if it does not, or another desk got there first.
+        Loan knownLoan = fineLedger.activeLoanFor(bookId);
+
+        ReturnResult outcome;
+        try {
+            outcome = dbConnection.inTransaction(connection -> {
+                ReturnResult result = new ReturnResult();
+                if (knownLoan != null && closeLoan(connection, knownLoan.getId(), timeOut)) {
+                    result.loan = knownLoan;
+                    releaseBook(connection, bookId);
+                    return result;
+                }
 
-        try (Connection connection = dbConnection.connect();
-             PreparedStatement checkPrep = connection.prepareStatement(checkBorrowedQuery)) {
-
-            checkPrep.setInt(1, bookId);
-            ResultSet rs = checkPrep.executeQuery();
-            if (rs.next()) {
-                borrowerListEntryId = rs.getInt("id");
-                borrowerName = rs.getString("borrower_name");
-                scheduledReturnTimestamp = rs.getTimestamp("scheduled_return");
-            } else {
-                // If the book status is 1 but no active borrower_list entry, it's inconsistent data
-                String[] bookDetails = bookFunction.getBookDetailsById(bookId);
-                if (bookDetails != null && Integer.parseInt(bookDetails[4]) == 1) {
-                    System.out.println("Book ID " + bookId + " is marked 'Borrowed' but no active borrower record found. Correcting status to 'Available'.");
-                    bookFunction.updateBookStatus(bookId, 0); // Correct the status in booklist
-                } else {
-                    System.out.println("Return failed: Book ID " + bookId + " is not currently marked as borrowed or has already been returned.");
+                try (PreparedStatement lookupPrep = connection.prepareStatement(lookupQuery)) {
+                    lookupPrep.setInt(1, bookId);
+                    ResultSet rs = lookupPrep.executeQuery();
+                    if (!rs.next()) {
+                        result.failure = "Return failed: Book with ID " + bookId + " does not exist in the library.";
+                        return result;
+                    }
+                    CatalogEntry entry = RowMappers.CATALOG_ENTRY.map(rs);
+                    result.book = entry.getBook();
+                    result.loan = entry.getActiveLoan();
+                    if (result.loan == null) {
+                        // If the book status is 1 but no active borrower_list entry, it's inconsistent data
+                        if (result.book.isBorrowed()) {
+                            result.failure = "Book ID " + bookId + " is marked 'Borrowed' but no active borrower record found. Correcting status to 'Available'.";
+                            releaseBook(connection, bookId);
+                        } else {
+                            result.failure = "Return failed: Book ID " + bookId + " is not currently marked as borrowed or has already been returned.";
+                        }
+                        return result;
+                    }
                 }
-                return false;
-            }
+
+                if (!closeLoan(connection, result.loan.getId(), timeOut)) {
+                    // Another desk returned it between our lookup and this update
+                    result.failure = "Return failed: Could not update borrower record.";
+                    return result;
+                }
+                releaseBook(connection, bookId);
+                return result;
+            });
         } catch (SQLException e) {
-            System.out.println("Error checking borrowed status for return: " + e.getMessage());
+            bookFunction.invalidateCachedBook(bookId);
+            System.out.println("Error returning book: " + e.getMessage());
             return false;
         }
 
-        // Get current time for time_out
+        if (outcome.failure != null) {
+            bookFunction.invalidateCachedBook(bookId);
+            System.out.println(outcome.failure);
+            return false;
+        }
+        bookFunction.recordCirculation(bookId, outcome.loan.getId(), false);
+
+        double fine = settleFine(outcome.loan, now.toLocalDate());
+        circulationStats.recordReturn(outcome.loan.getTimeIn(), outcome.loan.getScheduledReturn(), now, fine);
+
+        Book book = outcome.book != null ? outcome.book : bookFunction.getBookDetailsById(bookId);
+        String bookTitle = book != null ? book.getTitle() : "ID " + bookId;
+        System.out.println("Book '" + bookTitle + "' returned by " + outcome.loan.getBorrowerName() + ".");
+        if (fine > 0) {
+            System.out.printf("Fine due: $%.2f\n", fine);
+        } else {
+            System.out.println("No fine incurred.");
+        }
+        System.out.println();
+        return true;
+    }
+
+    // Sets time_out on a loan that is still open; false if it was already closed
+    private static boolean closeLoan(Connection connection, int loanId, Timestamp timeOut) throws SQLException {
+        try (PreparedStatement closePrep = connection.prepareStatement(CLOSE_LOAN_QUERY)) {
+            closePrep.setTimestamp(1, timeOut);
+            closePrep.setInt(2, loanId);
+            return closePrep.executeUpdate() > 0;
+        }
+    }
+
+    private void releaseBook(Connection connection, int bookId) throws SQLException {
+        try (PreparedStatement releasePrep = connection.prepareStatement(RELEASE_BOOK_QUERY)) {
+            releasePrep.setInt(1, bookId);
+            releasePrep.executeUpdate();
+        }
+    }
+
+    // What returnBook found inside its transaction
+    private static final class ReturnResult {
+        String failure;
+        Book book;
+        Loan loan;
+    }
+
+    
+    /**
+     * Borrows a stack of books for one borrower in a single transaction. Availability is
+     * checked for the whole stack with one IN query, then the claims and the loan records
+     * are written as two JDBC batches. Books that cannot be borrowed are reported and
+     * skipped; the rest are still borrowed.
+     */
+    public BatchCirculationResult borrowBooks(List<Integer> bookIds, String borrowerName, int scheduledReturnDays) {
+        return Metrics.time("BorrowerFunction.borrowBooks", () -> doBorrowBooks(bookIds, normalizeName(borrowerName), scheduledReturnDays));
+    }
+
+    private BatchCirculationResult doBorrowBooks(List<Integer> bookIds, String borrowerName, int scheduledReturnDays) {
+        Map<Integer, CirculationOutcome> outcomes = new LinkedHashMap<>();
+        if (borrowerName == null || borrowerName.trim().isEmpty() || scheduledReturnDays <= 0) {
+            String reason = (scheduledReturnDays <= 0) ? "Scheduled return days must be a positive number."
+                                                       : "Borrower name cannot be empty.";
+            for (Integer bookId : bookIds) {
+                outcomes.put(bookId, new CirculationOutcome(bookId, false, reason, 0.0));
+            }
+            return printBatch("Borrow", outcomes);
+        }
+        List<Integer> candidates = validIds(bookIds, outcomes);
+
         LocalDateTime now = LocalDateTime.now();
-        Timestamp timeOut = Timestamp.valueOf(now);
+        Timestamp timeIn = Timestamp.valueOf(now);
+        Timestamp scheduledReturn = Timestamp.valueOf(now.plusDays(scheduledReturnDays));
+        String checkQuery = "SELECT bl.id, bl.title, bl.author, bl.status, " +
+                            "(SELECT COUNT(*) FROM borrower_list br WHERE br.book_id = bl.id AND br.time_out IS NULL) AS active_loans " +
+                            "FROM booklist bl WHERE bl.id IN ";
+
+        Map<Integer, Integer> loanIds = new HashMap<>();
+        Map<Integer, String> titles = new HashMap<>();
+        Map<Integer, String> authors = new HashMap<>();
+        Map<Integer, CirculationOutcome> committed;
+        try {
+            committed = dbConnection.inTransaction(connection -> {
+                Map<Integer, CirculationOutcome> results = new LinkedHashMap<>();
+
+                // 1. Set-based availability check
+                List<Integer> available = new ArrayList<>();
+                forEachInChunk(connection, checkQuery, candidates, rs -> {
+                    int bookId = rs.getInt("id");
+                    String title = rs.getString("title");
+                    titles.put(bookId, title);
+                    authors.put(bookId, rs.getString("author"));
+                    if (rs.getInt("status") == 1) {
+                        results.put(bookId, new CirculationOutcome(bookId, false, "Book '" + title + "' is currently not available (already borrowed).", 0.0));
+                    } else if (rs.getInt("active_loans") > 0) {
+                        results.put(bookId, new CirculationOutcome(bookId, false, "An active borrowing record already exists. Data might be inconsistent.", 0.0));
+                    } else {
+                        available.add(bookId);
+                    }
+                });
+                for (Integer bookId : candidates) {
+                    if (!titles.containsKey(bookId)) {
+                        results.put(bookId, new CirculationOutcome(bookId, false, "Book does not exist.", 0.0));
+                    }
+                }
+
+                // 2. Claim every available book in one batch; a zero count means another desk got there first
+                List<Integer> claimed = new ArrayList<>();
+                if (!available.isEmpty()) {
+                    try (PreparedStatement claimPrep = connection.prepareStatement(CLAIM_BOOK_QUERY)) {
+                        for (Integer bookId : available) {
+                            claimPrep.setInt(1, bookId);
+                            claimPrep.setInt(2, bookId);
+                            claimPrep.addBatch();
+                        }
+                        int[] counts = claimPrep.executeBatch();
+                        for (int i = 0; i < counts.length; i++) {
+                            int bookId = available.get(i);
+                            if (counts[i] == 0) {
+                                results.put(bookId, new CirculationOutcome(bookId, false, "Book '" + titles.get(bookId) + "' was just borrowed at another desk.", 0.0));
+                            } else {
+                                claimed.add(bookId);
+                            }
+                        }
+                    }
+                }
 
-        // Calculate fine
-        double fine = 0.0;
-        if (scheduledReturnTimestamp != null) {
-            fine = calculateFine(scheduledReturnTimestamp.toLocalDateTime().toLocalDate(), now.toLocalDate());
+                // 3. Record all the loans in one batch
+                if (!claimed.isEmpty()) {
+                    try (PreparedStatement insertPrep = connection.prepareStatement(INSERT_LOAN_QUERY, Statement.RETURN_GENERATED_KEYS)) {
+                        for (Integer bookId : claimed) {
+                            insertPrep.setString(1, borrowerName);
+                            insertPrep.setInt(2, bookId);
+                            insertPrep.setTimestamp(3, timeIn);
+                            insertPrep.setTimestamp(4, scheduledReturn);
+                            insertPrep.addBatch();
+                        }
+                        insertPrep.executeBatch();
+                        List<Integer> keys = new ArrayList<>(claimed.size());
+                        try (ResultSet rs = insertPrep.getGeneratedKeys()) {
+                            while (rs.next()) {
+                                keys.add(rs.getInt(1));
+                            }
+                        }
+                        if (keys.size() == claimed.size()) {
+                            for (int i = 0; i < claimed.size(); i++) {
+                                loanIds.put(claimed.get(i), keys.get(i));
+                            }
+                        } else {
+                            // Some drivers (SQLite) only report the last key of a batch
+                            forEachInChunk(connection, ACTIVE_LOAN_IDS_QUERY, claimed,
+                                           rs -> loanIds.put(rs.getInt("book_id"), rs.getInt("id")));
+                        }
+                    }
+                    for (Integer bookId : claimed) {
+                        results.put(bookId, new CirculationOutcome(bookId, true, "Book '" + titles.get(bookId) + "' borrowed by " + borrowerName + ".", 0.0));
+                    }
+                }
+                return results;
+            });
+        } catch (SQLException e) {
+            System.out.println("Error borrowing books: " + e.getMessage());
+            for (Integer bookId : candidates) {
+                bookFunction.invalidateCachedBook(bookId);
+                outcomes.put(bookId, new CirculationOutcome(bookId, false, "Transaction rolled back: " + e.getMessage(), 0.0));
+            }
+            return printBatch("Borrow", outcomes);
         }
 
-        // 3. Update borrower_list with time_out
-        String updateBorrowerQuery = "UPDATE borrower_list SET time_out = ? WHERE id = ?";
-        try (Connection connection = dbConnection.connect();
-             PreparedStatement updatePrep = connection.prepareStatement(updateBorrowerQuery)) {
-
-            updatePrep.setTimestamp(1, timeOut);
-            updatePrep.setInt(2, borrowerListEntryId);
-
-            int rowsAffected = updatePrep.executeUpdate();
-            if (rowsAffected > 0) {
-                // 4. Update the book status to 'available' (0) in booklist
-                bookFunction.updateBookStatus(bookId, 0);
-
-                String bookTitle = bookFunction.getBookTitleById(bookId);
-                System.out.println("Book '" + (bookTitle != null ? bookTitle : "ID " + bookId) + "' returned by " + borrowerName + ".");
-                if (fine > 0) {
-                    System.out.printf("Fine due: $%.2f\n", fine);
-                } else {
-                    System.out.println("No fine incurred.");
+        for (Integer bookId : candidates) {
+            CirculationOutcome outcome = committed.get(bookId);
+            outcomes.put(bookId, outcome);
+            if (outcome.isSucceeded()) {
+                Integer loanId = loanIds.get(bookId);
+                bookFunction.recordCirculation(bookId, loanId != null ? loanId : 0, true);
+                circulationStats.recordBorrow(now, titles.get(bookId), authors.get(bookId));
+                if (loanId != null) {
+                    trackLoan(loanId, bookId, borrowerName, now, scheduledReturn.toLocalDateTime());
                 }
-                System.out.println();
-                return true;
             } else {
-                System.out.println("Return failed: Could not update borrower record.");
-                return false;
+                bookFunction.invalidateCachedBook(bookId);
             }
+        }
+        return printBatch("Borrow", outcomes);
+    }
+
+    /**
+     * Returns a stack of books in a single transaction. The books and their active loans
+     * are read with one IN query, then the loans are closed and the books released as two
+     * JDBC batches. Fines for every returned book are added up in the same pass.
+     */
+    public BatchCirculationResult returnBooks(List<Integer> bookIds) {
+        return Metrics.time("BorrowerFunction.returnBooks", () -> doReturnBooks(bookIds));
+    }
+
+    private BatchCirculationResult doReturnBooks(List<Integer> bookIds) {
+        Map<Integer, CirculationOutcome> outcomes = new LinkedHashMap<>();
+        List<Integer> candidates = validIds(bookIds, outcomes);
 
+        LocalDateTime now = LocalDateTime.now();
+        Timestamp timeOut = Timestamp.valueOf(now);
+        LocalDate today = now.toLocalDate();
+        String lookupQuery = "SELECT " + BookFunction.CATALOG_COLUMNS +
+                             " FROM booklist bl " +
+                             " LEFT JOIN borrower_list br ON bl.id = br.book_id AND br.time_out IS NULL " +
+                             " WHERE bl.id IN ";
+
+        Map<Integer, Loan> returned = new HashMap<>();
+        Map<Integer, CirculationOutcome> committed;
+        try {
+            committed = dbConnection.inTransaction(connection -> {
+                Map<Integer, CirculationOutcome> results = new LinkedHashMap<>();
+
+                // 1. Every book and its oldest active loan in one query
+                Map<Integer, CatalogEntry> entries = new HashMap<>();
+                forEachInChunk(connection, lookupQuery, candidates, rs -> {
+                    CatalogEntry entry = RowMappers.CATALOG_ENTRY.map(rs);
+                    CatalogEntry previous = entries.get(entry.getBook().getId());
+                    if (previous == null || previous.getActiveLoan() == null
+                            || (entry.getActiveLoan() != null && entry.getActiveLoan().getId() < previous.getActiveLoan().getId())) {
+                        entries.put(entry.getBook().getId(), entry);
+                    }
+                });
+
+                List<Loan> loans = new ArrayList<>();
+                List<Integer> toRelease = new ArrayList<>();
+                for (Integer bookId : candidates) {
+                    CatalogEntry entry = entries.get(bookId);
+                    if (entry == null) {
+                        results.put(bookId, new CirculationOutcome(bookId, false, "Book does not exist in the library.", 0.0));
+                    } else if (entry.getActiveLoan() != null) {
+                        loans.add(entry.getActiveLoan());
+                    } else if (entry.getBook().isBorrowed()) {
+                        toRelease.add(bookId);
+                        results.put(bookId, new CirculationOutcome(bookId, false, "Marked 'Borrowed' but no active borrower record found. Corrected status to 'Available'.", 0.0));
+                    } else {
+                        results.put(bookId, new CirculationOutcome(bookId, false, "Not currently borrowed or already returned.", 0.0));
+                    }
+                }
+
+                // 2. Close all the loans in one batch
+                if (!loans.isEmpty()) {
+                    try (PreparedStatement closePrep = connection.prepareStatement(CLOSE_LOAN_QUERY)) {
+                        for (Loan loan : loans) {
+                            closePrep.setTimestamp(1, timeOut);
+                            closePrep.setInt(2, loan.getId());
+                            closePrep.addBatch();
+                        }
+                        int[] counts = closePrep.executeBatch();
+                        for (int i = 0; i < counts.length; i++) {
+                            Loan loan = loans.get(i);
+                            String title = entries.get(loan.getBookId()).getBook().getTitle();
+                            if (counts[i] == 0) {
+                                results.put(loan.getBookId(), new CirculationOutcome(loan.getBookId(), false, "Book '" + title + "' was just returned at another desk.", 0.0));
+                                continue;
+                            }
+                            toRelease.add(loan.getBookId());
+                            returned.put(loan.getBookId(), loan);
+                            results.put(loan.getBookId(), new CirculationOutcome(loan.getBookId(), true, "Book '" + title + "' returned by " + loan.getBorrowerName() + ".", 0.0));
+                        }
+                    }
+                }
+
+                // 3. Release the returned (and corrected) books in one batch
+                if (!toRelease.isEmpty()) {
+                    try (PreparedStatement releasePrep = connection.prepareStatement(RELEASE_BOOK_QUERY)) {
+                        for (Integer bookId : toRelease) {
+                            releasePrep.setInt(1, bookId);
+                            releasePrep.addBatch();
+                        }
+                        releasePrep.executeBatch();
+                    }
+                }
+                return results;
+            });
         } catch (SQLException e) {
-            System.out.println("Error returning book: " + e.getMessage());
-            return false;
+            System.out.println("Error returning books: " + e.getMessage());
+            for (Integer bookId : candidates) {
+                bookFunction.invalidateCachedBook(bookId);
+                outcomes.put(bookId, new CirculationOutcome(bookId, false, "Transaction rolled back: " + e.getMessage(), 0.0));
+            }
+            return printBatch("Return", outcomes);
         }
+
+        for (Integer bookId : candidates) {
+            CirculationOutcome outcome = committed.get(bookId);
+            if (outcome.isSucceeded()) {
+                // The fine is settled against the ledger only once the return is committed
+                Loan loan = returned.get(bookId);
+                outcome = new CirculationOutcome(bookId, true, outcome.getMessage(), settleFine(loan, today));
+                bookFunction.recordCirculation(bookId, loan.getId(), false);
+                circulationStats.recordReturn(loan.getTimeIn(), loan.getScheduledReturn(), now, outcome.getFine());
+            } else {
+                bookFunction.invalidateCachedBook(bookId);
+            }
+            outcomes.put(bookId, outcome);
+        }
+        return printBatch("Return", outcomes);
+    }
+
+    // Drops duplicate and non-positive IDs, recording an outcome for the non-positive ones
+    private List<Integer> validIds(List<Integer> bookIds, Map<Integer, CirculationOutcome> outcomes) {
+        List<Integer> candidates = new ArrayList<>();
+        for (Integer bookId : bookIds) {
+            if (bookId == null || outcomes.containsKey(bookId) || candidates.contains(bookId)) {
+                continue;
+            }
+            if (bookId <= 0) {
+                outcomes.put(bookId, new CirculationOutcome(bookId, false, "Invalid Book ID. Must be a positive number.", 0.0));
+            } else {
+                outcomes.put(bookId, null); // Keeps the caller's order; filled in later
+                candidates.add(bookId);
+            }
+        }
+        return candidates;
+    }
+
+    // Runs queryPrefix + "(?, ?, ...)" for the IDs, at most InClause.MAX_SIZE at a time
+    private void forEachInChunk(Connection connection, String queryPrefix, List<Integer> ids, RowHandler handler) throws SQLException {
+        for (int from = 0; from < ids.size(); from += InClause.MAX_SIZE) {
+            int count = Math.min(InClause.MAX_SIZE, ids.size() - from);
+            int slots = InClause.paddedSize(count);
+            try (PreparedStatement prep = connection.prepareStatement(queryPrefix + "(" + InClause.placeholders(slots) + ")")) {
+                for (int i = 0; i < slots; i++) {
+                    prep.setInt(i + 1, ids.get(from + Math.min(i, count - 1)));
+                }
+                try (ResultSet rs = prep.executeQuery()) {
+                    while (rs.next()) {
+                        handler.handle(rs);
+                    }
+                }
+            }
+        }
+    }
+
+    private BatchCirculationResult printBatch(String operation, Map<Integer, CirculationOutcome> outcomes) {
+        BatchCirculationResult result = new BatchCirculationResult(new ArrayList<>(outcomes.values()));
+        System.out.println("\n--- Batch " + operation + " Results ---");
+        for (CirculationOutcome outcome : result.getOutcomes()) {
+            String fineText = outcome.getFine() > 0 ? String.format(" Fine due: $%.2f", outcome.getFine()) : "";
+            System.out.printf("Book ID %-5d %-7s %s%s\n", outcome.getBookId(), outcome.isSucceeded() ? "OK" : "FAILED",
+                              outcome.getMessage(), fineText);
+        }
+        System.out.println(operation + " complete: " + result.getSucceededCount() + " succeeded, " + result.getFailedCount() + " failed.");
+        if (result.getTotalFines() > 0) {
+            System.out.printf("Total fines due: $%.2f\n", result.getTotalFines());
+        }
+        System.out.println();
+        return result;
+    }
+
+    private interface RowHandler {
+        void handle(ResultSet rs) throws SQLException;
     }
 
-    
     // Displays a list of all currently borrowed books, including borrower details and due dates.
-    
     public void displayBorrowedBooks() {
+        Metrics.run("BorrowerFunction.displayBorrowedBooks", () -> exportBorrowedBooks(OutputFormat.TABLE, null));
+    }
+
+    /**
+     * Writes the currently borrowed books as a table, CSV or JSON, to standard output
+     * (filePath null) or to a file. All rows are read before any are written.
+     *
+     * @return false if the loans could not be read or the file could not be written
+     */
+    public boolean exportBorrowedBooks(OutputFormat format, String filePath) {
+        return Metrics.time("BorrowerFunction.exportBorrowedBooks", () -> doExportBorrowedBooks(format, filePath));
+    }
+
+    private boolean doExportBorrowedBooks(OutputFormat format, String filePath) {
+        List<BorrowedBook> borrowedBooks = listBorrowedBooks();
+        if (borrowedBooks == null) {
+            return false;
+        }
+        LocalDate today = LocalDate.now();
+        String summary = borrowedBooks.isEmpty() ? null
+                : "Total outstanding fines: $" + RowRenderer.twoDecimals(fineLedger.getTotalOutstandingFines(today));
+        return render(format, filePath, BORROWED_LISTING, "Currently Borrowed Books", borrowedBooks,
+                      "No books are currently borrowed.", summary);
+    }
+
+    /**
+     * Every active loan with its book title and fine so far.
+     *
+     * @return the loans, or null if they could not be read
+     */
+    public List<BorrowedBook> listBorrowedBooks() {
+        return Metrics.time("BorrowerFunction.listBorrowedBooks", this::doListBorrowedBooks);
+    }
+
+    private List<BorrowedBook> doListBorrowedBooks() {
         // Updated query: Replaced bl.author with bl.title in the SELECT statement
-        String query = "SELECT bl.id AS book_id, bl.title, bl.isbn, " + // Removed bl.author
-                       "br.borrower_name, br.time_in, br.scheduled_return " +
+        String query = "SELECT br.id, br.book_id, br.borrower_name, br.time_in, br.scheduled_return, br.time_out, bl.title " +
                        "FROM booklist bl " +
                        "INNER JOIN borrower_list br ON bl.id = br.book_id " +
                        "WHERE bl.status = 1 AND br.time_out IS NULL"; 
 
+        List<BorrowedBook> borrowedBooks = new ArrayList<>();
+        LocalDate today = LocalDate.now();
         try (Connection connection = dbConnection.connect();
-             Statement state = connection.createStatement();
-             ResultSet result = state.executeQuery(query)) {
-
-            System.out.println("\n--- Currently Borrowed Books ---");
-            // Updated header: Changed "AUTHOR" to "TITLE" and adjusted column width if necessary
-            System.out.printf("%-5s %-30s %-20s %-20s %-20s %-20s\n", // Adjusted width for TITLE
-                              "ID", "TITLE", "BORROWER", "BORROW DATE", "DUE DATE", "OVERDUE FINE"); // Removed "AUTHOR"
-            System.out.println("-------------------------------------------------------------------------------------------------------------------------------------------------");
-
-            boolean foundBorrowedBooks = false;
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"); // For precise time display if needed
-
-            while (result.next()) {
-                foundBorrowedBooks = true;
-                int bookId = result.getInt("book_id");
-                String title = result.getString("title"); 
-                String borrowerName = result.getString("borrower_name");
-                Timestamp timeIn = result.getTimestamp("time_in");
-                Timestamp scheduledReturn = result.getTimestamp("scheduled_return");
-
-                LocalDate today = LocalDate.now();
-                LocalDate scheduledReturnLocalDate = scheduledReturn.toLocalDateTime().toLocalDate();
-                double fine = calculateFine(scheduledReturnLocalDate, today);
-                String fineDisplay = (fine > 0) ? String.format("$%.2f", fine) : "No Fine";
-
-                String borrowDateStr = timeIn.toLocalDateTime().format(formatter);
-                String dueDateStr = scheduledReturn.toLocalDateTime().format(formatter);
-
-                // Updated printf format string and arguments
-                System.out.printf("%-5d %-30s %-20s %-20s %-20s %-20s\n",
-                                  bookId, title, borrowerName, borrowDateStr, // Removed author from here
-                                  dueDateStr, fineDisplay);
-            }
-            if (!foundBorrowedBooks) {
-                System.out.println("No books are currently borrowed.");
+             PreparedStatement state = connection.prepareStatement(query)) {
+
+            state.setFetchSize(LEDGER_FETCH_SIZE);
+            try (ResultSet result = state.executeQuery()) {
+                while (result.next()) {
+                    Loan loan = RowMappers.LOAN.map(result);
+
+                    // The ledger already knows the due day of every active loan
+                    double fine = fineLedger.fineFor(loan.getId(), today);
+                    if (fine < 0) {
+                        fine = calculateFine(loan.getScheduledReturn().toLocalDate(), today);
+                    }
+                    borrowedBooks.add(new BorrowedBook(loan, result.getString("title"), fine));
+                }
             }
-            System.out.println("-------------------------------------------------------------------------------------------------------------------------------------------------\n");
+            return borrowedBooks;
         } catch (SQLException e) {
             System.out.println("Error displaying borrowed books: " + e.getMessage());
+            return null;
         }
     }
 
-    // Calculates the fine for an overdue book.
-    private double calculateFine(LocalDate scheduledReturnDate, LocalDate actualReturnDate) {
-        if (actualReturnDate.isAfter(scheduledReturnDate)) {
-            long daysOverdue = ChronoUnit.DAYS.between(scheduledReturnDate, actualReturnDate);
-            return daysOverdue * 10.0; // $10 per day
+    // Displays only the overdue loans and their fines, straight from the fine ledger.
+    public void displayOverdueLoans() {
+        Metrics.run("BorrowerFunction.displayOverdueLoans", () -> exportOverdueLoans(OutputFormat.TABLE, null));
+    }
+
+    // Writes the overdue loans as a table, CSV or JSON, to standard output (filePath null) or to a file
+    public boolean exportOverdueLoans(OutputFormat format, String filePath) {
+        LocalDate today = LocalDate.now();
+        List<OverdueLoan> overdueLoans = fineLedger.getOverdueLoans(today);
+        String summary = overdueLoans.size() + " overdue loan(s), total outstanding fines: $"
+                         + RowRenderer.twoDecimals(fineLedger.getTotalOutstandingFines(today));
+        return render(format, filePath, OVERDUE_LISTING, "Overdue Loans as of " + today, overdueLoans,
+                      "No loans are overdue.", summary);
+    }
+
+    private <T> boolean render(OutputFormat format, String filePath, List<Column<T>> columns, String title,
+                               List<T> rows, String emptyMessage, String summary) {
+        try (RowRenderer<T> renderer = RowRenderer.open(format, columns, filePath)) {
+            renderer.begin(title);
+            renderer.rows(rows);
+            renderer.end(emptyMessage, summary);
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("Error writing " + title.toLowerCase() + ": " + e.getMessage());
+            return false;
+        }
+        if (filePath != null && !filePath.trim().isEmpty()) {
+            System.out.println(rows.size() + " row(s) exported to " + filePath.trim() + ".");
         }
-        return 0.0; // No fine if returned on or before due date
+        return true;
     }
 
     /**
-     * Helper method to check if a book has an active borrowing record in borrower_list,
-     * regardless of its status in booklist. Useful for consistency checks.
+     * The books a borrower has out right now, soonest due first, with the fine each has
+     * built up. Uses the borrower_name index, so it does not scan borrower_list. The name
+     * must match exactly as it was entered when borrowing (surrounding spaces ignored).
+     *
+     * @return the loans (empty if the borrower has none), or null if they could not be read
      */
-    public boolean isBookCurrentlyBorrowedInBorrowerList(int bookId) {
-        String query = "SELECT COUNT(*) FROM borrower_list WHERE book_id = ? AND time_out IS NULL";
+    public List<BorrowedBook> getLoansForBorrower(String borrowerName) {
+        return Metrics.time("BorrowerFunction.getLoansForBorrower", () -> doGetLoansForBorrower(borrowerName));
+    }
+
+    private List<BorrowedBook> doGetLoansForBorrower(String borrowerName) {
+        if (borrowerName == null || borrowerName.trim().isEmpty()) {
+            return new ArrayList<>();
+        }
+        String query = "SELECT br.id, br.book_id, br.borrower_name, br.time_in, br.scheduled_return, br.time_out, bl.title " +
+                       "FROM borrower_list br " +
+                       "INNER JOIN booklist bl ON bl.id = br.book_id " +
+                       "WHERE br.borrower_name = ? AND br.time_out IS NULL " +
+                       "ORDER BY br.scheduled_return, br.id";
+
+        List<BorrowedBook> loans = new ArrayList<>();
+        LocalDate today = LocalDate.now();
+        try (Connection connection = dbConnection.connect();
+             PreparedStatement prep = connection.prepareStatement(query)) {
+            prep.setString(1, normalizeName(borrowerName));
+            try (ResultSet result = prep.executeQuery()) {
+                while (result.next()) {
+                    Loan loan = RowMappers.LOAN.map(result);
+                    double fine = fineLedger.fineFor(loan.getId(), today);
+                    if (fine < 0) {
+                        fine = loan.getScheduledReturn() != null ? calculateFine(loan.getScheduledReturn().toLocalDate(), today) : 0.0;
+                    }
+                    loans.add(new BorrowedBook(loan, result.getString("title"), fine));
+                }
+            }
+            return loans;
+        } catch (SQLException e) {
+            System.out.println("Error reading loans for " + borrowerName + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Total fines a borrower owes today on the books they still have out.
+     *
+     * @return the total, or -1 if their loans could not be read
+     */
+    public double getOutstandingFinesForBorrower(String borrowerName) {
+        List<BorrowedBook> loans = getLoansForBorrower(borrowerName);
+        if (loans == null) {
+            return -1;
+        }
+        double total = 0.0;
+        for (BorrowedBook loan : loans) {
+            total += loan.getFine();
+        }
+        return total;
+    }
+
+    // Displays what a borrower has out and owes
+    public void displayLoansForBorrower(String borrowerName) {
+        List<BorrowedBook> loans = getLoansForBorrower(borrowerName);
+        if (loans == null) {
+            return;
+        }
+        double total = 0.0;
+        for (BorrowedBook loan : loans) {
+            total += loan.getFine();
+        }
+        render(OutputFormat.TABLE, null, BORROWED_LISTING, "Books Borrowed by " + borrowerName.trim(), loans,
+               "No books are currently borrowed by " + borrowerName.trim() + ".",
+               loans.isEmpty() ? null : loans.size() + " book(s) out, fines owed: $" + RowRenderer.twoDecimals(total));
+    }
+
+    /**
+     * Every loan of a book, newest first, including loans LoanArchiver has moved to
+     * loan_history.
+     *
+     * @return the loans, or null if they could not be read
+     */
+    public List<Loan> getLoanHistory(int bookId) {
+        return Metrics.time("BorrowerFunction.getLoanHistory", () -> doGetLoanHistory(bookId));
+    }
+
+    private List<Loan> doGetLoanHistory(int bookId) {
+        String query = "SELECT id, book_id, borrower_name, time_in, scheduled_return, time_out " +
+                       "FROM all_loans WHERE book_id = ? ORDER BY time_in DESC, id DESC";
+
+        List<Loan> loans = new ArrayList<>();
         try (Connection connection = dbConnection.connect();
              PreparedStatement prep = connection.prepareStatement(query)) {
             prep.setInt(1, bookId);
-            ResultSet rs = prep.executeQuery();
-            if (rs.next()) {
-                return rs.getInt(1) > 0;
+            try (ResultSet result = prep.executeQuery()) {
+                while (result.next()) {
+                    loans.add(RowMappers.LOAN.map(result));
+                }
             }
+            return loans;
         } catch (SQLException e) {
-            System.out.println("Error checking active borrower record: " + e.getMessage());
+            System.out.println("Error reading loan history: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Displays every loan of a book, current and archived
+    public void displayLoanHistory(int bookId) {
+        List<Loan> loans = getLoanHistory(bookId);
+        if (loans != null) {
+            render(OutputFormat.TABLE, null, HISTORY_LISTING, "Loan History of Book ID " + bookId, loans,
+                   "This book has never been borrowed.", loans.isEmpty() ? null : loans.size() + " loan(s)");
+        }
+    }
+
+    public double getTotalOutstandingFines() {
+        return fineLedger.getTotalOutstandingFines(LocalDate.now());
+    }
+
+    public List<OverdueLoan> getOverdueLoans() {
+        return fineLedger.getOverdueLoans(LocalDate.now());
+    }
+
+    /**
+     * Loads every active loan into the fine ledger. Called once at startup; after that
+     * the ledger is kept current by the borrow and return methods.
+     */
+    public boolean loadFineLedger() {
+        return Metrics.time("BorrowerFunction.loadFineLedger", this::doLoadFineLedger);
+    }
+
+    private boolean doLoadFineLedger() {
+        String query = "SELECT id, book_id, borrower_name, time_in, scheduled_return, time_out " +
+                       "FROM borrower_list WHERE time_out IS NULL";
+
+        try (Connection connection = dbConnection.connect();
+             PreparedStatement prep = connection.prepareStatement(query)) {
+            prep.setFetchSize(LEDGER_FETCH_SIZE);
+            try (ResultSet result = prep.executeQuery()) {
+                fineLedger.clear();
+                while (result.next()) {
+                    fineLedger.add(RowMappers.LOAN.map(result));
+                }
+            }
+            return true;
+        } catch (SQLException e) {
+            System.out.println("Error loading active loans: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Counts every loan in the database into the circulation statistics, reading in
+     * parallel. Called once at startup; after that the statistics are kept current by
+     * the borrow and return methods.
+     */
+    public boolean loadCirculationStats() {
+        return circulationStats.rebuild(dbConnection, CirculationStats.DEFAULT_REBUILD_THREADS);
+    }
+
+    // Circulation totals from the running counters; no query is run
+    public CirculationReport getCirculationReport(int days, int months, int top) {
+        return circulationStats.report(days, months, top);
+    }
+
+    // Displays the circulation report: loans per day and month, the most borrowed titles and authors
+    public void displayCirculationReport() {
+        CirculationReport report = getCirculationReport(REPORT_DAYS, REPORT_MONTHS, REPORT_TOP);
+        System.out.println("\n--- Circulation Statistics ---");
+        System.out.println("Total loans: " + report.getTotalLoans() + " (" + report.getReturnedLoans() + " returned)");
+        System.out.printf("Average loan duration: %.1f days\n", report.getAverageLoanDays());
+        System.out.printf("Returned late: %d (%.1f%%)\n", report.getOverdueReturns(), report.getOverdueRate() * 100);
+        System.out.println("Fines collected: $" + RowRenderer.twoDecimals(report.getFinesCollected()));
+        render(OutputFormat.TABLE, null, countListing("DAY"), "Loans per Day (last " + REPORT_DAYS + " days)",
+               report.getLoansPerDay(), "No days to show.", null);
+        render(OutputFormat.TABLE, null, countListing("MONTH"), "Loans per Month (last " + REPORT_MONTHS + " months)",
+               report.getLoansPerMonth(), "No months to show.", null);
+        render(OutputFormat.TABLE, null, countListing("TITLE"), "Most Borrowed Titles",
+               report.getTopTitles(), "No books have been borrowed yet.", null);
+        render(OutputFormat.TABLE, null, countListing("AUTHOR"), "Most Borrowed Authors",
+               report.getTopAuthors(), "No books have been borrowed yet.", null);
+    }
+
+    private static List<Column<LabelCount>> countListing(String labelHeader) {
+        return Arrays.asList(
+            Column.<LabelCount>of("label", labelHeader, 40, LabelCount::getLabel),
+            Column.<LabelCount>of("loans", "LOANS", 10, LabelCount::getCount)
+        );
+    }
+
+    // Fills the fine ledger from a snapshot instead of querying borrower_list
+    void restoreLoans(List<Loan> activeLoans) {
+        fineLedger.clear();
+        for (Loan loan : activeLoans) {
+            fineLedger.add(loan);
         }
-        return false;
+    }
+
+    CirculationStats circulationStats() {
+        return circulationStats;
+    }
+
+    // Adds a committed loan to the ledger; borrowBook and borrowBooks always read its id back
+    private void trackLoan(int loanId, int bookId, String borrowerName, LocalDateTime timeIn, LocalDateTime scheduledReturn) {
+        if (loanId > 0) {
+            fineLedger.add(new Loan(loanId, bookId, borrowerName, timeIn, scheduledReturn, null));
+        }
+    }
+
+    // Removes a returned loan from the ledger and returns the fine owed on returnDate
+    private double settleFine(Loan loan, LocalDate returnDate) {
+        double fine = fineLedger.settle(loan.getId(), returnDate);
+        if (fine < 0 && loan.getScheduledReturn() != null) {
+            fine = calculateFine(loan.getScheduledReturn().toLocalDate(), returnDate); // Loan was not in the ledger
+        }
+        return Math.max(0.0, fine);
+    }
+
+    // Calculates the fine for an overdue book.
+    private double calculateFine(LocalDate scheduledReturnDate, LocalDate actualReturnDate) {
+        return FineLedger.fineFor(scheduledReturnDate, actualReturnDate);
+    }
+
+    /**
+     * Helper method to check if a book has an active borrowing record in borrower_list,
+     * regardless of its status in booklist. Useful for consistency checks.
+     */
+    public boolean isBookCurrentlyBorrowedInBorrowerList(int bookId) {
+        return Metrics.time("BorrowerFunction.isBookCurrentlyBorrowedInBorrowerList", () -> doIsBookCurrentlyBorrowedInBorrowerList(bookId));
+    }
+
+    private boolean doIsBookCurrentlyBorrowedInBorrowerList(int bookId) {
+        return bookFunction.hasActiveLoan(bookId); // Answered by the availability index
     }
 }
\ No newline at end of file
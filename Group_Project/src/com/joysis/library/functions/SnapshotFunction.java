@@ -0,0 +1,390 @@
+package com.joysis.library.functions;
+
+import com.joysis.library.circulation.CirculationStats;
+import com.joysis.library.fines.FineLedger;
+import com.joysis.library.metrics.Metrics;
+import com.joysis.library.model.Book;
+import com.joysis.library.model.Loan;
+import com.joysis.library.model.RowMappers;
+import com.joysis.library.snapshot.SnapshotReader;
+import com.joysis.library.snapshot.SnapshotWriter;
+import com.joysis.library.util.DataFiles;
+import com.joysis.library.util.DbConnection;
+import com.joysis.library.util.InClause;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Saves the catalog, the active loans and the circulation totals to a binary snapshot
+ * file on shutdown, and restores the search index, availability index, fine ledger and
+ * circulation statistics from it on the next start instead of scanning booklist and
+ * the loan tables.
+ *
+ * The snapshot records the highest book and loan ids it holds. On load it is checked
+ * against the database (same URL, no ids gone backwards, no books deleted, not older
+ * than maxAgeHours) and then caught up: books and loans with higher ids are read, and
+ * snapshot loans returned since it was written are closed. Edits to existing books by
+ * another instance while this one was down are not visible to the catch-up; the age
+ * limit bounds how long they can be missed. When any check fails the caller loads
+ * everything from the database as before.
+ */
+public class SnapshotFunction {
+
+    public static final String DEFAULT_PATH = DataFiles.path("library.snapshot");
+    public static final long DEFAULT_MAX_AGE_HOURS = 24;
+    private static final long CLOCK_MARGIN_MINUTES = 5; // Desks' clocks may differ a little
+    private static final int FETCH_SIZE = 1000;
+
+    private static final String BOOKS_UP_TO_QUERY = "SELECT id, title, author, year, isbn, status, version FROM booklist WHERE id <= ? ORDER BY id";
+    private static final String ACTIVE_LOANS_UP_TO_QUERY = "SELECT id, book_id, borrower_name, time_in, scheduled_return, time_out " +
+                                                           "FROM borrower_list WHERE time_out IS NULL AND id <= ? ORDER BY id";
+    private static final String NEW_BOOKS_QUERY = "SELECT id, title, author, year, isbn, status, version FROM booklist WHERE id > ? ORDER BY id";
+    // borrower_list only: LoanArchiver moves loans returned long before any usable snapshot
+    private static final String NEW_LOANS_QUERY = "SELECT id, book_id, borrower_name, time_in, scheduled_return, time_out " +
+                                                  "FROM borrower_list WHERE id > ? ORDER BY id";
+    private static final String RETURNS_SINCE_QUERY = "SELECT id, time_out FROM borrower_list WHERE time_out >= ? AND id <= ?";
+
+    private final DbConnection dbConnection;
+    private final BookFunction bookFunction;
+    private final BorrowerFunction borrowerFunction;
+    private final long maxAgeHours;
+
+    public SnapshotFunction(DbConnection dbConnection, BookFunction bookFunction, BorrowerFunction borrowerFunction,
+                            long maxAgeHours) {
+        this.dbConnection = dbConnection;
+        this.bookFunction = bookFunction;
+        this.borrowerFunction = borrowerFunction;
+        this.maxAgeHours = maxAgeHours;
+    }
+
+    /**
+     * Writes the snapshot. The catalog and active loans are read from the database, so
+     * the file also holds changes made by other instances; the circulation totals are
+     * this instance's running counters.
+     */
+    public boolean saveSnapshot(String filePath) {
+        return Metrics.time("SnapshotFunction.saveSnapshot", () -> doSaveSnapshot(filePath));
+    }
+
+    private boolean doSaveSnapshot(String filePath) {
+        LocalDateTime createdAt = LocalDateTime.now(); // Before reading, so the catch-up window overlaps the reads
+        int[] counts;
+        try (SnapshotWriter out = new SnapshotWriter(Paths.get(filePath))) {
+            // One transaction, so the high-water marks, books and loans are a single consistent cut:
+            // a return committed between the book and loan reads would leave a status no catch-up fixes
+            counts = dbConnection.inTransaction(Connection.TRANSACTION_REPEATABLE_READ, connection -> {
+                try {
+                    return writeTables(connection, out, createdAt);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            borrowerFunction.circulationStats().writeTo(out);
+            out.commit();
+        } catch (SQLException | IOException e) {
+            System.out.println("Error writing snapshot: " + e.getMessage());
+            return false;
+        } catch (UncheckedIOException e) {
+            System.out.println("Error writing snapshot: " + e.getCause().getMessage());
+            return false;
+        }
+        System.out.println("Snapshot of " + counts[0] + " books and " + counts[1] + " active loans saved to " + filePath + ".");
+        return true;
+    }
+
+    // Writes the header, the books and the active loans; returns how many of each
+    private static int[] writeTables(Connection connection, SnapshotWriter out, LocalDateTime createdAt)
+            throws SQLException, IOException {
+        int books = 0;
+        int loans = 0;
+        int bookHighWater = maxId(connection, "booklist");
+        int loanHighWater = maxLoanId(connection);
+        out.writeString(connection.getMetaData().getURL());
+        out.writeDateTime(createdAt);
+        out.writeInt(bookHighWater);
+        out.writeInt(loanHighWater);
+
+        // Records are streamed with a 1 in front of each and a 0 after the last
+        try (PreparedStatement prep = connection.prepareStatement(BOOKS_UP_TO_QUERY)) {
+            prep.setInt(1, bookHighWater);
+            prep.setFetchSize(FETCH_SIZE);
+            try (ResultSet result = prep.executeQuery()) {
+                while (result.next()) {
+                    Book book = RowMappers.BOOK.map(result);
+                    out.writeByte(1);
+                    out.writeInt(book.getId());
+                    out.writeString(book.getTitle());
+                    out.writeString(book.getAuthor());
+                    out.writeInt(book.getYear());
+                    out.writeString(book.getIsbn());
+                    out.writeByte(book.getStatus());
+                    out.writeInt(book.getVersion());
+                    books++;
+                }
+            }
+        }
+        out.writeByte(0);
+
+        try (PreparedStatement prep = connection.prepareStatement(ACTIVE_LOANS_UP_TO_QUERY)) {
+            prep.setInt(1, loanHighWater);
+            prep.setFetchSize(FETCH_SIZE);
+            try (ResultSet result = prep.executeQuery()) {
+                while (result.next()) {
+                    Loan loan = RowMappers.LOAN.map(result);
+                    out.writeByte(1);
+                    out.writeInt(loan.getId());
+                    out.writeInt(loan.getBookId());
+                    out.writeString(loan.getBorrowerName());
+                    out.writeDateTime(loan.getTimeIn());
+                    out.writeDateTime(loan.getScheduledReturn());
+                    loans++;
+                }
+            }
+        }
+        out.writeByte(0);
+        return new int[]{books, loans};
+    }
+
+    /**
+     * Restores the in-memory indexes from the snapshot and catches them up with the
+     * database.
+     *
+     * @return true if the indexes were restored; false if there is no usable snapshot,
+     *         in which case nothing was changed and the indexes must be loaded from the
+     *         database
+     */
+    public boolean loadSnapshot(String filePath) {
+        return Metrics.time("SnapshotFunction.loadSnapshot", () -> doLoadSnapshot(filePath));
+    }
+
+    private boolean doLoadSnapshot(String filePath) {
+        Path path = Paths.get(filePath);
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        long start = System.currentTimeMillis();
+
+        Snapshot snapshot;
+        try {
+            snapshot = read(path);
+        } catch (IOException e) {
+            System.out.println("Snapshot ignored: " + e.getMessage() + ". Loading from the database.");
+            return false;
+        }
+
+        String problem;
+        try (Connection connection = dbConnection.connect()) {
+            problem = verify(connection, snapshot);
+            if (problem == null) {
+                problem = catchUp(connection, snapshot);
+            }
+        } catch (SQLException e) {
+            problem = "the database could not be read (" + e.getMessage() + ")";
+        }
+        if (problem != null) {
+            System.out.println("Snapshot ignored: " + problem + ". Loading from the database.");
+            return false;
+        }
+
+        BitSet onLoan = new BitSet();
+        for (Loan loan : snapshot.activeLoans.values()) {
+            onLoan.set(loan.getBookId());
+        }
+        bookFunction.restoreIndexes(new ArrayList<>(snapshot.books.values()), onLoan);
+        borrowerFunction.restoreLoans(new ArrayList<>(snapshot.activeLoans.values()));
+        borrowerFunction.circulationStats().copyFrom(snapshot.stats);
+
+        System.out.println("Restored " + snapshot.books.size() + " books and " + snapshot.activeLoans.size()
+                + " active loans from the snapshot in " + (System.currentTimeMillis() - start) + " ms ("
+                + snapshot.newBooks + " new books, " + snapshot.newLoans + " new loans and "
+                + snapshot.returns + " returns caught up).");
+        return true;
+    }
+
+    private Snapshot read(Path path) throws IOException {
+        SnapshotReader in = SnapshotReader.open(path);
+        Snapshot snapshot = new Snapshot();
+        snapshot.url = in.readString();
+        snapshot.createdAt = in.readDateTime();
+        snapshot.bookHighWater = in.readInt();
+        snapshot.loanHighWater = in.readInt();
+        if (snapshot.createdAt == null) {
+            throw new IOException("snapshot has no creation time");
+        }
+
+        while (in.readByte() == 1) {
+            Book book = new Book(in.readInt(), in.readString(), in.readString(), in.readInt(), in.readString(), in.readByte(),
+                                 in.readInt());
+            snapshot.books.put(book.getId(), book);
+        }
+        while (in.readByte() == 1) {
+            Loan loan = new Loan(in.readInt(), in.readInt(), in.readString(), in.readDateTime(), in.readDateTime(), null);
+            snapshot.activeLoans.put(loan.getId(), loan);
+        }
+        snapshot.stats.readFrom(in);
+        return snapshot;
+    }
+
+    // Why the snapshot cannot be used with this database, or null if it can
+    private String verify(Connection connection, Snapshot snapshot) throws SQLException {
+        if (!connection.getMetaData().getURL().equals(snapshot.url)) {
+            return "it was written for another database";
+        }
+        if (snapshot.createdAt.plusHours(maxAgeHours).isBefore(LocalDateTime.now())) {
+            return "it is more than " + maxAgeHours + " hours old";
+        }
+        if (maxId(connection, "booklist") < snapshot.bookHighWater || maxLoanId(connection) < snapshot.loanHighWater) {
+            return "the database has been replaced or restored since it was written";
+        }
+        try (PreparedStatement prep = connection.prepareStatement("SELECT COUNT(*) FROM booklist WHERE id <= ?")) {
+            prep.setInt(1, snapshot.bookHighWater);
+            try (ResultSet result = prep.executeQuery()) {
+                result.next();
+                if (result.getInt(1) != snapshot.books.size()) {
+                    return "books have been deleted since it was written";
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Applies what changed in the database since the snapshot was written: new books,
+     * returns of snapshot loans and new loans, then re-reads the status of every book
+     * those touched.
+     */
+    private String catchUp(Connection connection, Snapshot snapshot) throws SQLException {
+        CirculationStats stats = snapshot.stats;
+        Set<Integer> touchedBooks = new LinkedHashSet<>();
+
+        try (PreparedStatement prep = connection.prepareStatement(NEW_BOOKS_QUERY)) {
+            prep.setInt(1, snapshot.bookHighWater);
+            prep.setFetchSize(FETCH_SIZE);
+            try (ResultSet result = prep.executeQuery()) {
+                while (result.next()) {
+                    Book book = RowMappers.BOOK.map(result);
+                    snapshot.books.put(book.getId(), book);
+                    snapshot.newBooks++;
+                }
+            }
+        }
+
+        try (PreparedStatement prep = connection.prepareStatement(RETURNS_SINCE_QUERY)) {
+            prep.setTimestamp(1, Timestamp.valueOf(snapshot.createdAt.minusMinutes(CLOCK_MARGIN_MINUTES)));
+            prep.setInt(2, snapshot.loanHighWater);
+            try (ResultSet result = prep.executeQuery()) {
+                while (result.next()) {
+                    Loan loan = snapshot.activeLoans.remove(result.getInt("id"));
+                    if (loan == null) {
+                        continue; // Returned before the snapshot was written
+                    }
+                    LocalDateTime timeOut = RowMappers.toLocalDateTime(result.getTimestamp("time_out"));
+                    stats.recordReturn(loan.getTimeIn(), loan.getScheduledReturn(), timeOut, fineFor(loan, timeOut));
+                    touchedBooks.add(loan.getBookId());
+                    snapshot.returns++;
+                }
+            }
+        }
+
+        try (PreparedStatement prep = connection.prepareStatement(NEW_LOANS_QUERY)) {
+            prep.setInt(1, snapshot.loanHighWater);
+            prep.setFetchSize(FETCH_SIZE);
+            try (ResultSet result = prep.executeQuery()) {
+                while (result.next()) {
+                    Loan loan = RowMappers.LOAN.map(result);
+                    Book book = snapshot.books.get(loan.getBookId());
+                    stats.recordBorrow(loan.getTimeIn(), book != null ? book.getTitle() : null, book != null ? book.getAuthor() : null);
+                    if (loan.isActive()) {
+                        snapshot.activeLoans.put(loan.getId(), loan);
+                    } else {
+                        stats.recordReturn(loan.getTimeIn(), loan.getScheduledReturn(), loan.getTimeOut(), fineFor(loan, loan.getTimeOut()));
+                    }
+                    touchedBooks.add(loan.getBookId());
+                    snapshot.newLoans++;
+                }
+            }
+        }
+
+        return refreshStatuses(connection, snapshot, new ArrayList<>(touchedBooks));
+    }
+
+    // Re-reads booklist.status for the given books, InClause.MAX_SIZE at a time
+    private String refreshStatuses(Connection connection, Snapshot snapshot, List<Integer> bookIds) throws SQLException {
+        for (int from = 0; from < bookIds.size(); from += InClause.MAX_SIZE) {
+            List<Integer> chunk = bookIds.subList(from, Math.min(bookIds.size(), from + InClause.MAX_SIZE));
+            int slots = InClause.paddedSize(chunk.size());
+            String query = "SELECT id, status, version FROM booklist WHERE id IN (" + InClause.placeholders(slots) + ")";
+            try (PreparedStatement prep = connection.prepareStatement(query)) {
+                for (int i = 0; i < slots; i++) {
+                    prep.setInt(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+                }
+                try (ResultSet result = prep.executeQuery()) {
+                    while (result.next()) {
+                        Book book = snapshot.books.get(result.getInt("id"));
+                        if (book != null) {
+                            snapshot.books.put(book.getId(), book.withStatus(result.getInt("status"), result.getInt("version")));
+                        }
+                    }
+                }
+            }
+        }
+        for (Loan loan : snapshot.activeLoans.values()) {
+            if (!snapshot.books.containsKey(loan.getBookId())) {
+                return "an active loan refers to book " + loan.getBookId() + ", which is not in the catalog";
+            }
+        }
+        return null;
+    }
+
+    private static double fineFor(Loan loan, LocalDateTime timeOut) {
+        if (loan.getScheduledReturn() == null || timeOut == null) {
+            return 0.0;
+        }
+        return FineLedger.fineFor(loan.getScheduledReturn().toLocalDate(), timeOut.toLocalDate());
+    }
+
+    private static int maxId(Connection connection, String table) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT MAX(id) FROM " + table)) {
+            return result.next() ? result.getInt(1) : 0; // 0 when the table is empty
+        }
+    }
+
+    // Highest loan id, archived or not. Each table is asked separately: MySQL would build
+    // the whole all_loans view to find its maximum.
+    private static int maxLoanId(Connection connection) throws SQLException {
+        return Math.max(maxId(connection, "borrower_list"), maxId(connection, "loan_history"));
+    }
+
+    // A snapshot file as read, then caught up
+    private static final class Snapshot {
+        String url;
+        LocalDateTime createdAt;
+        int bookHighWater;
+        int loanHighWater;
+        final Map<Integer, Book> books = new HashMap<>();
+        final Map<Integer, Loan> activeLoans = new LinkedHashMap<>();
+        final CirculationStats stats = new CirculationStats();
+        int newBooks;
+        int newLoans;
+        int returns;
+    }
+}
@@ -1,5 +1,8 @@
 package com.joysis.library.functions;
 
+import com.joysis.library.metrics.Metrics;
+import com.joysis.library.model.Librarian;
+import com.joysis.library.model.RowMappers;
 import com.joysis.library.util.DbConnection;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -20,7 +23,29 @@ public class UserFunction {
      //Log in user for librarians, student dont have access to this 
  
     public boolean loginUser(String username, String password) {
-        String query = "SELECT COUNT(*) FROM user_credentials WHERE username = ? AND password = ?"; // Check for matching credentials
+        return Metrics.time("UserFunction.loginUser", () -> doLoginUser(username, password));
+    }
+
+    private boolean doLoginUser(String username, String password) {
+        Librarian librarian = authenticate(username, password);
+        if (librarian != null) {
+            System.out.println("Login successful for user: " + librarian.getUsername());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Looks up the librarian with these credentials.
+     *
+     * @return the matching librarian, or null if the credentials are wrong or the lookup failed.
+     */
+    public Librarian authenticate(String username, String password) {
+        return Metrics.time("UserFunction.authenticate", () -> doAuthenticate(username, password));
+    }
+
+    private Librarian doAuthenticate(String username, String password) {
+        String query = "SELECT id, username FROM user_credentials WHERE username = ? AND password = ?"; // Check for matching credentials
 
         try (Connection connection = dbConnection.connect();
              PreparedStatement prep = connection.prepareStatement(query)) {
@@ -28,27 +53,28 @@ public class UserFunction {
             prep.setString(1, username);
             prep.setString(2, password);
 
-            ResultSet result = prep.executeQuery();
-            if (result.next()) {
-                int count = result.getInt(1);
-                if (count > 0) {
-                    System.out.println("Login successful for user: " + username);
-                    return true;
+            try (ResultSet result = prep.executeQuery()) {
+                if (result.next()) {
+                    return RowMappers.LIBRARIAN.map(result);
                 }
             }
             
             System.out.println("Login failed. Invalid username or password.");
-            return false;
+            return null;
 
         } catch (SQLException e) {
             System.out.println("Error during login: " + e.getMessage());
-            return false;
+            return null;
         }
     }
     
     //Sir Darwin eto po yung register function po
     //Register new account for new librarian users
     public boolean registerUser(String username, String password) {
+        return Metrics.time("UserFunction.registerUser", () -> doRegisterUser(username, password));
+    }
+
+    private boolean doRegisterUser(String username, String password) {
 
         if (usernameExists(username)) {
             System.out.println("Registration failed: Username '" + username + "' already exists. Please choose a different username.");
@@ -1,24 +1,84 @@
 package com.joysis.library.main;
 
+import com.joysis.library.circulation.LoanArchiver;
 import com.joysis.library.functions.BookFunction;
+import com.joysis.library.functions.BookImportFunction;
 import com.joysis.library.functions.BorrowerFunction;
+import com.joysis.library.functions.SnapshotFunction;
 import com.joysis.library.functions.UserFunction;
+import com.joysis.library.metrics.Metrics;
+import com.joysis.library.model.AvailabilityReport;
+import com.joysis.library.model.Book;
+import com.joysis.library.model.BookUpdateResult;
+import com.joysis.library.model.CatalogEntry;
+import com.joysis.library.model.ImportReport;
+import com.joysis.library.render.OutputFormat;
+import com.joysis.library.server.LibraryServer;
 import com.joysis.library.util.DbConnection;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.InputMismatchException;
+import java.util.List;
+import java.util.Objects;
 import java.util.Scanner;
 
 
 public class Main {
 
+    private static final int BOOK_PAGE_SIZE = 20; // Books shown per page in "Display All Books"
+
     public static void main(String[] args) {
 
+        // "--script <file|->" keeps stdout for the JSON results; startup messages go to stderr
+        PrintStream scriptOutput = System.out;
+        boolean scriptMode = args.length > 0 && args[0].equals("--script");
+        if (scriptMode) {
+            System.setOut(System.err);
+        }
+
+        startMetrics();
         DbConnection dbConnection = new DbConnection();
         Scanner scanner = new Scanner(System.in);
 
         UserFunction userFunction = new UserFunction(dbConnection);
         BookFunction bookFunction = new BookFunction(dbConnection);
         BorrowerFunction borrowerFunction = new BorrowerFunction(dbConnection, bookFunction); // BorrowerFunction depends on BookFunction
+        BookImportFunction bookImportFunction = new BookImportFunction(dbConnection, bookFunction);
+
+        SnapshotFunction snapshotFunction = new SnapshotFunction(dbConnection, bookFunction, borrowerFunction, snapshotMaxAgeHours());
+        String snapshotPath = snapshotPath();
+
+        // Restore the in-memory indexes from the last snapshot, or build them from the database
+        if (snapshotPath == null || !snapshotFunction.loadSnapshot(snapshotPath)) {
+            bookFunction.loadSearchIndex(); // Build the title/author search index once at startup
+            bookFunction.loadAvailabilityIndex(); // Which books are on loan, for instant availability checks
+            borrowerFunction.loadFineLedger(); // Index active loans by due date for fine lookups
+            borrowerFunction.loadCirculationStats(); // Count past loans once; borrows and returns keep the totals current
+        }
+        LoanArchiver loanArchiver = startLoanArchiver(dbConnection);
+
+        // "--server [port]" serves the HTTP/JSON API for the circulation desks instead of the console menu
+        if (args.length > 0 && args[0].equals("--server")) {
+            scanner.close();
+            runServer(args, dbConnection, userFunction, bookFunction, borrowerFunction, loanArchiver, snapshotFunction, snapshotPath);
+            return;
+        }
+
+        // "--script <file|->" runs commands from a file or stdin without prompts
+        if (scriptMode) {
+            int failed = runScript(args, scriptOutput, bookFunction, borrowerFunction);
+            loanArchiver.stop();
+            saveSnapshot(snapshotFunction, snapshotPath);
+            dbConnection.close();
+            System.exit(failed == 0 ? 0 : 1);
+        }
 
         boolean loggedIn = false;
         String loggedInUsername = null;
@@ -66,6 +126,9 @@ public class Main {
                 case 3:
                     System.out.println("Exiting Library System. Goodbye!");
                     scanner.close();
+                    stopLoanArchiver(loanArchiver);
+                    saveSnapshot(snapshotFunction, snapshotPath);
+                    dbConnection.close(); // Release pooled connections
                     return; // Exit the application
                 default:
                     System.out.println("Invalid choice. Please try again.");
@@ -79,8 +142,15 @@ public class Main {
             System.out.println("1. Manage Books (Add, Update, Delete, Search, Display All)");
             System.out.println("2. Borrow Book");
             System.out.println("3. Return Book");
-            System.out.println("4. View Currently Borrowed Books");
-            System.out.println("5. Logout");
+            System.out.println("4. Borrow Multiple Books");
+            System.out.println("5. Return Multiple Books");
+            System.out.println("6. View Currently Borrowed Books");
+            System.out.println("7. View Overdue Loans and Fines");
+            System.out.println("8. Export Books or Loans (CSV/JSON)");
+            System.out.println("9. View Loan History of a Book");
+            System.out.println("10. Look Up a Borrower's Loans and Fines");
+            System.out.println("11. View Circulation Statistics");
+            System.out.println("12. Logout");
             System.out.print("Enter your choice: ");
 
             int mainMenuChoice = -1;
@@ -95,7 +165,7 @@ public class Main {
 
             switch (mainMenuChoice) {
                 case 1: // Manage Books
-                    handleBookManagement(scanner, bookFunction);
+                    handleBookManagement(scanner, bookFunction, bookImportFunction);
                     break;
                 case 2: // Borrow Book
                     handleBorrowBook(scanner, borrowerFunction, bookFunction); // Pass bookFunction for title check
@@ -103,10 +173,35 @@ public class Main {
                 case 3: // Return Book
                     handleReturnBook(scanner, borrowerFunction, bookFunction); // Pass bookFunction for title check
                     break;
-                case 4: // View Currently Borrowed Books
+                case 4: // Borrow Multiple Books
+                    handleBatchBorrow(scanner, borrowerFunction);
+                    break;
+                case 5: // Return Multiple Books
+                    handleBatchReturn(scanner, borrowerFunction);
+                    break;
+                case 6: // View Currently Borrowed Books
                     borrowerFunction.displayBorrowedBooks();
                     break;
-                case 5: // Logout
+                case 7: // View Overdue Loans and Fines
+                    borrowerFunction.displayOverdueLoans();
+                    break;
+                case 8: // Export Books or Loans
+                    handleExport(scanner, bookFunction, borrowerFunction);
+                    break;
+                case 9: // View Loan History
+                    handleLoanHistory(scanner, borrowerFunction);
+                    break;
+                case 10: // Look Up a Borrower
+                    System.out.print("Enter borrower name (press Enter to cancel): ");
+                    String borrowerName = scanner.nextLine().trim();
+                    if (!borrowerName.isEmpty()) {
+                        borrowerFunction.displayLoansForBorrower(borrowerName);
+                    }
+                    break;
+                case 11: // View Circulation Statistics
+                    borrowerFunction.displayCirculationReport();
+                    break;
+                case 12: // Logout
                     loggedIn = false;
                     loggedInUsername = null;
                     System.out.println("Logged out successfully.");
@@ -117,20 +212,150 @@ public class Main {
         }
 
         scanner.close(); 
+        stopLoanArchiver(loanArchiver);
+        saveSnapshot(snapshotFunction, snapshotPath);
+        dbConnection.close(); // Release pooled connections
     }
 
     // --- Helper Methods for Menu Choices ---
 
-    private static void handleBookManagement(Scanner scanner, BookFunction bookFunction) {
+    // Publishes operation timings over JMX, and to a file every few seconds if -Dlibrary.metrics.file is set
+    private static void startMetrics() {
+        Metrics.registerMBean();
+        String file = System.getProperty("library.metrics.file");
+        if (file == null || file.trim().isEmpty()) {
+            return;
+        }
+        long intervalSeconds = 60;
+        try {
+            intervalSeconds = Long.parseLong(System.getProperty("library.metrics.interval", "60"));
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid library.metrics.interval. Using " + intervalSeconds + " seconds.");
+        }
+        Metrics.startPeriodicDump(Paths.get(file.trim()), Math.max(1, intervalSeconds));
+    }
+
+    /**
+     * Starts moving old closed loans to loan_history in the background. Loans returned more
+     * than -Dlibrary.archive.days (default 365) ago are archived every -Dlibrary.archive.interval
+     * minutes (default 60; 0 turns archiving off).
+     */
+    private static LoanArchiver startLoanArchiver(DbConnection dbConnection) {
+        int retentionDays = LoanArchiver.DEFAULT_RETENTION_DAYS;
+        long intervalMinutes = 60;
+        try {
+            retentionDays = Integer.parseInt(System.getProperty("library.archive.days", String.valueOf(retentionDays)));
+            intervalMinutes = Long.parseLong(System.getProperty("library.archive.interval", String.valueOf(intervalMinutes)));
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid loan archive setting: " + e.getMessage() + ". Using the defaults.");
+            retentionDays = LoanArchiver.DEFAULT_RETENTION_DAYS;
+            intervalMinutes = 60;
+        }
+        LoanArchiver archiver = new LoanArchiver(dbConnection, Math.max(0, retentionDays));
+        if (intervalMinutes > 0) {
+            archiver.start(intervalMinutes);
+        }
+        return archiver;
+    }
+
+    // Stops background archiving and reports what it did this session, from the foreground
+    private static void stopLoanArchiver(LoanArchiver loanArchiver) {
+        loanArchiver.stop();
+        if (loanArchiver.getArchivedCount() > 0) {
+            System.out.println("Archived " + loanArchiver.getArchivedCount() + " closed loan(s) to loan_history.");
+        }
+        if (loanArchiver.getLastError() != null) {
+            System.out.println(loanArchiver.getLastError());
+        }
+    }
+
+    /**
+     * Where the warm-start snapshot is kept: -Dlibrary.snapshot (default library.snapshot
+     * in the data directory, see DataFiles), or null when it is set to "off".
+     */
+    private static String snapshotPath() {
+        String path = System.getProperty("library.snapshot", SnapshotFunction.DEFAULT_PATH).trim();
+        return path.isEmpty() || path.equalsIgnoreCase("off") ? null : path;
+    }
+
+    // Snapshots older than -Dlibrary.snapshot.maxAgeHours (default 24) are not used
+    private static long snapshotMaxAgeHours() {
+        String value = System.getProperty("library.snapshot.maxAgeHours", String.valueOf(SnapshotFunction.DEFAULT_MAX_AGE_HOURS));
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid library.snapshot.maxAgeHours. Using " + SnapshotFunction.DEFAULT_MAX_AGE_HOURS + " hours.");
+            return SnapshotFunction.DEFAULT_MAX_AGE_HOURS;
+        }
+    }
+
+    private static void saveSnapshot(SnapshotFunction snapshotFunction, String snapshotPath) {
+        if (snapshotPath != null) {
+            snapshotFunction.saveSnapshot(snapshotPath);
+        }
+    }
+
+    /**
+     * Runs the commands in the file named after --script ("-" or nothing for stdin); see
+     * ScriptRunner for the command syntax.
+     *
+     * @return the number of commands that failed, or -1 if the script could not be read
+     */
+    private static int runScript(String[] args, PrintStream output, BookFunction bookFunction, BorrowerFunction borrowerFunction) {
+        String source = args.length > 1 ? args[1] : "-";
+        ScriptRunner runner = new ScriptRunner(bookFunction, borrowerFunction, output);
+        try (BufferedReader reader = source.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(source), StandardCharsets.UTF_8)) {
+            return runner.run(reader);
+        } catch (IOException e) {
+            System.err.println("Could not read script " + source + ": " + e.getMessage());
+            return -1;
+        }
+    }
+
+    private static void runServer(String[] args, DbConnection dbConnection, UserFunction userFunction,
+                                  BookFunction bookFunction, BorrowerFunction borrowerFunction, LoanArchiver loanArchiver,
+                                  SnapshotFunction snapshotFunction, String snapshotPath) {
+        int port = LibraryServer.DEFAULT_PORT;
+        if (args.length > 1) {
+            try {
+                port = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid port '" + args[1] + "'. Using " + port + ".");
+            }
+        }
+
+        LibraryServer server = new LibraryServer(dbConnection, userFunction, bookFunction, borrowerFunction);
+        try {
+            server.start(port);
+        } catch (IOException e) {
+            System.out.println("Could not start the server: " + e.getMessage());
+            loanArchiver.stop();
+            dbConnection.close();
+            return;
+        }
+        // Runs until the process is stopped (Ctrl+C)
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            loanArchiver.stop();
+            saveSnapshot(snapshotFunction, snapshotPath);
+            dbConnection.close();
+        }));
+    }
+
+    private static void handleBookManagement(Scanner scanner, BookFunction bookFunction, BookImportFunction bookImportFunction) {
         boolean managingBooks = true;
         while (managingBooks) {
             System.out.println("\n--- Book Management ---");
             System.out.println("1. Add New Book");
             System.out.println("2. Update Book Details");
             System.out.println("3. Delete Book");
-            System.out.println("4. Search Book by Title");
+            System.out.println("4. Search Book by Title or Author");
             System.out.println("5. Display All Books");
-            System.out.println("6. Back to Main Menu");
+            System.out.println("6. Bulk Import Books from CSV/TSV File");
+            System.out.println("7. Check Book Status Against Active Loans");
+            System.out.println("8. Back to Main Menu");
             System.out.print("Enter your choice: ");
 
             int choice = -1;
@@ -210,11 +435,11 @@ public class Main {
                         break;
                     }
                     
-                    String[] currentDetails = bookFunction.getBookDetailsById(updateId);
-                    String currentTitle = currentDetails != null ? currentDetails[0] : "";
-                    String currentAuthor = currentDetails != null ? currentDetails[1] : "";
-                    int currentYear = currentDetails != null ? Integer.parseInt(currentDetails[2]) : 0;
-                    String currentISBN = currentDetails != null ? currentDetails[3] : "";
+                    Book currentDetails = bookFunction.getBookDetailsById(updateId);
+                    String currentTitle = currentDetails != null ? currentDetails.getTitle() : "";
+                    String currentAuthor = currentDetails != null ? currentDetails.getAuthor() : "";
+                    int currentYear = currentDetails != null ? currentDetails.getYear() : 0;
+                    String currentISBN = currentDetails != null ? currentDetails.getIsbn() : "";
 
                     System.out.print("Enter new title (Current: " + currentTitle + ", press Enter to keep current): ");
                     String newTitle = scanner.nextLine();
@@ -245,7 +470,7 @@ public class Main {
                     String newISBN = scanner.nextLine();
                     newISBN = newISBN.isEmpty() ? currentISBN : newISBN;
                     
-                    bookFunction.updateBook(updateId, newTitle, newAuthor, newYear, newISBN);
+                    saveBookDetails(scanner, bookFunction, updateId, currentDetails, newTitle, newAuthor, newYear, newISBN);
                     break;
                 case 3: // Delete Book
                     int deleteId = 0;
@@ -270,14 +495,20 @@ public class Main {
                     bookFunction.deleteBook(deleteId);
                     break;
                 case 4: // Search Book
-                    System.out.print("Enter keyword to search for book title: ");
+                    System.out.print("Enter keywords to search by title or author: ");
                     String searchKeyword = scanner.nextLine();
                     bookFunction.searchBookByTitle(searchKeyword);
                     break;
                 case 5: // Display All Books
-                    bookFunction.displayAllBooks();
+                    browseAllBooks(scanner, bookFunction);
+                    break;
+                case 6: // Bulk Import
+                    handleBulkImport(scanner, bookImportFunction);
                     break;
-                case 6: // Back
+                case 7: // Check Book Status
+                    handleAvailabilityCheck(scanner, bookFunction);
+                    break;
+                case 8: // Back
                     managingBooks = false;
                     System.out.println("Returning to Main Menu.");
                     break;
@@ -287,6 +518,178 @@ public class Main {
         }
     }
 
+    /**
+     * Saves the edited details against the version that was shown for editing. If another
+     * desk saved the book in the meantime, the edit is re-applied on top of their version:
+     * silently when they only borrowed or returned it, after asking when they changed the
+     * details too.
+     */
+    private static void saveBookDetails(Scanner scanner, BookFunction bookFunction, int bookId, Book shown,
+                                        String newTitle, String newAuthor, int newYear, String newISBN) {
+        int version = shown != null ? shown.getVersion() : BookFunction.ANY_VERSION;
+        while (true) {
+            BookUpdateResult result = bookFunction.updateBook(bookId, version, newTitle, newAuthor, newYear, newISBN);
+            if (!result.isConflict()) {
+                return;
+            }
+            Book current = result.getCurrent();
+            if (!sameDetails(shown, current)) {
+                System.out.println("The book now reads: " + current.getTitle() + " by " + current.getAuthor()
+                        + " (" + current.getYear() + "), ISBN " + current.getIsbn() + ".");
+                System.out.print("Save your changes over theirs? (y/n): ");
+                if (!scanner.nextLine().trim().equalsIgnoreCase("y")) {
+                    System.out.println("Book update cancelled.");
+                    return;
+                }
+            }
+            shown = current;
+            version = current.getVersion();
+        }
+    }
+
+    private static boolean sameDetails(Book a, Book b) {
+        return a != null && Objects.equals(a.getTitle(), b.getTitle()) && Objects.equals(a.getAuthor(), b.getAuthor())
+                && a.getYear() == b.getYear() && Objects.equals(a.getIsbn(), b.getIsbn());
+    }
+
+    private static void handleBulkImport(Scanner scanner, BookImportFunction bookImportFunction) {
+        System.out.println("--- Bulk Import (columns: title, author, year, isbn) ---");
+        System.out.print("Enter path of the CSV/TSV file (press Enter to cancel): ");
+        String filePath = scanner.nextLine().trim();
+        if (filePath.isEmpty()) {
+            System.out.println("Bulk import cancelled.");
+            return;
+        }
+
+        int chunkSize = BookImportFunction.DEFAULT_CHUNK_SIZE;
+        System.out.print("Rows per transaction (press Enter for " + chunkSize + "): ");
+        String chunkInput = scanner.nextLine().trim();
+        if (!chunkInput.isEmpty()) {
+            try {
+                chunkSize = Integer.parseInt(chunkInput);
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid number. Using " + chunkSize + ".");
+            }
+        }
+
+        ImportReport report = bookImportFunction.importBooks(filePath, chunkSize);
+        if (report == null) {
+            return;
+        }
+        System.out.println("Import finished: " + report);
+        for (String rejection : report.getRejectionSamples()) {
+            System.out.println("  Rejected " + rejection);
+        }
+        if (report.getRowsRejected() > report.getRejectionSamples().size()) {
+            System.out.println("  ... and more (" + report.getRowsRejected() + " rejected rows in total)");
+        }
+        System.out.println();
+    }
+
+    private static void handleAvailabilityCheck(Scanner scanner, BookFunction bookFunction) {
+        AvailabilityReport report = bookFunction.checkAvailability(false);
+        if (report == null) {
+            return;
+        }
+        System.out.println("Availability: " + report);
+        if (report.isConsistent()) {
+            System.out.println("Every book status matches its loan records.\n");
+            return;
+        }
+        if (!report.getStatusWithoutLoan().isEmpty()) {
+            System.out.println("  Marked borrowed but no active loan: " + sample(report.getStatusWithoutLoan()));
+        }
+        if (!report.getLoanWithoutStatus().isEmpty()) {
+            System.out.println("  On loan but marked available: " + sample(report.getLoanWithoutStatus()));
+        }
+
+        System.out.print("Correct these statuses to match the loan records? (y/n): ");
+        if (scanner.nextLine().trim().equalsIgnoreCase("y")) {
+            report = bookFunction.checkAvailability(true);
+            if (report != null) {
+                System.out.println("Availability: " + report + "\n");
+            }
+        }
+    }
+
+    // The first few book IDs of a long list
+    private static String sample(List<Integer> bookIds) {
+        int shown = Math.min(bookIds.size(), 20);
+        String ids = bookIds.subList(0, shown).toString();
+        return bookIds.size() > shown ? ids + " ... (" + bookIds.size() + " in total)" : ids;
+    }
+
+    private static void handleLoanHistory(Scanner scanner, BorrowerFunction borrowerFunction) {
+        System.out.print("Enter Book ID (Enter 0 to cancel): ");
+        try {
+            int bookId = scanner.nextInt();
+            scanner.nextLine();
+            if (bookId > 0) {
+                borrowerFunction.displayLoanHistory(bookId);
+            }
+        } catch (InputMismatchException e) {
+            System.out.println("Invalid input. Please enter a valid Book ID (number).");
+            scanner.nextLine();
+        }
+    }
+
+    private static void handleExport(Scanner scanner, BookFunction bookFunction, BorrowerFunction borrowerFunction) {
+        System.out.println("--- Export ---");
+        System.out.println("1. All Books");
+        System.out.println("2. Currently Borrowed Books");
+        System.out.println("3. Overdue Loans and Fines");
+        System.out.print("What to export (press Enter to cancel): ");
+        String listing = scanner.nextLine().trim();
+        if (!listing.equals("1") && !listing.equals("2") && !listing.equals("3")) {
+            System.out.println("Export cancelled.");
+            return;
+        }
+
+        System.out.print("Format - csv, json or table (press Enter for csv): ");
+        String formatInput = scanner.nextLine().trim();
+        OutputFormat format = OutputFormat.CSV;
+        if (!formatInput.isEmpty()) {
+            try {
+                format = OutputFormat.fromName(formatInput);
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage() + " Using csv.");
+            }
+        }
+
+        System.out.print("File to write (press Enter to print it here): ");
+        String filePath = scanner.nextLine().trim();
+
+        switch (listing) {
+            case "1":
+                bookFunction.exportAllBooks(format, filePath);
+                break;
+            case "2":
+                borrowerFunction.exportBorrowedBooks(format, filePath);
+                break;
+            default:
+                borrowerFunction.exportOverdueLoans(format, filePath);
+        }
+    }
+
+    // Shows the catalog one page at a time instead of printing every book at once
+    private static void browseAllBooks(Scanner scanner, BookFunction bookFunction) {
+        int afterId = 0;
+        while (true) {
+            List<CatalogEntry> page = bookFunction.listBooks(afterId, BOOK_PAGE_SIZE);
+            bookFunction.displayBookPage(page);
+            if (page.size() < BOOK_PAGE_SIZE) {
+                return; // Last page
+            }
+            afterId = page.get(page.size() - 1).getBook().getId();
+
+            System.out.print("Press Enter for the next page, or type 'q' to go back: ");
+            String input = scanner.nextLine();
+            if (input.trim().equalsIgnoreCase("q")) {
+                return;
+            }
+        }
+    }
+
     private static void handleBorrowBook(Scanner scanner, BorrowerFunction borrowerFunction, BookFunction bookFunction) {
         int bookId = 0;
         String bookTitle = null;
@@ -379,4 +782,69 @@ public class Main {
         }
         borrowerFunction.returnBook(bookId);
     }
-}
\ No newline at end of file
+
+    private static void handleBatchBorrow(Scanner scanner, BorrowerFunction borrowerFunction) {
+        List<Integer> bookIds = readBookIds(scanner, "borrow");
+        if (bookIds == null) {
+            return;
+        }
+
+        System.out.print("Enter Borrower's Name (Student Name): ");
+        String borrowerName = scanner.nextLine();
+        if (borrowerName.trim().isEmpty()) {
+            System.out.println("Borrow process cancelled: Borrower name cannot be empty.");
+            return;
+        }
+
+        int scheduledDays;
+        while (true) {
+            System.out.print("Enter scheduled return days from today (e.g., 7 for 1 week, Enter 0 to cancel): ");
+            try {
+                scheduledDays = Integer.parseInt(scanner.nextLine().trim());
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid input. Please enter a number for days.");
+                continue;
+            }
+            if (scheduledDays == 0) {
+                System.out.println("Borrow process cancelled.");
+                return;
+            }
+            if (scheduledDays < 0) {
+                System.out.println("Days must be a positive number. Please try again.");
+                continue;
+            }
+            break;
+        }
+        borrowerFunction.borrowBooks(bookIds, borrowerName, scheduledDays);
+    }
+
+    private static void handleBatchReturn(Scanner scanner, BorrowerFunction borrowerFunction) {
+        List<Integer> bookIds = readBookIds(scanner, "return");
+        if (bookIds != null) {
+            borrowerFunction.returnBooks(bookIds);
+        }
+    }
+
+    // Reads a list of book IDs separated by spaces or commas. Returns null if cancelled.
+    private static List<Integer> readBookIds(Scanner scanner, String action) {
+        while (true) {
+            System.out.print("Enter Book IDs to " + action + ", separated by spaces or commas (press Enter to cancel): ");
+            String input = scanner.nextLine().trim();
+            if (input.isEmpty()) {
+                System.out.println("Batch " + action + " cancelled.");
+                return null;
+            }
+            List<Integer> bookIds = new ArrayList<>();
+            try {
+                for (String part : input.split("[\\s,]+")) {
+                    if (!part.isEmpty()) {
+                        bookIds.add(Integer.parseInt(part));
+                    }
+                }
+                return bookIds;
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid input. Book IDs must be numbers.");
+            }
+        }
+    }
+}
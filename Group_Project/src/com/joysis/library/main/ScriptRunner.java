@@ -0,0 +1,375 @@
+package com.joysis.library.main;
+
+import com.joysis.library.functions.BookFunction;
+import com.joysis.library.functions.BorrowerFunction;
+import com.joysis.library.model.BatchCirculationResult;
+import com.joysis.library.model.Book;
+import com.joysis.library.model.BorrowedBook;
+import com.joysis.library.model.CatalogEntry;
+import com.joysis.library.model.CirculationOutcome;
+import com.joysis.library.model.Loan;
+import com.joysis.library.model.OverdueLoan;
+import com.joysis.library.render.RowRenderer;
+import com.joysis.library.util.JsonWriter;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Runs circulation commands from a script or stdin without prompts, for nightly jobs
+ * and for replaying a day's transactions. Every command runs on the same function
+ * objects and connection pool, one after the other.
+ *
+ * One command per line; arguments are separated by spaces and may be double-quoted
+ * ("\" inside quotes for a literal quote). Blank lines and lines starting with # are
+ * skipped.
+ *   borrow <bookId>[,<bookId>...] <borrower> <days>
+ *   return <bookId>[,<bookId>...]
+ *   search <keyword...>
+ *   book <bookId>
+ *   add <title> <author> <year> <isbn>
+ *   borrower <name>
+ *   overdue
+ *
+ * Each command writes one JSON object on its own line to the output stream, with "ok"
+ * and either its result or an "error". The usual console messages of the function
+ * classes go to stderr. A summary line with the counts and throughput comes last.
+ */
+public class ScriptRunner {
+
+    private final BookFunction bookFunction;
+    private final BorrowerFunction borrowerFunction;
+    private final PrintStream out;
+    private final LastLineStream chatter = new LastLineStream(System.err);
+    private final Map<String, int[]> counts = new TreeMap<>(); // command -> {succeeded, failed}
+    private String failure; // Set by a command that knows better than the last console line why it failed
+
+    public ScriptRunner(BookFunction bookFunction, BorrowerFunction borrowerFunction, PrintStream out) {
+        this.bookFunction = bookFunction;
+        this.borrowerFunction = borrowerFunction;
+        this.out = out;
+    }
+
+    /**
+     * Runs every command in the reader. System.out is sent to stderr while it runs.
+     *
+     * @return the number of commands that failed
+     */
+    public int run(BufferedReader reader) throws IOException {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(chatter, true));
+        long start = System.nanoTime();
+        int commands = 0;
+        int failed = 0;
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                commands++;
+                if (!execute(lineNumber, trimmed)) {
+                    failed++;
+                }
+            }
+        } finally {
+            System.out.flush();
+            System.setOut(console);
+        }
+        writeSummary(commands, failed, System.nanoTime() - start);
+        return failed;
+    }
+
+    // Runs one command and writes its result line; returns whether it succeeded
+    private boolean execute(int lineNumber, String line) {
+        long start = System.nanoTime();
+        chatter.clearLastLine();
+        failure = null;
+        JsonWriter json = new JsonWriter().beginObject().name("line").value(lineNumber);
+        String command = "?";
+        boolean ok;
+        String error = null;
+        try {
+            List<String> args = tokenize(line);
+            command = args.get(0).toLowerCase();
+            json.name("command").value(command);
+            ok = dispatch(command, args.subList(1, args.size()), json);
+            if (!ok) {
+                error = failure != null ? failure : chatter.getLastLine();
+            }
+        } catch (IllegalArgumentException e) {
+            ok = false;
+            error = e.getMessage();
+        } catch (RuntimeException e) {
+            ok = false;
+            error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+
+        json.name("ok").value(ok);
+        if (!ok) {
+            json.name("error").value(error != null ? error : command + " failed");
+        }
+        json.name("ms").value((System.nanoTime() - start) / 1_000_000.0);
+        out.println(json.endObject().toString());
+
+        int[] tally = counts.computeIfAbsent(command, c -> new int[2]);
+        tally[ok ? 0 : 1]++;
+        return ok;
+    }
+
+    // Runs the command, writing its result members into json; false if it did not succeed
+    private boolean dispatch(String command, List<String> args, JsonWriter json) {
+        switch (command) {
+            case "borrow": {
+                expectArgs(args, 3, "borrow <bookId>[,<bookId>...] <borrower> <days>");
+                BatchCirculationResult result = borrowerFunction.borrowBooks(parseIds(args.get(0)), args.get(1),
+                                                                             parseInt(args.get(2), "days"));
+                return writeOutcomes(json, result);
+            }
+            case "return": {
+                expectArgs(args, 1, "return <bookId>[,<bookId>...]");
+                BatchCirculationResult result = borrowerFunction.returnBooks(parseIds(args.get(0)));
+                boolean ok = writeOutcomes(json, result);
+                json.name("totalFines").value(result.getTotalFines());
+                return ok;
+            }
+            case "search": {
+                if (args.isEmpty()) {
+                    throw new IllegalArgumentException("Usage: search <keyword...>");
+                }
+                List<CatalogEntry> entries = bookFunction.searchBooks(String.join(" ", args));
+                if (entries == null) {
+                    return false;
+                }
+                json.name("books").beginArray();
+                for (CatalogEntry entry : entries) {
+                    writeBook(json, entry.getBook());
+                }
+                json.endArray();
+                return true;
+            }
+            case "book": {
+                expectArgs(args, 1, "book <bookId>");
+                Book book = bookFunction.getBookDetailsById(parseInt(args.get(0), "book ID"));
+                if (book == null) {
+                    throw new IllegalArgumentException("Book with ID " + args.get(0) + " not found.");
+                }
+                json.name("book");
+                writeBook(json, book);
+                return true;
+            }
+            case "add": {
+                expectArgs(args, 4, "add <title> <author> <year> <isbn>");
+                return bookFunction.addBook(args.get(0), args.get(1), parseInt(args.get(2), "year"), args.get(3));
+            }
+            case "borrower": {
+                expectArgs(args, 1, "borrower <name>");
+                List<BorrowedBook> loans = borrowerFunction.getLoansForBorrower(args.get(0));
+                if (loans == null) {
+                    return false;
+                }
+                double total = 0.0;
+                json.name("loans").beginArray();
+                for (BorrowedBook borrowed : loans) {
+                    Loan loan = borrowed.getLoan();
+                    json.beginObject()
+                        .name("loanId").value(loan.getId())
+                        .name("bookId").value(loan.getBookId())
+                        .name("title").value(borrowed.getTitle())
+                        .name("dueDate").value(RowRenderer.formatDateTime(loan.getScheduledReturn()))
+                        .name("fine").value(borrowed.getFine())
+                        .endObject();
+                    total += borrowed.getFine();
+                }
+                json.endArray().name("totalFines").value(total);
+                return true;
+            }
+            case "overdue": {
+                expectArgs(args, 0, "overdue");
+                json.name("loans").beginArray();
+                for (OverdueLoan overdue : borrowerFunction.getOverdueLoans()) {
+                    json.beginObject()
+                        .name("loanId").value(overdue.getLoan().getId())
+                        .name("bookId").value(overdue.getLoan().getBookId())
+                        .name("borrower").value(overdue.getLoan().getBorrowerName())
+                        .name("daysOverdue").value(overdue.getDaysOverdue())
+                        .name("fine").value(overdue.getFine())
+                        .endObject();
+                }
+                json.endArray().name("totalFines").value(borrowerFunction.getTotalOutstandingFines());
+                return true;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown command '" + command + "'.");
+        }
+    }
+
+    // Writes one entry per book; false (with the failures counted) if any book failed
+    private boolean writeOutcomes(JsonWriter json, BatchCirculationResult result) {
+        json.name("books").beginArray();
+        for (CirculationOutcome outcome : result.getOutcomes()) {
+            json.beginObject()
+                .name("bookId").value(outcome.getBookId())
+                .name("ok").value(outcome.isSucceeded())
+                .name("message").value(outcome.getMessage());
+            if (outcome.getFine() > 0) {
+                json.name("fine").value(outcome.getFine());
+            }
+            json.endObject();
+        }
+        json.endArray();
+        if (result.getFailedCount() == 0) {
+            return true;
+        }
+        failure = result.getFailedCount() + " of " + result.getOutcomes().size() + " book(s) failed";
+        return false;
+    }
+
+    private static void writeBook(JsonWriter json, Book book) {
+        json.beginObject()
+            .name("id").value(book.getId())
+            .name("title").value(book.getTitle())
+            .name("author").value(book.getAuthor())
+            .name("year").value(book.getYear())
+            .name("isbn").value(book.getIsbn())
+            .name("status").value(book.isBorrowed() ? "Borrowed" : "Available")
+            .endObject();
+    }
+
+    private void writeSummary(int commands, int failed, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        JsonWriter json = new JsonWriter().beginObject()
+            .name("summary").value(true)
+            .name("commands").value(commands)
+            .name("succeeded").value(commands - failed)
+            .name("failed").value(failed)
+            .name("elapsedMs").value(elapsedNanos / 1_000_000.0)
+            .name("commandsPerSecond").value(seconds > 0 ? commands / seconds : 0.0)
+            .name("byCommand").beginObject();
+        for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+            json.name(entry.getKey()).beginObject()
+                .name("succeeded").value(entry.getValue()[0])
+                .name("failed").value(entry.getValue()[1])
+                .endObject();
+        }
+        out.println(json.endObject().endObject().toString());
+        out.flush();
+    }
+
+    private static void expectArgs(List<String> args, int count, String usage) {
+        if (args.size() != count) {
+            throw new IllegalArgumentException("Usage: " + usage);
+        }
+    }
+
+    private static List<Integer> parseIds(String text) {
+        List<Integer> ids = new ArrayList<>();
+        for (String part : text.split(",")) {
+            if (!part.trim().isEmpty()) {
+                ids.add(parseInt(part, "book ID"));
+            }
+        }
+        if (ids.isEmpty()) {
+            throw new IllegalArgumentException("No book IDs given.");
+        }
+        return ids;
+    }
+
+    private static int parseInt(String text, String what) {
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + what + " '" + text + "'.");
+        }
+    }
+
+    /**
+     * Splits a command line on spaces, keeping double-quoted arguments together.
+     */
+    static List<String> tokenize(String line) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        boolean quoted = false;
+        boolean inToken = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '\\' && i + 1 < line.length()) {
+                    token.append(line.charAt(++i));
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    token.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+                inToken = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inToken) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                    inToken = false;
+                }
+            } else {
+                token.append(c);
+                inToken = true;
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unclosed quote.");
+        }
+        if (inToken) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    // Passes console output through to stderr and remembers the last line, for error messages
+    private static final class LastLineStream extends OutputStream {
+        private final PrintStream target;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private String lastLine;
+
+        LastLineStream(PrintStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) {
+            target.write(b);
+            if (b == '\n') {
+                String text = new String(line.toByteArray(), Charset.defaultCharset()).trim();
+                if (!text.isEmpty()) {
+                    lastLine = text;
+                }
+                line.reset();
+            } else if (b != '\r') {
+                line.write(b);
+            }
+        }
+
+        @Override
+        public void flush() {
+            target.flush();
+        }
+
+        String getLastLine() {
+            return lastLine;
+        }
+
+        void clearLastLine() {
+            lastLine = null;
+            line.reset();
+        }
+    }
+}
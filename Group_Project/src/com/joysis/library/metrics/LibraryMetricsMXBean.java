@@ -0,0 +1,19 @@
+package com.joysis.library.metrics;
+
+import java.util.List;
+
+/**
+ * JMX view of {@link Metrics}, registered as com.joysis.library:type=Metrics.
+ */
+public interface LibraryMetricsMXBean {
+
+    // Function-class operations (and HTTP endpoints in server mode), slowest mean first
+    List<OperationSnapshot> getOperations();
+
+    // Individual SQL statements, slowest mean first
+    List<OperationSnapshot> getSqlStatements();
+
+    String getTextDump();
+
+    void reset();
+}
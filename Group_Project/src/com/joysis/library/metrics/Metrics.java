@@ -0,0 +1,225 @@
+package com.joysis.library.metrics;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide registry of operation and SQL statement timings.
+ *
+ * The function classes wrap each public operation in {@link #time} or {@link #run}.
+ * The connection pool reports every statement execution through {@link #recordSql};
+ * a failed statement also marks the operation that issued it as failed, since the
+ * function classes catch SQLExceptions and return false or null instead of throwing.
+ */
+public final class Metrics {
+
+    public static final String OBJECT_NAME = "com.joysis.library:type=Metrics";
+    private static final int MAX_SQL_KEY_LENGTH = 200;
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static final ConcurrentMap<String, OperationStats> OPERATIONS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, OperationStats> SQL_STATEMENTS = new ConcurrentHashMap<>();
+    // The operation running on this thread, so a failed statement can be charged to it
+    private static final ThreadLocal<CallContext> CURRENT = new ThreadLocal<>();
+
+    private static ScheduledExecutorService dumper;
+
+    private Metrics() {
+    }
+
+    // Stats for an operation, created on first use
+    public static OperationStats operation(String name) {
+        return OPERATIONS.computeIfAbsent(name, OperationStats::new);
+    }
+
+    // Times an operation that returns a value
+    public static <T> T time(String operation, Supplier<T> work) {
+        CallContext context = new CallContext(operation, CURRENT.get());
+        CURRENT.set(context);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = work.get();
+            failed = false;
+            return result;
+        } finally {
+            finish(operation, context, start, failed);
+        }
+    }
+
+    // Times an operation with no return value
+    public static void run(String operation, Runnable work) {
+        time(operation, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    // Called by the connection pool after each statement execution
+    public static void recordSql(String sql, long elapsedNanos, boolean failed) {
+        String key = sql.length() > MAX_SQL_KEY_LENGTH ? sql.substring(0, MAX_SQL_KEY_LENGTH) + "..." : sql;
+        SQL_STATEMENTS.computeIfAbsent(key, OperationStats::new).record(elapsedNanos, failed);
+        CallContext context = CURRENT.get();
+        if (failed && context != null) {
+            context.failed = true;
+        }
+    }
+
+    // Name of the innermost operation running on this thread, or null outside one
+    public static String currentOperation() {
+        CallContext context = CURRENT.get();
+        return context == null ? null : context.operation;
+    }
+
+    public static List<OperationSnapshot> getOperations() {
+        return snapshots(OPERATIONS);
+    }
+
+    public static List<OperationSnapshot> getSqlStatements() {
+        return snapshots(SQL_STATEMENTS);
+    }
+
+    public static void reset() {
+        for (OperationStats stats : OPERATIONS.values()) {
+            stats.reset();
+        }
+        SQL_STATEMENTS.clear();
+    }
+
+    // Human-readable table of everything recorded so far
+    public static String dump() {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        out.println("=== Library metrics at " + LocalDateTime.now().format(TIMESTAMP_FORMAT) + " ===");
+        out.println("--- Operations ---");
+        for (OperationSnapshot snapshot : getOperations()) {
+            out.println(snapshot);
+        }
+        out.println("--- SQL statements ---");
+        for (OperationSnapshot snapshot : getSqlStatements()) {
+            out.println(snapshot);
+        }
+        out.flush();
+        return text.toString();
+    }
+
+    /**
+     * Registers the metrics MXBean with the platform MBean server so JConsole or
+     * VisualVM can read it. Safe to call more than once.
+     */
+    public static void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MBean(), name);
+            }
+        } catch (JMException e) {
+            System.out.println("Could not register metrics with JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Appends {@link #dump()} to the given file every intervalSeconds on a daemon thread.
+     * A file is used rather than the console so the dump does not land in the menus.
+     */
+    public static synchronized void startPeriodicDump(Path file, long intervalSeconds) {
+        if (dumper != null) {
+            return;
+        }
+        dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> {
+            try {
+                Files.write(file, dump().getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                System.err.println("Could not write metrics to " + file + ": " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public static synchronized void stopPeriodicDump() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+        }
+    }
+
+    private static void finish(String operation, CallContext context, long start, boolean failed) {
+        long elapsed = System.nanoTime() - start;
+        CURRENT.set(context.outer);
+        boolean anyFailure = failed || context.failed;
+        if (anyFailure && context.outer != null) {
+            context.outer.failed = true; // A nested operation failing fails the caller too
+        }
+        operation(operation).record(elapsed, anyFailure);
+    }
+
+    private static List<OperationSnapshot> snapshots(ConcurrentMap<String, OperationStats> registry) {
+        List<OperationSnapshot> result = new ArrayList<>(registry.size());
+        for (OperationStats stats : registry.values()) {
+            if (stats.getCalls() > 0) {
+                result.add(stats.snapshot());
+            }
+        }
+        result.sort(Comparator.comparingDouble(OperationSnapshot::getMeanMillis).reversed());
+        return result;
+    }
+
+    private static final class CallContext {
+        final String operation;
+        final CallContext outer;
+        boolean failed;
+
+        CallContext(String operation, CallContext outer) {
+            this.operation = operation;
+            this.outer = outer;
+        }
+    }
+
+    private static final class MBean implements LibraryMetricsMXBean {
+        @Override
+        public List<OperationSnapshot> getOperations() {
+            return Metrics.getOperations();
+        }
+
+        @Override
+        public List<OperationSnapshot> getSqlStatements() {
+            return Metrics.getSqlStatements();
+        }
+
+        @Override
+        public String getTextDump() {
+            return Metrics.dump();
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+}
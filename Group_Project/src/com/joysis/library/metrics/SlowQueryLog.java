@@ -0,0 +1,128 @@
+package com.joysis.library.metrics;
+
+import com.joysis.library.util.DataFiles;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Writes statements that took longer than a threshold to a rotating log file, one
+ * JSON object per line (see {@link SqlTrace#toJson(boolean)} for the fields). Only the
+ * statement's own time counts against the threshold: opening a pooled connection is
+ * logged as connectMs but can make a statement slow on its own, e.g. on a cold start.
+ *
+ * Configured with system properties:
+ *   library.slowquery.ms     threshold in milliseconds, default 500; a negative value turns tracing off
+ *   library.slowquery.file   java.util.logging file pattern, default logs/slow-queries.%g.jsonl;
+ *                            relative patterns are resolved against the data directory (see DataFiles)
+ *   library.slowquery.bytes  size at which the file is rotated, default 10 MB
+ *   library.slowquery.files  rotated files kept, default 5
+ *   library.slowquery.values true to log bound parameter values; by default only their
+ *                            types and lengths are logged, since statements such as the
+ *                            login and register queries bind plaintext passwords
+ */
+public final class SlowQueryLog {
+
+    private static final String DEFAULT_FILE = "logs/slow-queries.%g.jsonl";
+    private static final long DEFAULT_THRESHOLD_MS = 500;
+    private static final int DEFAULT_MAX_BYTES = 10 * 1024 * 1024;
+    private static final int DEFAULT_FILE_COUNT = 5;
+
+    private static final SlowQueryLog DISABLED = new SlowQueryLog(-1, null, 0, 0, false);
+
+    private final long thresholdNanos;
+    private final String filePattern;
+    private final int maxBytes;
+    private final int fileCount;
+    private final boolean logValues;
+    private Logger logger; // Opened on the first slow statement, so a fast run creates no file
+    private boolean unavailable;
+
+    public SlowQueryLog(long thresholdMs, String filePattern, int maxBytes, int fileCount, boolean logValues) {
+        this.thresholdNanos = thresholdMs < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(thresholdMs);
+        this.filePattern = filePattern;
+        this.maxBytes = maxBytes;
+        this.fileCount = fileCount;
+        this.logValues = logValues;
+    }
+
+    public static SlowQueryLog disabled() {
+        return DISABLED;
+    }
+
+    public static SlowQueryLog fromSystemProperties() {
+        try {
+            long thresholdMs = Long.parseLong(System.getProperty("library.slowquery.ms", String.valueOf(DEFAULT_THRESHOLD_MS)));
+            int maxBytes = Integer.parseInt(System.getProperty("library.slowquery.bytes", String.valueOf(DEFAULT_MAX_BYTES)));
+            int fileCount = Integer.parseInt(System.getProperty("library.slowquery.files", String.valueOf(DEFAULT_FILE_COUNT)));
+            String file = System.getProperty("library.slowquery.file", DEFAULT_FILE);
+            return new SlowQueryLog(thresholdMs, new File(file).isAbsolute() ? file : DataFiles.path(file),
+                                    maxBytes, Math.max(1, fileCount), Boolean.getBoolean("library.slowquery.values"));
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid slow query log setting: " + e.getMessage() + ". Slow query logging is off.");
+            return DISABLED;
+        }
+    }
+
+    // False when tracing is off, so the statement wrapper can skip collecting parameters
+    public boolean isEnabled() {
+        return thresholdNanos >= 0;
+    }
+
+    // Logs the trace if it was slow or failed
+    public void record(SqlTrace trace) {
+        if (!isEnabled() || (trace.getStatementNanos() < thresholdNanos && !trace.isFailed())) {
+            return;
+        }
+        Logger target = logger();
+        if (target != null) {
+            target.log(trace.isFailed() ? Level.WARNING : Level.INFO, trace.toJson(logValues));
+        }
+    }
+
+    public synchronized void close() {
+        if (logger != null) {
+            for (Handler handler : logger.getHandlers()) {
+                handler.close();
+                logger.removeHandler(handler);
+            }
+            logger = null;
+        }
+    }
+
+    private synchronized Logger logger() {
+        if (logger != null || unavailable) {
+            return logger;
+        }
+        try {
+            File parent = new File(filePattern).getAbsoluteFile().getParentFile();
+            if (parent != null) {
+                parent.mkdirs(); // FileHandler will not create missing folders
+            }
+            FileHandler handler = new FileHandler(filePattern, maxBytes, fileCount, true);
+            handler.setFormatter(new JsonLineFormatter());
+            Logger created = Logger.getAnonymousLogger();
+            created.setUseParentHandlers(false); // Keep the JSON lines off the console
+            created.addHandler(handler);
+            logger = created;
+        } catch (IOException | SecurityException e) {
+            System.out.println("Could not open the slow query log " + filePattern + ": " + e.getMessage());
+            unavailable = true;
+        }
+        return logger;
+    }
+
+    // The message is already a JSON object; write it as one line
+    private static final class JsonLineFormatter extends Formatter {
+        @Override
+        public String format(LogRecord record) {
+            return record.getMessage() + System.lineSeparator();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.joysis.library.metrics;
+
+import com.joysis.library.util.JsonWriter;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timing of one statement execution, from borrowing the connection to reading the
+ * last row. Filled in by the connection pool's statement wrapper and written to the
+ * {@link SlowQueryLog} when it crosses the threshold. Used by one thread at a time.
+ */
+public final class SqlTrace {
+
+    private static final int MAX_PARAMETER_LENGTH = 100;
+
+    private final String sql;
+    private final String operation;
+    private final List<Object> parameters;
+    private final int batchSize;
+    private final long connectNanos;
+    private final long executeNanos;
+    private long fetchNanos;
+    private long rows;
+    private String error;
+
+    /**
+     * @param parameters bound values by position (index 0 is parameter 1), from the last
+     *                   row of a batch
+     * @param connectNanos time spent getting the connection, or 0 when it was already
+     *                     charged to an earlier statement on the same connection
+     * @param rows update count, or -1 until rows are fetched from a result set
+     */
+    public SqlTrace(String sql, List<Object> parameters, int batchSize, long connectNanos, long executeNanos, long rows) {
+        this.sql = sql;
+        this.operation = Metrics.currentOperation();
+        this.parameters = new ArrayList<>(parameters);
+        this.batchSize = batchSize;
+        this.connectNanos = connectNanos;
+        this.executeNanos = executeNanos;
+        this.rows = rows;
+    }
+
+    // Called for each ResultSet.next(); the time the driver spends producing rows
+    public void recordFetch(long nanos, boolean gotRow) {
+        fetchNanos += nanos;
+        if (gotRow) {
+            rows = Math.max(rows, 0) + 1;
+        }
+    }
+
+    public void fail(Throwable cause) {
+        error = cause.getClass().getSimpleName() + ": " + cause.getMessage();
+    }
+
+    // Executing and fetching, without the time to get the connection
+    public long getStatementNanos() {
+        return executeNanos + fetchNanos;
+    }
+
+    public boolean isFailed() {
+        return error != null;
+    }
+
+    /**
+     * One JSON object per trace, so the log can be loaded by jq or any JSON-lines tool.
+     * Without includeValues each parameter is written as its type (and length for text),
+     * e.g. "String(8)", so no bound password or borrower name reaches the file.
+     */
+    public String toJson(boolean includeValues) {
+        JsonWriter json = new JsonWriter().beginObject()
+            .name("time").value(Instant.now().toString())
+            .name("thread").value(Thread.currentThread().getName())
+            .name("operation").value(operation)
+            .name("sql").value(sql)
+            .name("parameters").beginArray();
+        for (Object parameter : parameters) {
+            if (parameter == null) {
+                json.nullValue();
+            } else if (!includeValues) {
+                json.value(describe(parameter));
+            } else if (parameter instanceof Integer || parameter instanceof Long || parameter instanceof Short) {
+                json.value(((Number) parameter).longValue());
+            } else {
+                String text = String.valueOf(parameter);
+                json.value(text.length() > MAX_PARAMETER_LENGTH ? text.substring(0, MAX_PARAMETER_LENGTH) + "..." : text);
+            }
+        }
+        json.endArray()
+            .name("batchSize").value(batchSize)
+            .name("rows").value(rows)
+            .name("connectMs").value(millis(connectNanos))
+            .name("executeMs").value(millis(executeNanos))
+            .name("fetchMs").value(millis(fetchNanos))
+            .name("statementMs").value(millis(getStatementNanos()))
+            .name("error").value(error);
+        return json.endObject().toString();
+    }
+
+    // Type and, for text and bytes, length of a bound value
+    private static String describe(Object parameter) {
+        String type = parameter.getClass().getSimpleName();
+        if (parameter instanceof CharSequence) {
+            return type + "(" + ((CharSequence) parameter).length() + ")";
+        }
+        if (parameter instanceof byte[]) {
+            return "byte[" + ((byte[]) parameter).length + "]";
+        }
+        return type;
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1_000.0) / 1_000.0;
+    }
+}
@@ -0,0 +1,71 @@
+package com.joysis.library.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of checking booklist.status against the active loans in borrower_list.
+ */
+public final class AvailabilityReport {
+
+    private final int bookCount;
+    private final int availableCount;
+    private final int borrowedCount;
+    private final List<Integer> statusWithoutLoan;
+    private final List<Integer> loanWithoutStatus;
+    private final List<Integer> corrected;
+
+    public AvailabilityReport(int bookCount, int availableCount, int borrowedCount,
+                              List<Integer> statusWithoutLoan, List<Integer> loanWithoutStatus, List<Integer> corrected) {
+        this.bookCount = bookCount;
+        this.availableCount = availableCount;
+        this.borrowedCount = borrowedCount;
+        this.statusWithoutLoan = Collections.unmodifiableList(statusWithoutLoan);
+        this.loanWithoutStatus = Collections.unmodifiableList(loanWithoutStatus);
+        this.corrected = Collections.unmodifiableList(corrected);
+    }
+
+    public int getBookCount() {
+        return bookCount;
+    }
+
+    public int getAvailableCount() {
+        return availableCount;
+    }
+
+    // Books with an active loan
+    public int getBorrowedCount() {
+        return borrowedCount;
+    }
+
+    // Books marked borrowed that have no active loan
+    public List<Integer> getStatusWithoutLoan() {
+        return statusWithoutLoan;
+    }
+
+    // Books with an active loan that are marked available
+    public List<Integer> getLoanWithoutStatus() {
+        return loanWithoutStatus;
+    }
+
+    public boolean isConsistent() {
+        return statusWithoutLoan.isEmpty() && loanWithoutStatus.isEmpty();
+    }
+
+    // Books whose status was corrected to match their loans; empty unless a repair was asked for
+    public List<Integer> getCorrected() {
+        return corrected;
+    }
+
+    public boolean isRepaired() {
+        return !corrected.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return bookCount + " books, " + availableCount + " available, " + borrowedCount + " borrowed; "
+               + statusWithoutLoan.size() + " marked borrowed without a loan, "
+               + loanWithoutStatus.size() + " on loan but marked available"
+               + (isRepaired() ? " (" + corrected.size() + " corrected)" : "");
+    }
+}
@@ -0,0 +1,44 @@
+package com.joysis.library.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Per-book outcomes of a batch borrow or return, in the order the books were given.
+ */
+public final class BatchCirculationResult {
+
+    private final List<CirculationOutcome> outcomes;
+    private final int succeededCount;
+    private final double totalFines;
+
+    public BatchCirculationResult(List<CirculationOutcome> outcomes) {
+        this.outcomes = Collections.unmodifiableList(outcomes);
+        int succeeded = 0;
+        double fines = 0.0;
+        for (CirculationOutcome outcome : outcomes) {
+            if (outcome.isSucceeded()) {
+                succeeded++;
+            }
+            fines += outcome.getFine();
+        }
+        this.succeededCount = succeeded;
+        this.totalFines = fines;
+    }
+
+    public List<CirculationOutcome> getOutcomes() {
+        return outcomes;
+    }
+
+    public int getSucceededCount() {
+        return succeededCount;
+    }
+
+    public int getFailedCount() {
+        return outcomes.size() - succeededCount;
+    }
+
+    public double getTotalFines() {
+        return totalFines;
+    }
+}
@@ -0,0 +1,77 @@
+package com.joysis.library.model;
+
+/**
+ * A row of the booklist table.
+ */
+public final class Book {
+
+    public static final int STATUS_AVAILABLE = 0;
+    public static final int STATUS_BORROWED = 1;
+
+    private final int id;
+    private final String title;
+    private final String author;
+    private final int year;
+    private final String isbn;
+    private final int status;
+    private final int version;
+
+    public Book(int id, String title, String author, int year, String isbn, int status, int version) {
+        this.id = id;
+        this.title = title;
+        this.author = author;
+        this.year = year;
+        this.isbn = isbn;
+        this.status = status;
+        this.version = version;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public int getYear() {
+        return year;
+    }
+
+    public String getIsbn() {
+        return isbn;
+    }
+
+    // 0 = available, 1 = borrowed
+    public int getStatus() {
+        return status;
+    }
+
+    // Bumped by every write to the row; updates only apply to the version they were based on
+    public int getVersion() {
+        return version;
+    }
+
+    public boolean isAvailable() {
+        return status == STATUS_AVAILABLE;
+    }
+
+    public boolean isBorrowed() {
+        return status == STATUS_BORROWED;
+    }
+
+    // Same book with a different status and version
+    public Book withStatus(int newStatus, int newVersion) {
+        return newStatus == status && newVersion == version ? this : new Book(id, title, author, year, isbn, newStatus, newVersion);
+    }
+
+    @Override
+    public String toString() {
+        return "Book[id=" + id + ", title=" + title + ", author=" + author + ", year=" + year
+                + ", isbn=" + isbn + ", status=" + status + ", version=" + version + "]";
+    }
+}
@@ -0,0 +1,58 @@
+package com.joysis.library.model;
+
+/**
+ * Outcome of a conditional booklist write (updateBook, updateBookStatus).
+ *
+ * On CONFLICT the row changed after the caller read it; getCurrent() is the row as it
+ * is now, so the caller can show it, re-apply its change and retry with its version.
+ */
+public final class BookUpdateResult {
+
+    public enum Status {
+        UPDATED,
+        CONFLICT,
+        NOT_FOUND,
+        FAILED
+    }
+
+    private final Status status;
+    private final Book current;
+
+    private BookUpdateResult(Status status, Book current) {
+        this.status = status;
+        this.current = current;
+    }
+
+    public static BookUpdateResult updated(Book book) {
+        return new BookUpdateResult(Status.UPDATED, book);
+    }
+
+    public static BookUpdateResult conflict(Book current) {
+        return new BookUpdateResult(Status.CONFLICT, current);
+    }
+
+    public static BookUpdateResult notFound() {
+        return new BookUpdateResult(Status.NOT_FOUND, null);
+    }
+
+    public static BookUpdateResult failed() {
+        return new BookUpdateResult(Status.FAILED, null);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isUpdated() {
+        return status == Status.UPDATED;
+    }
+
+    public boolean isConflict() {
+        return status == Status.CONFLICT;
+    }
+
+    // The row after the write (UPDATED) or as another writer left it (CONFLICT); null otherwise
+    public Book getCurrent() {
+        return current;
+    }
+}
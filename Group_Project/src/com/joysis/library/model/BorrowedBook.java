@@ -0,0 +1,30 @@
+package com.joysis.library.model;
+
+/**
+ * A book that is out on loan: the active loan, the book's title and the fine it has
+ * built up so far (0 while it is not overdue).
+ */
+public final class BorrowedBook {
+
+    private final Loan loan;
+    private final String title;
+    private final double fine;
+
+    public BorrowedBook(Loan loan, String title, double fine) {
+        this.loan = loan;
+        this.title = title;
+        this.fine = fine;
+    }
+
+    public Loan getLoan() {
+        return loan;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public double getFine() {
+        return fine;
+    }
+}
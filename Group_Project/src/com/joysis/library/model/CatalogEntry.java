@@ -0,0 +1,28 @@
+package com.joysis.library.model;
+
+/**
+ * One row of the catalog listing: a book plus its active loan, if any.
+ */
+public final class CatalogEntry {
+
+    private final Book book;
+    private final Loan activeLoan;
+
+    public CatalogEntry(Book book, Loan activeLoan) {
+        this.book = book;
+        this.activeLoan = activeLoan;
+    }
+
+    public Book getBook() {
+        return book;
+    }
+
+    // Null when the book is available or no active borrowing record was found
+    public Loan getActiveLoan() {
+        return activeLoan;
+    }
+
+    public boolean isBorrowed() {
+        return book.isBorrowed();
+    }
+}
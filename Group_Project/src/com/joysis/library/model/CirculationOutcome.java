@@ -0,0 +1,36 @@
+package com.joysis.library.model;
+
+/**
+ * What happened to one book in a batch borrow or return.
+ */
+public final class CirculationOutcome {
+
+    private final int bookId;
+    private final boolean succeeded;
+    private final String message;
+    private final double fine;
+
+    public CirculationOutcome(int bookId, boolean succeeded, String message, double fine) {
+        this.bookId = bookId;
+        this.succeeded = succeeded;
+        this.message = message;
+        this.fine = fine;
+    }
+
+    public int getBookId() {
+        return bookId;
+    }
+
+    public boolean isSucceeded() {
+        return succeeded;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    // Overdue fine charged on return; always 0 for borrows and failures
+    public double getFine() {
+        return fine;
+    }
+}
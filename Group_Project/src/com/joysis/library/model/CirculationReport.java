@@ -0,0 +1,89 @@
+package com.joysis.library.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Circulation statistics as of one moment, read from the counters kept by
+ * CirculationStats. Rates and averages are over returned loans only.
+ */
+public final class CirculationReport {
+
+    private final long totalLoans;
+    private final long returnedLoans;
+    private final long overdueReturns;
+    private final double averageLoanDays;
+    private final double finesCollected;
+    private final List<LabelCount> loansPerDay;
+    private final List<LabelCount> loansPerMonth;
+    private final List<LabelCount> topTitles;
+    private final List<LabelCount> topAuthors;
+
+    public CirculationReport(long totalLoans, long returnedLoans, long overdueReturns, double averageLoanDays,
+                             double finesCollected, List<LabelCount> loansPerDay, List<LabelCount> loansPerMonth,
+                             List<LabelCount> topTitles, List<LabelCount> topAuthors) {
+        this.totalLoans = totalLoans;
+        this.returnedLoans = returnedLoans;
+        this.overdueReturns = overdueReturns;
+        this.averageLoanDays = averageLoanDays;
+        this.finesCollected = finesCollected;
+        this.loansPerDay = Collections.unmodifiableList(loansPerDay);
+        this.loansPerMonth = Collections.unmodifiableList(loansPerMonth);
+        this.topTitles = Collections.unmodifiableList(topTitles);
+        this.topAuthors = Collections.unmodifiableList(topAuthors);
+    }
+
+    // Every loan ever made, returned or not
+    public long getTotalLoans() {
+        return totalLoans;
+    }
+
+    public long getReturnedLoans() {
+        return returnedLoans;
+    }
+
+    // Loans returned on a later day than they were due
+    public long getOverdueReturns() {
+        return overdueReturns;
+    }
+
+    // Share of returned loans that came back late, 0 to 1
+    public double getOverdueRate() {
+        return returnedLoans == 0 ? 0.0 : (double) overdueReturns / returnedLoans;
+    }
+
+    public double getAverageLoanDays() {
+        return averageLoanDays;
+    }
+
+    // Fines charged on returned loans
+    public double getFinesCollected() {
+        return finesCollected;
+    }
+
+    // Oldest day first, days without loans included
+    public List<LabelCount> getLoansPerDay() {
+        return loansPerDay;
+    }
+
+    // Oldest month first, months without loans included
+    public List<LabelCount> getLoansPerMonth() {
+        return loansPerMonth;
+    }
+
+    // Most borrowed first
+    public List<LabelCount> getTopTitles() {
+        return topTitles;
+    }
+
+    // Most borrowed first
+    public List<LabelCount> getTopAuthors() {
+        return topAuthors;
+    }
+
+    @Override
+    public String toString() {
+        return totalLoans + " loans, " + returnedLoans + " returned, " + overdueReturns + " late; average "
+               + String.format("%.1f", averageLoanDays) + " days, fines collected $" + String.format("%.2f", finesCollected);
+    }
+}
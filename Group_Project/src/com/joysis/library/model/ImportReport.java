@@ -0,0 +1,57 @@
+package com.joysis.library.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a bulk book import.
+ */
+public final class ImportReport {
+
+    private final long rowsRead;
+    private final long rowsImported;
+    private final long rowsRejected;
+    private final long elapsedMillis;
+    private final List<String> rejectionSamples;
+
+    public ImportReport(long rowsRead, long rowsImported, long rowsRejected, long elapsedMillis,
+                        List<String> rejectionSamples) {
+        this.rowsRead = rowsRead;
+        this.rowsImported = rowsImported;
+        this.rowsRejected = rowsRejected;
+        this.elapsedMillis = elapsedMillis;
+        this.rejectionSamples = Collections.unmodifiableList(rejectionSamples);
+    }
+
+    // Data rows in the file, not counting the header
+    public long getRowsRead() {
+        return rowsRead;
+    }
+
+    public long getRowsImported() {
+        return rowsImported;
+    }
+
+    public long getRowsRejected() {
+        return rowsRejected;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public double getRowsPerSecond() {
+        return elapsedMillis == 0 ? rowsImported : rowsImported * 1000.0 / elapsedMillis;
+    }
+
+    // The first few rejected rows as "line N: reason"; getRowsRejected() has the full count
+    public List<String> getRejectionSamples() {
+        return rejectionSamples;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("read=%d, imported=%d, rejected=%d, elapsed=%.1fs, rate=%.0f rows/s",
+                rowsRead, rowsImported, rowsRejected, elapsedMillis / 1000.0, getRowsPerSecond());
+    }
+}
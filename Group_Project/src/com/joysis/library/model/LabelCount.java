@@ -0,0 +1,28 @@
+package com.joysis.library.model;
+
+/**
+ * A count with its label: a day, a month, a title or an author in the circulation report.
+ */
+public final class LabelCount {
+
+    private final String label;
+    private final long count;
+
+    public LabelCount(String label, long count) {
+        this.label = label;
+        this.count = count;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return label + "=" + count;
+    }
+}
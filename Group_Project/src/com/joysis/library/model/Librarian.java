@@ -0,0 +1,28 @@
+package com.joysis.library.model;
+
+/**
+ * A row of the user_credentials table. The password is deliberately not carried around.
+ */
+public final class Librarian {
+
+    private final int id;
+    private final String username;
+
+    public Librarian(int id, String username) {
+        this.id = id;
+        this.username = username;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public String toString() {
+        return "Librarian[id=" + id + ", username=" + username + "]";
+    }
+}
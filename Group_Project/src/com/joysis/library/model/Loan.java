@@ -0,0 +1,63 @@
+package com.joysis.library.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * A row of the borrower_list table: one book lent to one borrower.
+ */
+public final class Loan {
+
+    private final int id;
+    private final int bookId;
+    private final String borrowerName;
+    private final LocalDateTime timeIn;
+    private final LocalDateTime scheduledReturn;
+    private final LocalDateTime timeOut;
+
+    public Loan(int id, int bookId, String borrowerName, LocalDateTime timeIn,
+                LocalDateTime scheduledReturn, LocalDateTime timeOut) {
+        this.id = id;
+        this.bookId = bookId;
+        this.borrowerName = borrowerName;
+        this.timeIn = timeIn;
+        this.scheduledReturn = scheduledReturn;
+        this.timeOut = timeOut;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getBookId() {
+        return bookId;
+    }
+
+    public String getBorrowerName() {
+        return borrowerName;
+    }
+
+    // When the book was borrowed
+    public LocalDateTime getTimeIn() {
+        return timeIn;
+    }
+
+    // When the book is due back; may be null for old records
+    public LocalDateTime getScheduledReturn() {
+        return scheduledReturn;
+    }
+
+    // When the book was returned; null while the loan is still active
+    public LocalDateTime getTimeOut() {
+        return timeOut;
+    }
+
+    public boolean isActive() {
+        return timeOut == null;
+    }
+
+    @Override
+    public String toString() {
+        return "Loan[id=" + id + ", bookId=" + bookId + ", borrower=" + borrowerName + ", timeIn=" + timeIn
+                + ", scheduledReturn=" + scheduledReturn + ", timeOut=" + timeOut + "]";
+    }
+}
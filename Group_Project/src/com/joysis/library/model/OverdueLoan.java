@@ -0,0 +1,29 @@
+package com.joysis.library.model;
+
+/**
+ * An active loan that is past its due date, with the fine it has built up so far.
+ */
+public final class OverdueLoan {
+
+    private final Loan loan;
+    private final long daysOverdue;
+    private final double fine;
+
+    public OverdueLoan(Loan loan, long daysOverdue, double fine) {
+        this.loan = loan;
+        this.daysOverdue = daysOverdue;
+        this.fine = fine;
+    }
+
+    public Loan getLoan() {
+        return loan;
+    }
+
+    public long getDaysOverdue() {
+        return daysOverdue;
+    }
+
+    public double getFine() {
+        return fine;
+    }
+}
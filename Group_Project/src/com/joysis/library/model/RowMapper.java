@@ -0,0 +1,14 @@
+package com.joysis.library.model;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Turns the current row of a result set into an object.
+ *
+ * @param <T> the type of object produced for each row
+ */
+public interface RowMapper<T> {
+
+    T map(ResultSet result) throws SQLException;
+}
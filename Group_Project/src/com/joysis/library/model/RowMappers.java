@@ -0,0 +1,60 @@
+package com.joysis.library.model;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+/**
+ * The row mappers shared by every read path. Columns are read by label with their
+ * native JDBC types, so no value goes through a String on the way.
+ *
+ * Expected column labels:
+ * BOOK           id, title, author, year, isbn, status, version
+ * LOAN           id, book_id, borrower_name, time_in, scheduled_return, time_out
+ * LIBRARIAN      id, username
+ * CATALOG_ENTRY  the BOOK columns plus loan_id, borrower_name, time_in, scheduled_return
+ *                from a LEFT JOIN on the active loan (loan_id is NULL when there is none)
+ */
+public final class RowMappers {
+
+    public static final RowMapper<Book> BOOK = result -> new Book(
+            result.getInt("id"),
+            result.getString("title"),
+            result.getString("author"),
+            result.getInt("year"),
+            result.getString("isbn"),
+            result.getInt("status"),
+            result.getInt("version"));
+
+    public static final RowMapper<Loan> LOAN = result -> new Loan(
+            result.getInt("id"),
+            result.getInt("book_id"),
+            result.getString("borrower_name"),
+            toLocalDateTime(result.getTimestamp("time_in")),
+            toLocalDateTime(result.getTimestamp("scheduled_return")),
+            toLocalDateTime(result.getTimestamp("time_out")));
+
+    public static final RowMapper<Librarian> LIBRARIAN = result -> new Librarian(
+            result.getInt("id"),
+            result.getString("username"));
+
+    public static final RowMapper<CatalogEntry> CATALOG_ENTRY = result -> {
+        Book book = BOOK.map(result);
+        int loanId = result.getInt("loan_id");
+        Loan activeLoan = null;
+        if (!result.wasNull()) {
+            activeLoan = new Loan(loanId, book.getId(), result.getString("borrower_name"),
+                    toLocalDateTime(result.getTimestamp("time_in")),
+                    toLocalDateTime(result.getTimestamp("scheduled_return")), null);
+        }
+        return new CatalogEntry(book, activeLoan);
+    };
+
+    private RowMappers() {
+    }
+
+    public static LocalDateTime toLocalDateTime(Timestamp timestamp) {
+        return timestamp != null ? timestamp.toLocalDateTime() : null;
+    }
+}
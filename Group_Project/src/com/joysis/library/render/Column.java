@@ -0,0 +1,65 @@
+package com.joysis.library.render;
+
+import java.util.function.Function;
+
+/**
+ * One column of a listing. The value (a String, number, LocalDateTime or null) is
+ * what CSV and JSON get; the table can show different text, e.g. "No Fine" for 0.
+ *
+ * @param <T> the row type
+ */
+public final class Column<T> {
+
+    private final String key;
+    private final String header;
+    private final int width;
+    private final Function<T, Object> value;
+    private final Function<T, String> tableText;
+
+    private Column(String key, String header, int width, Function<T, Object> value, Function<T, String> tableText) {
+        this.key = key;
+        this.header = header;
+        this.width = width;
+        this.value = value;
+        this.tableText = tableText;
+    }
+
+    /**
+     * @param key    JSON member name and CSV header
+     * @param header table heading
+     * @param width  table column width; longer text is not cut off
+     */
+    public static <T> Column<T> of(String key, String header, int width, Function<T, Object> value) {
+        return new Column<>(key, header, width, value, null);
+    }
+
+    // Same column with its own text in the table
+    public Column<T> withTableText(Function<T, String> text) {
+        return new Column<>(key, header, width, value, text);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getHeader() {
+        return header;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    Object valueOf(T row) {
+        return value.apply(row);
+    }
+
+    // Text shown in the table; N/A when there is no value
+    String tableTextOf(T row) {
+        if (tableText != null) {
+            return tableText.apply(row);
+        }
+        Object cell = value.apply(row);
+        return cell == null ? "N/A" : RowRenderer.text(cell);
+    }
+}
@@ -0,0 +1,58 @@
+package com.joysis.library.render;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * RFC 4180 CSV with a header row of column keys. Fields containing a comma, quote or
+ * line break are quoted.
+ */
+final class CsvRenderer<T> extends RowRenderer<T> {
+
+    CsvRenderer(List<Column<T>> columns, Writer out) {
+        super(columns, out);
+    }
+
+    @Override
+    protected void writeBegin(String title) throws IOException {
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            writeField(columns.get(i).getKey());
+        }
+        out.write("\r\n");
+    }
+
+    @Override
+    protected void writeRow(T row, int index) throws IOException {
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            writeField(text(columns.get(i).valueOf(row)));
+        }
+        out.write("\r\n");
+    }
+
+    @Override
+    protected void writeEnd(String emptyMessage, String summary) {
+        // Nothing after the last row
+    }
+
+    private void writeField(String field) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < field.length() && !quote; i++) {
+            char c = field.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.write(field);
+            return;
+        }
+        out.write('"');
+        out.write(field.replace("\"", "\"\""));
+        out.write('"');
+    }
+}
@@ -0,0 +1,52 @@
+package com.joysis.library.render;
+
+import com.joysis.library.util.JsonWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * A JSON array with one object per row, one row per line. Numbers stay numbers,
+ * missing values are null and dates are "yyyy-MM-dd HH:mm" strings.
+ */
+final class JsonRenderer<T> extends RowRenderer<T> {
+
+    JsonRenderer(List<Column<T>> columns, Writer out) {
+        super(columns, out);
+    }
+
+    @Override
+    protected void writeBegin(String title) throws IOException {
+        out.write('[');
+    }
+
+    @Override
+    protected void writeRow(T row, int index) throws IOException {
+        out.write(index == 0 ? "\n" : ",\n");
+        JsonWriter json = new JsonWriter().beginObject();
+        for (Column<T> column : columns) {
+            json.name(column.getKey());
+            Object value = column.valueOf(row);
+            if (value == null) {
+                json.nullValue();
+            } else if (value instanceof Integer || value instanceof Long) {
+                json.value(((Number) value).longValue());
+            } else if (value instanceof Double) {
+                json.value(((Double) value).doubleValue());
+            } else if (value instanceof Boolean) {
+                json.value(((Boolean) value).booleanValue());
+            } else if (value instanceof LocalDateTime) {
+                json.value(text(value));
+            } else {
+                json.value(value.toString());
+            }
+        }
+        out.write(json.endObject().toString());
+    }
+
+    @Override
+    protected void writeEnd(String emptyMessage, String summary) throws IOException {
+        out.write(getRowCount() == 0 ? "]\n" : "\n]\n");
+    }
+}
@@ -0,0 +1,21 @@
+package com.joysis.library.render;
+
+/**
+ * How a listing is written: an aligned table for reading on screen, or CSV and JSON
+ * for spreadsheets and other tools.
+ */
+public enum OutputFormat {
+    TABLE,
+    CSV,
+    JSON;
+
+    // Parses "table", "csv" or "json" (any case)
+    public static OutputFormat fromName(String name) {
+        for (OutputFormat format : values()) {
+            if (format.name().equalsIgnoreCase(name.trim())) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown output format '" + name + "'. Use table, csv or json.");
+    }
+}
@@ -0,0 +1,162 @@
+package com.joysis.library.render;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes a listing row by row through a buffered writer, so rows are not printed
+ * one system call at a time and the data can be fetched before any of it is shown.
+ *
+ * Usage: begin(title), row(...) for each row, end(summary), then close(). The title,
+ * empty message and summary only appear in the table; CSV and JSON carry just the rows
+ * so they can be piped into other tools.
+ *
+ * @param <T> the row type
+ */
+public abstract class RowRenderer<T> implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    protected final List<Column<T>> columns;
+    protected final Writer out;
+    private int rowCount;
+
+    protected RowRenderer(List<Column<T>> columns, Writer out) {
+        this.columns = Collections.unmodifiableList(new ArrayList<>(columns));
+        this.out = out;
+    }
+
+    // Renders to standard output. Closing flushes but leaves System.out open.
+    public static <T> RowRenderer<T> toStdout(OutputFormat format, List<Column<T>> columns) {
+        Writer stdout = new FilterWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)) {
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        return create(format, columns, new BufferedWriter(stdout, BUFFER_SIZE));
+    }
+
+    // Renders to a UTF-8 file, replacing it if it exists
+    public static <T> RowRenderer<T> toFile(OutputFormat format, List<Column<T>> columns, String path) throws IOException {
+        Writer file = new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8);
+        return create(format, columns, new BufferedWriter(file, BUFFER_SIZE));
+    }
+
+    // Standard output when path is null or blank, otherwise the file
+    public static <T> RowRenderer<T> open(OutputFormat format, List<Column<T>> columns, String path) throws IOException {
+        if (path == null || path.trim().isEmpty()) {
+            return toStdout(format, columns);
+        }
+        return toFile(format, columns, path.trim());
+    }
+
+    public static <T> RowRenderer<T> create(OutputFormat format, List<Column<T>> columns, Writer out) {
+        switch (format) {
+            case CSV:
+                return new CsvRenderer<>(columns, out);
+            case JSON:
+                return new JsonRenderer<>(columns, out);
+            default:
+                return new TableRenderer<>(columns, out);
+        }
+    }
+
+    public final void begin(String title) {
+        try {
+            writeBegin(title);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public final void row(T row) {
+        try {
+            writeRow(row, rowCount++);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public final void rows(Iterable<? extends T> rows) {
+        for (T row : rows) {
+            row(row);
+        }
+    }
+
+    /**
+     * Finishes the listing.
+     *
+     * @param emptyMessage shown in the table when there were no rows
+     * @param summary      shown in the table after the rows, or null
+     */
+    public final void end(String emptyMessage, String summary) {
+        try {
+            writeEnd(rowCount == 0 ? emptyMessage : null, summary);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    protected abstract void writeBegin(String title) throws IOException;
+
+    protected abstract void writeRow(T row, int index) throws IOException;
+
+    protected abstract void writeEnd(String emptyMessage, String summary) throws IOException;
+
+    // Plain text for a cell value; dates use one shared formatter
+    static String text(Object value) {
+        if (value == null) {
+            return "";
+        }
+        if (value instanceof LocalDateTime) {
+            return DATE_TIME_FORMAT.format((LocalDateTime) value);
+        }
+        if (value instanceof Double || value instanceof Float) {
+            return twoDecimals(((Number) value).doubleValue());
+        }
+        return value.toString();
+    }
+
+    public static String formatDateTime(LocalDateTime dateTime) {
+        return DATE_TIME_FORMAT.format(dateTime);
+    }
+
+    // Formats an amount with two decimals without going through String.format
+    public static String twoDecimals(double amount) {
+        long cents = Math.round(Math.abs(amount) * 100);
+        StringBuilder text = new StringBuilder(12);
+        if (amount < 0 && cents != 0) {
+            text.append('-');
+        }
+        text.append(cents / 100).append('.');
+        long fraction = cents % 100;
+        if (fraction < 10) {
+            text.append('0');
+        }
+        return text.append(fraction).toString();
+    }
+}
@@ -0,0 +1,73 @@
+package com.joysis.library.render;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Left-aligned columns padded to their widths, the same layout the menus always used.
+ */
+final class TableRenderer<T> extends RowRenderer<T> {
+
+    private final String separator;
+
+    TableRenderer(List<Column<T>> columns, Writer out) {
+        super(columns, out);
+        int width = 0;
+        for (Column<T> column : columns) {
+            width += column.getWidth() + 1;
+        }
+        StringBuilder line = new StringBuilder(width);
+        for (int i = 0; i < width; i++) {
+            line.append('-');
+        }
+        this.separator = line.toString();
+    }
+
+    @Override
+    protected void writeBegin(String title) throws IOException {
+        out.write("\n--- " + title + " ---\n");
+        for (int i = 0; i < columns.size(); i++) {
+            writeCell(columns.get(i).getHeader(), columns.get(i).getWidth(), i == columns.size() - 1);
+        }
+        out.write('\n');
+        out.write(separator);
+        out.write('\n');
+    }
+
+    @Override
+    protected void writeRow(T row, int index) throws IOException {
+        for (int i = 0; i < columns.size(); i++) {
+            Column<T> column = columns.get(i);
+            writeCell(column.tableTextOf(row), column.getWidth(), i == columns.size() - 1);
+        }
+        out.write('\n');
+    }
+
+    @Override
+    protected void writeEnd(String emptyMessage, String summary) throws IOException {
+        if (emptyMessage != null) {
+            out.write(emptyMessage);
+            out.write('\n');
+        }
+        out.write(separator);
+        out.write('\n');
+        if (summary != null) {
+            out.write(summary);
+            out.write('\n');
+        }
+        out.write('\n');
+    }
+
+    private void writeCell(String text, int width, boolean last) throws IOException {
+        String cell = text == null ? "" : text;
+        out.write(cell);
+        if (last) {
+            return;
+        }
+        for (int pad = cell.length(); pad < width; pad++) {
+            out.write(' ');
+        }
+        out.write(' ');
+    }
+}
@@ -0,0 +1,219 @@
+package com.joysis.library.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over book titles and authors.
+ *
+ * Every word in a title or author name maps to the sorted list of IDs of the books
+ * that contain it. A query matches books that contain, for every query word, some word
+ * starting with it ("tolk hob" finds "The Hobbit" by "J.R.R. Tolkien").
+ */
+public class BookSearchIndex {
+
+    // Sorted so that all words sharing a prefix sit next to each other
+    private final TreeMap<String, PostingList> postings = new TreeMap<>();
+    // The words each book was indexed under, so updates and deletes can unindex them
+    private final Map<Integer, String[]> bookTokens = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean loaded;
+
+    /**
+     * Adds a book, or re-indexes it if it is already present.
+     */
+    public void put(int bookId, String title, String author) {
+        String[] tokens = tokensOf(title, author);
+        lock.writeLock().lock();
+        try {
+            unindex(bookId);
+            for (String token : tokens) {
+                PostingList list = postings.get(token);
+                if (list == null) {
+                    list = new PostingList();
+                    postings.put(token, list);
+                }
+                list.add(bookId);
+            }
+            bookTokens.put(bookId, tokens);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int bookId) {
+        lock.writeLock().lock();
+        try {
+            unindex(bookId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            bookTokens.clear();
+            loaded = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Marks the index as holding the whole catalog, so searches may rely on it
+    public void markLoaded() {
+        loaded = true;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return bookTokens.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the IDs, in ascending order, of books matching every word of the query as a
+     * prefix. A query with no words matches nothing.
+     */
+    public int[] search(String query) {
+        String[] terms = tokenize(query);
+        if (terms.length == 0) {
+            return new int[0];
+        }
+
+        lock.readLock().lock();
+        try {
+            // Narrowest term first keeps the intersections small
+            List<int[]> matches = new ArrayList<>(terms.length);
+            for (String term : terms) {
+                int[] ids = prefixMatches(term);
+                if (ids.length == 0) {
+                    return ids;
+                }
+                matches.add(ids);
+            }
+            matches.sort((a, b) -> Integer.compare(a.length, b.length));
+
+            int[] result = matches.get(0);
+            for (int i = 1; i < matches.size() && result.length > 0; i++) {
+                result = intersect(result, matches.get(i));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Splits text into lower-case words of letters and digits.
+     */
+    public static String[] tokenize(String text) {
+        if (text == null || text.isEmpty()) {
+            return new String[0];
+        }
+        Set<String> tokens = new LinkedHashSet<>();
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    private static String[] tokensOf(String title, String author) {
+        String[] titleTokens = tokenize(title);
+        String[] authorTokens = tokenize(author);
+        Set<String> tokens = new LinkedHashSet<>(Arrays.asList(titleTokens));
+        tokens.addAll(Arrays.asList(authorTokens));
+        return tokens.toArray(new String[0]);
+    }
+
+    private void unindex(int bookId) {
+        String[] previous = bookTokens.remove(bookId);
+        if (previous == null) {
+            return;
+        }
+        for (String token : previous) {
+            PostingList list = postings.get(token);
+            if (list != null) {
+                list.remove(bookId);
+                if (list.isEmpty()) {
+                    postings.remove(token);
+                }
+            }
+        }
+    }
+
+    // Union of the posting lists of every indexed word that starts with the prefix
+    private int[] prefixMatches(String prefix) {
+        Map<String, PostingList> range = postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        if (range.isEmpty()) {
+            return new int[0];
+        }
+        if (range.size() == 1) {
+            return range.values().iterator().next().toArray();
+        }
+        int total = 0;
+        for (PostingList list : range.values()) {
+            total += list.size();
+        }
+        int[] merged = new int[total];
+        int offset = 0;
+        for (PostingList list : range.values()) {
+            int[] ids = list.toArray();
+            System.arraycopy(ids, 0, merged, offset, ids.length);
+            offset += ids.length;
+        }
+        Arrays.sort(merged);
+
+        // Drop duplicates left by books with several words sharing the prefix
+        int unique = 0;
+        for (int i = 0; i < merged.length; i++) {
+            if (i == 0 || merged[i] != merged[i - 1]) {
+                merged[unique++] = merged[i];
+            }
+        }
+        return Arrays.copyOf(merged, unique);
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+}
@@ -0,0 +1,20 @@
+package com.joysis.library.server;
+
+/**
+ * Ends an API request early with the given HTTP status and error message.
+ */
+public class ApiException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    public ApiException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,99 @@
+package com.joysis.library.server;
+
+import com.joysis.library.model.Librarian;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One parsed API call: path parameters, query string, JSON body and the signed-in
+ * librarian. The typed getters throw a 400 ApiException when a value is missing or
+ * has the wrong type.
+ */
+final class ApiRequest {
+
+    private final List<String> pathParams;
+    private final Map<String, String> query;
+    private final Map<String, Object> body;
+    private final Librarian librarian;
+    private final String sessionToken;
+
+    ApiRequest(List<String> pathParams, Map<String, String> query, Map<String, Object> body,
+               Librarian librarian, String sessionToken) {
+        this.pathParams = pathParams;
+        this.query = query;
+        this.body = body != null ? body : Collections.<String, Object>emptyMap();
+        this.librarian = librarian;
+        this.sessionToken = sessionToken;
+    }
+
+    Librarian getLibrarian() {
+        return librarian;
+    }
+
+    String getSessionToken() {
+        return sessionToken;
+    }
+
+    int pathInt(int index) {
+        return parseInt(pathParams.get(index), "path parameter");
+    }
+
+    String query(String name) {
+        return query.get(name);
+    }
+
+    int queryInt(String name, int defaultValue) {
+        String value = query.get(name);
+        return value == null ? defaultValue : parseInt(value, "query parameter '" + name + "'");
+    }
+
+    String string(String name) {
+        Object value = body.get(name);
+        if (!(value instanceof String) || ((String) value).trim().isEmpty()) {
+            throw new ApiException(400, "Field '" + name + "' must be a non-empty string.");
+        }
+        return (String) value;
+    }
+
+    int integer(String name) {
+        Object value = body.get(name);
+        if (!isInt(value)) {
+            throw new ApiException(400, "Field '" + name + "' must be an integer.");
+        }
+        return ((Long) value).intValue();
+    }
+
+    int optionalInteger(String name, int defaultValue) {
+        return body.get(name) == null ? defaultValue : integer(name);
+    }
+
+    List<Integer> integers(String name) {
+        Object value = body.get(name);
+        if (!(value instanceof List)) {
+            throw new ApiException(400, "Field '" + name + "' must be an array of integers.");
+        }
+        List<Integer> result = new ArrayList<>();
+        for (Object element : (List<?>) value) {
+            if (!isInt(element)) {
+                throw new ApiException(400, "Field '" + name + "' must be an array of integers.");
+            }
+            result.add(((Long) element).intValue());
+        }
+        return result;
+    }
+
+    // A JSON integer that fits in an int; larger values must not wrap around to another ID
+    private static boolean isInt(Object value) {
+        return value instanceof Long && (Long) value <= Integer.MAX_VALUE && (Long) value >= Integer.MIN_VALUE;
+    }
+
+    private int parseInt(String value, String what) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new ApiException(400, "Invalid " + what + ": '" + value + "' is not a number.");
+        }
+    }
+}
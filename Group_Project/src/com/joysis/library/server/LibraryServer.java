@@ -0,0 +1,677 @@
+package com.joysis.library.server;
+
+import com.joysis.library.functions.BookFunction;
+import com.joysis.library.functions.BorrowerFunction;
+import com.joysis.library.functions.UserFunction;
+import com.joysis.library.metrics.Metrics;
+import com.joysis.library.metrics.OperationStats;
+import com.joysis.library.model.BatchCirculationResult;
+import com.joysis.library.model.Book;
+import com.joysis.library.model.BookUpdateResult;
+import com.joysis.library.model.BorrowedBook;
+import com.joysis.library.model.CatalogEntry;
+import com.joysis.library.model.CirculationOutcome;
+import com.joysis.library.model.CirculationReport;
+import com.joysis.library.model.LabelCount;
+import com.joysis.library.model.Librarian;
+import com.joysis.library.model.Loan;
+import com.joysis.library.model.OverdueLoan;
+import com.joysis.library.util.CacheStats;
+import com.joysis.library.util.DbConnection;
+import com.joysis.library.util.JsonReader;
+import com.joysis.library.util.JsonWriter;
+import com.joysis.library.util.PoolStats;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serves the book, borrower and user operations as a local HTTP/JSON API, so several
+ * circulation desks and kiosks can share one instance.
+ *
+ * Every request runs on its own thread: a virtual thread when the JVM has them
+ * (Java 21+), otherwise a thread from a fixed pool. Database work is gated by a
+ * semaphore sized to the connection pool, so a burst of requests queues here for a
+ * bounded time instead of piling up inside the pool. Latency is recorded per endpoint
+ * and served from GET /api/stats and, with the function-class timings, over JMX.
+ *
+ * Endpoints (all but login need an "Authorization: Bearer <token>" header from POST
+ * /api/login; a token expires after 30 minutes without a request or 12 hours after
+ * login. The first librarian is registered at the console):
+ *   POST   /api/login              {"username", "password"}
+ *   POST   /api/logout
+ *   POST   /api/register           {"username", "password"}
+ *   GET    /api/books?afterId=&limit=
+ *   GET    /api/books/search?q=
+ *   GET    /api/books/{id}
+ *   POST   /api/books              {"title", "author", "year", "isbn"}
+ *   PUT    /api/books/{id}         {"title", "author", "year", "isbn", "version"}  409 if the book's version
+ *                                   has moved on; without "version" the details are overwritten
+ *   DELETE /api/books/{id}
+ *   POST   /api/loans/borrow       {"bookIds": [..], "borrower", "days"}
+ *   POST   /api/loans/return       {"bookIds": [..]}
+ *   GET    /api/loans/overdue
+ *   GET    /api/loans?borrower=
+ *   GET    /api/reports/circulation?days=&months=&top=
+ *   GET    /api/stats
+ */
+public class LibraryServer {
+
+    public static final int DEFAULT_PORT = 8080;
+    private static final int FALLBACK_THREADS = 64;           // Request threads when virtual threads are unavailable
+    private static final long DB_PERMIT_TIMEOUT_MS = 5_000;   // Answer 503 after waiting this long for a database slot
+    private static final int MAX_BODY_BYTES = 1024 * 1024;
+    private static final long SESSION_IDLE_MS = TimeUnit.MINUTES.toMillis(30);   // Log out after 30 minutes without a request
+    private static final long SESSION_MAX_AGE_MS = TimeUnit.HOURS.toMillis(12);  // and at the latest 12 hours after login
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_REPORT_DAYS = 366;
+    private static final int MAX_REPORT_MONTHS = 120;
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private final DbConnection dbConnection;
+    private final UserFunction userFunction;
+    private final BookFunction bookFunction;
+    private final BorrowerFunction borrowerFunction;
+
+    private final List<Route> routes = new ArrayList<>();
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final Semaphore databasePermits;
+
+    private HttpServer httpServer;
+    private ExecutorService executor;
+    private boolean virtualThreads;
+
+    public LibraryServer(DbConnection dbConnection, UserFunction userFunction, BookFunction bookFunction,
+                         BorrowerFunction borrowerFunction) {
+        this.dbConnection = dbConnection;
+        this.userFunction = userFunction;
+        this.bookFunction = bookFunction;
+        this.borrowerFunction = borrowerFunction;
+        this.databasePermits = new Semaphore(dbConnection.getPoolStats().getMaxSize(), true);
+
+        route("POST", "/api/login", false, true, this::login);
+        route("POST", "/api/logout", true, false, this::logout);
+        route("POST", "/api/register", true, true, this::register);
+        route("GET", "/api/books", true, true, this::listBooks);
+        route("GET", "/api/books/search", true, true, this::searchBooks);
+        route("GET", "/api/books/{id}", true, true, this::getBook);
+        route("POST", "/api/books", true, true, this::addBook);
+        route("PUT", "/api/books/{id}", true, true, this::updateBook);
+        route("DELETE", "/api/books/{id}", true, true, this::deleteBook);
+        route("POST", "/api/loans/borrow", true, true, this::borrowBooks);
+        route("POST", "/api/loans/return", true, true, this::returnBooks);
+        route("GET", "/api/loans/overdue", true, false, this::overdueLoans);
+        route("GET", "/api/loans", true, true, this::borrowerLoans);
+        route("GET", "/api/reports/circulation", true, false, this::circulationReport);
+        route("GET", "/api/stats", true, false, this::stats);
+    }
+
+    // Starts listening on the loopback interface
+    public void start(int port) throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = newRequestExecutor();
+        httpServer.setExecutor(executor);
+        httpServer.createContext("/api/", this::dispatch);
+        httpServer.start();
+        System.out.println("Library server listening on http://localhost:" + httpServer.getAddress().getPort()
+                + "/api/ (" + (virtualThreads ? "virtual threads" : FALLBACK_THREADS + " request threads")
+                + ", " + databasePermits.availablePermits() + " concurrent database requests)");
+    }
+
+    public int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    // Stops accepting requests, waits briefly for in-flight ones and prints the latency summary
+    public void stop() {
+        if (httpServer == null) {
+            return;
+        }
+        httpServer.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        httpServer = null;
+        System.out.println("\n--- Endpoint Latency ---");
+        for (OperationStats stats : getEndpointStats()) {
+            if (stats.getCalls() > 0) {
+                System.out.println(stats);
+            }
+        }
+    }
+
+    public List<OperationStats> getEndpointStats() {
+        List<OperationStats> result = new ArrayList<>(routes.size());
+        for (Route route : routes) {
+            result.add(route.stats);
+        }
+        return result;
+    }
+
+    // Virtual-thread-per-request when the JVM supports it; looked up reflectively so the code still builds for Java 8
+    private ExecutorService newRequestExecutor() {
+        try {
+            ExecutorService virtual = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            virtualThreads = true;
+            return virtual;
+        } catch (ReflectiveOperationException e) {
+            virtualThreads = false;
+            return Executors.newFixedThreadPool(FALLBACK_THREADS);
+        }
+    }
+
+    // --- Request dispatch ---
+
+    private void route(String method, String template, boolean authenticated, boolean usesDatabase, Endpoint endpoint) {
+        // "{id}" in the template matches one path segment
+        Pattern pattern = Pattern.compile(template.replaceAll("\\{[^/]+\\}", "([^/]+)"));
+        routes.add(new Route(method, pattern, authenticated, usesDatabase, endpoint, Metrics.operation("HTTP " + method + " " + template)));
+    }
+
+    private void dispatch(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+
+        Route matched = null;
+        List<String> pathParams = null;
+        boolean pathKnown = false;
+        for (Route route : routes) {
+            Matcher matcher = route.pattern.matcher(path);
+            if (!matcher.matches()) {
+                continue;
+            }
+            pathKnown = true;
+            if (route.method.equals(method)) {
+                matched = route;
+                pathParams = new ArrayList<>(matcher.groupCount());
+                for (int i = 1; i <= matcher.groupCount(); i++) {
+                    pathParams.add(matcher.group(i));
+                }
+                break;
+            }
+        }
+
+        int status = 200;
+        String body;
+        try {
+            if (matched == null) {
+                throw new ApiException(pathKnown ? 405 : 404, pathKnown ? "Method not allowed." : "No such endpoint.");
+            }
+            ApiRequest request = new ApiRequest(pathParams, parseQuery(exchange.getRequestURI().getRawQuery()),
+                    readBody(exchange), matched.authenticated ? requireSession(exchange) : null, bearerToken(exchange));
+            body = matched.usesDatabase ? callWithDatabasePermit(matched.endpoint, request) : matched.endpoint.handle(request);
+        } catch (ApiException e) {
+            status = e.getStatus();
+            body = error(e.getMessage());
+        } catch (RuntimeException e) {
+            // Details stay in the server console; driver and SQL messages are not for clients
+            System.out.println("Error handling " + method + " " + path + ": " + e);
+            e.printStackTrace(System.out);
+            status = 500;
+            body = error("Internal server error.");
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        if (status == 503) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+        }
+        try {
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } finally {
+            exchange.close();
+            if (matched != null) {
+                matched.stats.record(System.nanoTime() - start, status >= 500);
+            }
+        }
+    }
+
+    private String callWithDatabasePermit(Endpoint endpoint, ApiRequest request) {
+        boolean acquired;
+        try {
+            acquired = databasePermits.tryAcquire(DB_PERMIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException(503, "Interrupted while waiting for the database.");
+        }
+        if (!acquired) {
+            throw new ApiException(503, "The database is busy. Please try again.");
+        }
+        try {
+            return endpoint.handle(request);
+        } finally {
+            databasePermits.release();
+        }
+    }
+
+    private Librarian requireSession(HttpExchange exchange) {
+        String token = bearerToken(exchange);
+        Session session = token != null ? sessions.get(token) : null;
+        if (session == null) {
+            throw new ApiException(401, "Log in first and send the token as 'Authorization: Bearer <token>'.");
+        }
+        long now = System.currentTimeMillis();
+        if (session.isExpired(now)) {
+            sessions.remove(token, session);
+            throw new ApiException(401, "Your session has expired. Please log in again.");
+        }
+        session.lastUsedAt = now;
+        return session.librarian;
+    }
+
+    // Drops expired sessions that were never logged out; run on every login, so the map stays bounded
+    private void evictExpiredSessions() {
+        long now = System.currentTimeMillis();
+        sessions.values().removeIf(session -> session.isExpired(now));
+    }
+
+    private static String bearerToken(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.startsWith("Bearer ")) {
+            return null;
+        }
+        return header.substring("Bearer ".length()).trim();
+    }
+
+    private static Map<String, Object> readBody(HttpExchange exchange) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] chunk = new byte[8192];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                buffer.write(chunk, 0, read);
+                if (buffer.size() > MAX_BODY_BYTES) {
+                    throw new ApiException(413, "Request body is larger than " + MAX_BODY_BYTES + " bytes.");
+                }
+            }
+        } catch (IOException e) {
+            // E.g. the client sent less than its Content-Length and closed the connection
+            throw new ApiException(400, "The request body could not be read.");
+        }
+        String text = new String(buffer.toByteArray(), StandardCharsets.UTF_8).trim();
+        if (text.isEmpty()) {
+            return null;
+        }
+        try {
+            return JsonReader.parseObject(text);
+        } catch (IllegalArgumentException e) {
+            throw new ApiException(400, "Malformed JSON body: " + e.getMessage());
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> query = new HashMap<>();
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq >= 0 ? pair.substring(0, eq) : pair;
+            String value = eq >= 0 ? pair.substring(eq + 1) : "";
+            try {
+                query.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+            } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                throw new ApiException(400, "Malformed query string.");
+            }
+        }
+        return query;
+    }
+
+    private static String error(String message) {
+        return new JsonWriter().beginObject().name("error").value(message).endObject().toString();
+    }
+
+    private static String ok() {
+        return new JsonWriter().beginObject().name("ok").value(true).endObject().toString();
+    }
+
+    // --- Endpoints ---
+
+    private String login(ApiRequest request) {
+        Librarian librarian = userFunction.authenticate(request.string("username"), request.string("password"));
+        if (librarian == null) {
+            throw new ApiException(401, "Invalid username or password.");
+        }
+        byte[] bytes = new byte[24];
+        random.nextBytes(bytes);
+        StringBuilder token = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            token.append(String.format("%02x", b));
+        }
+        evictExpiredSessions();
+        sessions.put(token.toString(), new Session(librarian));
+
+        JsonWriter json = new JsonWriter().beginObject().name("token").value(token.toString()).name("librarian");
+        return writeLibrarian(json, librarian).endObject().toString();
+    }
+
+    private String logout(ApiRequest request) {
+        sessions.remove(request.getSessionToken());
+        return ok();
+    }
+
+    private String register(ApiRequest request) {
+        if (!userFunction.registerUser(request.string("username"), request.string("password"))) {
+            throw new ApiException(409, "Username already exists or could not be registered.");
+        }
+        return ok();
+    }
+
+    private String listBooks(ApiRequest request) {
+        int afterId = request.queryInt("afterId", 0);
+        int limit = Math.max(1, Math.min(MAX_PAGE_SIZE, request.queryInt("limit", DEFAULT_PAGE_SIZE)));
+        List<CatalogEntry> page = bookFunction.listBooks(afterId, limit);
+
+        JsonWriter json = new JsonWriter().beginObject().name("books");
+        writeCatalog(json, page);
+        json.name("nextAfterId");
+        if (page.size() == limit) {
+            json.value(page.get(page.size() - 1).getBook().getId()); // Pass back as afterId for the next page
+        } else {
+            json.nullValue();
+        }
+        return json.endObject().toString();
+    }
+
+    private String searchBooks(ApiRequest request) {
+        String keyword = request.query("q");
+        if (keyword == null || keyword.trim().isEmpty()) {
+            throw new ApiException(400, "Query parameter 'q' is required.");
+        }
+        List<CatalogEntry> matches = bookFunction.searchBooks(keyword);
+        if (matches == null) {
+            throw new ApiException(500, "The search failed. Please try again.");
+        }
+        JsonWriter json = new JsonWriter().beginObject().name("books");
+        writeCatalog(json, matches);
+        return json.endObject().toString();
+    }
+
+    private String getBook(ApiRequest request) {
+        Book book = bookFunction.getBookDetailsById(request.pathInt(0));
+        if (book == null) {
+            throw new ApiException(404, "Book not found.");
+        }
+        return writeBook(new JsonWriter(), book).toString();
+    }
+
+    private String addBook(ApiRequest request) {
+        if (!bookFunction.addBook(request.string("title"), request.string("author"), request.integer("year"), request.string("isbn"))) {
+            throw new ApiException(400, "Book could not be added.");
+        }
+        return ok();
+    }
+
+    private String updateBook(ApiRequest request) {
+        BookUpdateResult result = bookFunction.updateBook(request.pathInt(0), request.optionalInteger("version", BookFunction.ANY_VERSION),
+                request.string("title"), request.string("author"), request.integer("year"), request.string("isbn"));
+        switch (result.getStatus()) {
+            case UPDATED:
+                return writeBook(new JsonWriter(), result.getCurrent()).toString();
+            case CONFLICT:
+                throw new ApiException(409, "The book was changed by someone else and is now at version "
+                        + result.getCurrent().getVersion() + ". Get it again and resend your changes with that version.");
+            case NOT_FOUND:
+                throw new ApiException(404, "Book not found.");
+            default:
+                throw new ApiException(500, "Book could not be updated.");
+        }
+    }
+
+    private String deleteBook(ApiRequest request) {
+        if (!bookFunction.deleteBook(request.pathInt(0))) {
+            throw new ApiException(409, "Book not found or still referenced by borrowing records.");
+        }
+        return ok();
+    }
+
+    private String borrowBooks(ApiRequest request) {
+        return writeBatch(borrowerFunction.borrowBooks(request.integers("bookIds"), request.string("borrower"), request.integer("days")));
+    }
+
+    private String returnBooks(ApiRequest request) {
+        return writeBatch(borrowerFunction.returnBooks(request.integers("bookIds")));
+    }
+
+    private String overdueLoans(ApiRequest request) {
+        JsonWriter json = new JsonWriter().beginObject().name("loans").beginArray();
+        for (OverdueLoan overdue : borrowerFunction.getOverdueLoans()) {
+            Loan loan = overdue.getLoan();
+            json.beginObject()
+                .name("loanId").value(loan.getId())
+                .name("bookId").value(loan.getBookId())
+                .name("borrower").value(loan.getBorrowerName())
+                .name("dueDate").value(loan.getScheduledReturn().format(DATE_TIME_FORMAT))
+                .name("daysOverdue").value(overdue.getDaysOverdue())
+                .name("fine").value(overdue.getFine())
+                .endObject();
+        }
+        json.endArray().name("totalFines").value(borrowerFunction.getTotalOutstandingFines());
+        return json.endObject().toString();
+    }
+
+    // What one borrower has out and owes
+    private String borrowerLoans(ApiRequest request) {
+        String borrower = request.query("borrower");
+        if (borrower == null || borrower.trim().isEmpty()) {
+            throw new ApiException(400, "Query parameter 'borrower' is required.");
+        }
+        List<BorrowedBook> loans = borrowerFunction.getLoansForBorrower(borrower);
+        if (loans == null) {
+            throw new ApiException(500, "Loans could not be read.");
+        }
+        double totalFines = 0.0;
+        JsonWriter json = new JsonWriter().beginObject()
+            .name("borrower").value(borrower.trim())
+            .name("loans").beginArray();
+        for (BorrowedBook borrowed : loans) {
+            Loan loan = borrowed.getLoan();
+            json.beginObject()
+                .name("loanId").value(loan.getId())
+                .name("bookId").value(loan.getBookId())
+                .name("title").value(borrowed.getTitle())
+                .name("borrowDate").value(loan.getTimeIn() != null ? loan.getTimeIn().format(DATE_TIME_FORMAT) : null)
+                .name("dueDate").value(loan.getScheduledReturn() != null ? loan.getScheduledReturn().format(DATE_TIME_FORMAT) : null)
+                .name("fine").value(borrowed.getFine())
+                .endObject();
+            totalFines += borrowed.getFine();
+        }
+        json.endArray().name("totalFines").value(totalFines);
+        return json.endObject().toString();
+    }
+
+    // Read from the running circulation counters, so it needs no database slot
+    private String circulationReport(ApiRequest request) {
+        int days = Math.max(0, Math.min(MAX_REPORT_DAYS, request.queryInt("days", 30)));
+        int months = Math.max(0, Math.min(MAX_REPORT_MONTHS, request.queryInt("months", 12)));
+        int top = Math.max(0, Math.min(MAX_PAGE_SIZE, request.queryInt("top", 10)));
+        CirculationReport report = borrowerFunction.getCirculationReport(days, months, top);
+
+        JsonWriter json = new JsonWriter().beginObject()
+            .name("totalLoans").value(report.getTotalLoans())
+            .name("returnedLoans").value(report.getReturnedLoans())
+            .name("overdueReturns").value(report.getOverdueReturns())
+            .name("overdueRate").value(report.getOverdueRate())
+            .name("averageLoanDays").value(report.getAverageLoanDays())
+            .name("finesCollected").value(report.getFinesCollected());
+        writeCounts(json, "loansPerDay", report.getLoansPerDay());
+        writeCounts(json, "loansPerMonth", report.getLoansPerMonth());
+        writeCounts(json, "topTitles", report.getTopTitles());
+        writeCounts(json, "topAuthors", report.getTopAuthors());
+        return json.endObject().toString();
+    }
+
+    private static void writeCounts(JsonWriter json, String name, List<LabelCount> counts) {
+        json.name(name).beginArray();
+        for (LabelCount count : counts) {
+            json.beginObject().name("label").value(count.getLabel()).name("loans").value(count.getCount()).endObject();
+        }
+        json.endArray();
+    }
+
+    private String stats(ApiRequest request) {
+        JsonWriter json = new JsonWriter().beginObject();
+        json.name("virtualThreads").value(virtualThreads);
+        json.name("databasePermitsAvailable").value(databasePermits.availablePermits());
+        evictExpiredSessions();
+        json.name("activeSessions").value(sessions.size());
+        json.name("availableBooks").value(bookFunction.countAvailableBooks());
+        json.name("borrowedBooks").value(bookFunction.countBorrowedBooks());
+
+        json.name("endpoints").beginArray();
+        for (OperationStats stats : getEndpointStats()) {
+            json.beginObject()
+                .name("endpoint").value(stats.getName())
+                .name("requests").value(stats.getCalls())
+                .name("errors").value(stats.getErrors())
+                .name("meanMs").value(stats.getMeanMillis())
+                .name("p50Ms").value(stats.getPercentileMillis(0.50))
+                .name("p95Ms").value(stats.getPercentileMillis(0.95))
+                .name("p99Ms").value(stats.getPercentileMillis(0.99))
+                .name("maxMs").value(stats.getMaxMillis())
+                .endObject();
+        }
+        json.endArray();
+
+        PoolStats pool = dbConnection.getPoolStats();
+        json.name("connectionPool").beginObject()
+            .name("total").value(pool.getTotalConnections())
+            .name("active").value(pool.getActiveConnections())
+            .name("idle").value(pool.getIdleConnections())
+            .name("waiting").value(pool.getWaitingThreads())
+            .name("averageWaitMs").value(pool.getAverageWaitMillis())
+            .name("timeouts").value(pool.getTimeoutCount())
+            .name("statementCacheHitRatio").value(pool.getStatementCacheHitRatio())
+            .endObject();
+
+        CacheStats cache = bookFunction.getBookCacheStats();
+        json.name("bookCache").beginObject()
+            .name("size").value(cache.getSize())
+            .name("hitRate").value(cache.getHitRate())
+            .endObject();
+        return json.endObject().toString();
+    }
+
+    // --- JSON helpers ---
+
+    private static JsonWriter writeLibrarian(JsonWriter json, Librarian librarian) {
+        return json.beginObject().name("id").value(librarian.getId()).name("username").value(librarian.getUsername()).endObject();
+    }
+
+    private static JsonWriter writeBook(JsonWriter json, Book book) {
+        return json.beginObject()
+                   .name("id").value(book.getId())
+                   .name("title").value(book.getTitle())
+                   .name("author").value(book.getAuthor())
+                   .name("year").value(book.getYear())
+                   .name("isbn").value(book.getIsbn())
+                   .name("status").value(book.isAvailable() ? "Available" : "Borrowed")
+                   .name("version").value(book.getVersion())
+                   .endObject();
+    }
+
+    private static void writeCatalog(JsonWriter json, List<CatalogEntry> entries) {
+        json.beginArray();
+        for (CatalogEntry entry : entries) {
+            Book book = entry.getBook();
+            Loan loan = entry.getActiveLoan();
+            json.beginObject()
+                .name("id").value(book.getId())
+                .name("title").value(book.getTitle())
+                .name("author").value(book.getAuthor())
+                .name("year").value(book.getYear())
+                .name("isbn").value(book.getIsbn())
+                .name("status").value(book.isAvailable() ? "Available" : "Borrowed")
+                .name("borrower").value(loan != null ? loan.getBorrowerName() : null)
+                .name("dueDate").value(loan != null && loan.getScheduledReturn() != null ? loan.getScheduledReturn().format(DATE_TIME_FORMAT) : null)
+                .endObject();
+        }
+        json.endArray();
+    }
+
+    private static String writeBatch(BatchCirculationResult result) {
+        JsonWriter json = new JsonWriter().beginObject().name("outcomes").beginArray();
+        for (CirculationOutcome outcome : result.getOutcomes()) {
+            json.beginObject()
+                .name("bookId").value(outcome.getBookId())
+                .name("succeeded").value(outcome.isSucceeded())
+                .name("message").value(outcome.getMessage())
+                .name("fine").value(outcome.getFine())
+                .endObject();
+        }
+        json.endArray()
+            .name("succeeded").value(result.getSucceededCount())
+            .name("failed").value(result.getFailedCount())
+            .name("totalFines").value(result.getTotalFines());
+        return json.endObject().toString();
+    }
+
+    // --- Routing table ---
+
+    private interface Endpoint {
+        String handle(ApiRequest request);
+    }
+
+    private static final class Session {
+        final Librarian librarian;
+        final long createdAt = System.currentTimeMillis();
+        volatile long lastUsedAt = createdAt;
+
+        Session(Librarian librarian) {
+            this.librarian = librarian;
+        }
+
+        boolean isExpired(long now) {
+            return now - lastUsedAt > SESSION_IDLE_MS || now - createdAt > SESSION_MAX_AGE_MS;
+        }
+    }
+
+    private static final class Route {
+        final String method;
+        final Pattern pattern;
+        final boolean authenticated;
+        final boolean usesDatabase;
+        final Endpoint endpoint;
+        final OperationStats stats;
+
+        Route(String method, Pattern pattern, boolean authenticated, boolean usesDatabase, Endpoint endpoint, OperationStats stats) {
+            this.method = method;
+            this.pattern = pattern;
+            this.authenticated = authenticated;
+            this.usesDatabase = usesDatabase;
+            this.endpoint = endpoint;
+            this.stats = stats;
+        }
+    }
+}
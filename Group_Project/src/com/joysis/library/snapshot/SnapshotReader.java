@@ -0,0 +1,128 @@
+package com.joysis.library.snapshot;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.zip.CRC32;
+
+/**
+ * Reads a snapshot file written by SnapshotWriter. The file is read into memory in one
+ * go and its checksum verified before anything is handed out, so a truncated or corrupt
+ * file is rejected up front instead of half-loaded. It is not memory-mapped: Windows
+ * refuses to replace a file while a mapping of it is alive, and the next save moves
+ * its new file over this one.
+ */
+public final class SnapshotReader {
+
+    static final int MAGIC = 0x4C42534E; // "LBSN"
+    static final int FORMAT_VERSION = 2; // 2: books carry their row version
+    private static final int TRAILER_BYTES = Long.BYTES;
+
+    private final ByteBuffer buffer;
+
+    private SnapshotReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Reads the file and checks its header and checksum.
+     *
+     * @throws IOException if the file cannot be read, was written by another format
+     *         version, or fails the checksum
+     */
+    public static SnapshotReader open(Path path) throws IOException {
+        long size = Files.size(path);
+        if (size < 2 * Integer.BYTES + TRAILER_BYTES || size > Integer.MAX_VALUE) {
+            throw new IOException("snapshot " + path + " has an invalid size (" + size + " bytes)");
+        }
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(path));
+
+        int end = file.limit() - TRAILER_BYTES;
+        CRC32 crc = new CRC32();
+        ByteBuffer body = file.duplicate();
+        body.limit(end);
+        crc.update(body);
+        if (crc.getValue() != file.getLong(end)) {
+            throw new IOException("snapshot " + path + " failed its checksum");
+        }
+
+        ByteBuffer content = file.duplicate();
+        content.limit(end);
+        if (content.getInt() != MAGIC) {
+            throw new IOException(path + " is not a library snapshot");
+        }
+        int version = content.getInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("snapshot " + path + " has format version " + version + ", expected " + FORMAT_VERSION);
+        }
+        return new SnapshotReader(content);
+    }
+
+    public int readInt() throws IOException {
+        try {
+            return buffer.getInt();
+        } catch (BufferUnderflowException e) {
+            throw truncated();
+        }
+    }
+
+    public long readLong() throws IOException {
+        try {
+            return buffer.getLong();
+        } catch (BufferUnderflowException e) {
+            throw truncated();
+        }
+    }
+
+    public double readDouble() throws IOException {
+        try {
+            return buffer.getDouble();
+        } catch (BufferUnderflowException e) {
+            throw truncated();
+        }
+    }
+
+    public int readByte() throws IOException {
+        try {
+            return buffer.get();
+        } catch (BufferUnderflowException e) {
+            throw truncated();
+        }
+    }
+
+    public String readString() throws IOException {
+        int length = readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw truncated();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public LocalDateTime readDateTime() throws IOException {
+        long seconds = readLong();
+        return seconds == Long.MIN_VALUE ? null : LocalDateTime.ofEpochSecond(seconds, 0, ZoneOffset.UTC);
+    }
+
+    // A count that has to fit what is left of the file; guards against allocating for a bad length
+    public int readCount(int minBytesEach) throws IOException {
+        int count = readInt();
+        if (count < 0 || (long) count * minBytesEach > buffer.remaining()) {
+            throw new IOException("snapshot has an invalid record count " + count);
+        }
+        return count;
+    }
+
+    private static IOException truncated() {
+        return new IOException("snapshot ends early");
+    }
+}
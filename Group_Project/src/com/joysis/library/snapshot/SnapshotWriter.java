@@ -0,0 +1,96 @@
+package com.joysis.library.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Writes a snapshot file: a header, whatever the caller writes, then a CRC32 of
+ * everything before it. The data goes to a temporary file that replaces the target
+ * only in {@link #commit()}, so a crash while writing never leaves a half-written
+ * snapshot behind.
+ *
+ * Strings are written as a length followed by UTF-8 bytes (-1 for null), and dates as
+ * epoch seconds of the local wall-clock time (Long.MIN_VALUE for null).
+ */
+public final class SnapshotWriter implements Closeable {
+
+    private final Path target;
+    private final Path temp;
+    private final CRC32 crc = new CRC32();
+    private final DataOutputStream out;
+    private boolean committed;
+
+    public SnapshotWriter(Path target) throws IOException {
+        this.target = target.toAbsolutePath();
+        Files.createDirectories(this.target.getParent());
+        this.temp = this.target.resolveSibling(this.target.getFileName() + ".tmp");
+        OutputStream file = Files.newOutputStream(temp);
+        this.out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(file, 64 * 1024), crc));
+        out.writeInt(SnapshotReader.MAGIC);
+        out.writeInt(SnapshotReader.FORMAT_VERSION);
+    }
+
+    public void writeInt(int value) throws IOException {
+        out.writeInt(value);
+    }
+
+    public void writeLong(long value) throws IOException {
+        out.writeLong(value);
+    }
+
+    public void writeDouble(double value) throws IOException {
+        out.writeDouble(value);
+    }
+
+    public void writeByte(int value) throws IOException {
+        out.writeByte(value);
+    }
+
+    public void writeString(String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public void writeDateTime(LocalDateTime value) throws IOException {
+        out.writeLong(value != null ? value.toEpochSecond(ZoneOffset.UTC) : Long.MIN_VALUE);
+    }
+
+    // Appends the checksum and moves the finished file into place
+    public void commit() throws IOException {
+        out.flush();
+        long checksum = crc.getValue();
+        out.writeLong(checksum);
+        out.close();
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING); // Filesystem without atomic moves
+        }
+        committed = true;
+    }
+
+    // Discards the temporary file unless commit() succeeded
+    @Override
+    public void close() throws IOException {
+        if (!committed) {
+            out.close();
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.joysis.library.util;
+
+/**
+ * Point-in-time snapshot of {@link LruCache} counters.
+ */
+public final class CacheStats {
+
+    private final int size;
+    private final int capacity;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+
+    public CacheStats(int size, int capacity, long hits, long misses, long evictions) {
+        this.size = size;
+        this.capacity = capacity;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size=%d/%d, hits=%d, misses=%d, evictions=%d, hitRate=%.1f%%",
+                size, capacity, hits, misses, evictions, getHitRate() * 100);
+    }
+}
@@ -0,0 +1,610 @@
+package com.joysis.library.util;
+
+import com.joysis.library.metrics.Metrics;
+import com.joysis.library.metrics.SlowQueryLog;
+import com.joysis.library.metrics.SqlTrace;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded JDBC connection pool used by {@link DbConnection}.
+ *
+ * Connections handed out by {@link #borrow()} are proxies: calling close() on them
+ * puts the physical connection back in the pool instead of closing it, so the
+ * try-with-resources blocks in the function classes keep working as before.
+ *
+ * Prepared statements are proxies too. Besides caching, they trace each execution
+ * (time to get the connection, execute, and fetch the rows) into the slow query log.
+ */
+public class ConnectionPool {
+
+    // Connections used this recently are not pinged again on borrow
+    private static final long VALIDATION_BYPASS_MS = 500;
+    private static final long HOUSEKEEPING_INTERVAL_MS = 30_000;
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMs;
+    private final long borrowTimeoutMs;
+    private final int validationTimeoutSeconds;
+    private final long leakThresholdMs;
+    private final boolean traceBorrowSites; // Capture a stack trace on every borrow, for leak reports
+    private final int statementCacheSize;
+    private final SlowQueryLog slowQueryLog;
+
+    // LIFO so the most recently used (warmest) connection is reused first
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> inUse = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final AtomicInteger waitingThreads = new AtomicInteger();
+
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+    private final AtomicLong statementCacheEvictions = new AtomicLong();
+
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    public ConnectionPool(String url, String username, String password, int minSize, int maxSize,
+                          long idleTimeoutMs, long borrowTimeoutMs, int validationTimeoutSeconds, long leakThresholdMs,
+                          boolean traceBorrowSites, int statementCacheSize, SlowQueryLog slowQueryLog) {
+        if (minSize < 0 || maxSize <= 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.borrowTimeoutMs = borrowTimeoutMs;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.leakThresholdMs = leakThresholdMs;
+        this.traceBorrowSites = traceBorrowSites;
+        this.statementCacheSize = statementCacheSize;
+        this.slowQueryLog = slowQueryLog;
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, HOUSEKEEPING_INTERVAL_MS, HOUSEKEEPING_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes a validated connection from the pool, opening a new one if the pool has
+     * not reached its maximum size. Waits up to the borrow timeout otherwise.
+     */
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool has been shut down.");
+        }
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMs);
+
+        while (true) {
+            PooledConnection pooled = idle.pollFirst();
+            if (pooled == null) {
+                pooled = tryCreate();
+            }
+            if (pooled == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    timeoutCount.incrementAndGet();
+                    throw new SQLException("Timed out after " + borrowTimeoutMs + " ms waiting for a database connection ("
+                            + getStats() + ")");
+                }
+                waitingThreads.incrementAndGet();
+                try {
+                    pooled = idle.pollFirst(remaining, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for a database connection.", e);
+                } finally {
+                    waitingThreads.decrementAndGet();
+                }
+                if (pooled == null) {
+                    continue;
+                }
+            }
+
+            if (!isUsable(pooled)) {
+                validationFailures.incrementAndGet();
+                destroy(pooled);
+                continue;
+            }
+
+            long waitNanos = System.nanoTime() - start;
+            totalWaitNanos.addAndGet(waitNanos);
+            borrowCount.incrementAndGet();
+            inUse.add(pooled);
+            return pooled.checkout(traceBorrowSites && leakThresholdMs > 0, waitNanos);
+        }
+    }
+
+    /**
+     * Returns a snapshot of the pool counters.
+     */
+    public PoolStats getStats() {
+        int total = totalConnections.get();
+        int idleNow = idle.size();
+        long borrows = borrowCount.get();
+        double avgWaitMs = borrows == 0 ? 0.0 : totalWaitNanos.get() / 1_000_000.0 / borrows;
+        return new PoolStats(total, idleNow, inUse.size(), waitingThreads.get(), minSize, maxSize,
+                borrows, createdCount.get(), destroyedCount.get(), timeoutCount.get(),
+                validationFailures.get(), leakCount.get(), avgWaitMs,
+                statementCacheHits.get(), statementCacheMisses.get(), statementCacheEvictions.get());
+    }
+
+    /**
+     * Closes all idle connections and stops the housekeeping thread. Connections
+     * still in use are closed when they are returned.
+     */
+    public void shutdown() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+        slowQueryLog.close();
+    }
+
+    private PooledConnection tryCreate() throws SQLException {
+        while (true) {
+            int current = totalConnections.get();
+            if (current >= maxSize) {
+                return null;
+            }
+            if (totalConnections.compareAndSet(current, current + 1)) {
+                break;
+            }
+        }
+        try {
+            Connection raw = DriverManager.getConnection(url, username, password);
+            createdCount.incrementAndGet();
+            return new PooledConnection(raw);
+        } catch (SQLException | RuntimeException e) {
+            totalConnections.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        if (System.currentTimeMillis() - pooled.lastUsedAt < VALIDATION_BYPASS_MS) {
+            return true;
+        }
+        try {
+            return pooled.raw.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        inUse.remove(pooled);
+        if (pooled.broken || closed) {
+            destroy(pooled);
+            return;
+        }
+        try {
+            if (!pooled.raw.getAutoCommit()) {
+                // Never hand an open transaction to the next borrower
+                pooled.raw.rollback();
+                pooled.raw.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            destroy(pooled);
+            return;
+        }
+        pooled.lastUsedAt = System.currentTimeMillis();
+        idle.offerFirst(pooled);
+    }
+
+    private void destroy(PooledConnection pooled) {
+        totalConnections.decrementAndGet();
+        destroyedCount.incrementAndGet();
+        pooled.statements.clear();
+        try {
+            pooled.raw.close();
+        } catch (SQLException e) {
+            // Connection is being discarded anyway
+        }
+    }
+
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+
+        // Idle eviction: close connections unused for too long, but keep the minimum
+        Iterator<PooledConnection> oldestFirst = idle.descendingIterator();
+        while (oldestFirst.hasNext() && totalConnections.get() > minSize) {
+            PooledConnection pooled = oldestFirst.next();
+            if (now - pooled.lastUsedAt > idleTimeoutMs && idle.remove(pooled)) {
+                destroy(pooled);
+            }
+        }
+
+        // Top the pool back up to its minimum size
+        try {
+            while (!closed && totalConnections.get() < minSize) {
+                PooledConnection pooled = tryCreate();
+                if (pooled == null) {
+                    break;
+                }
+                idle.offerLast(pooled);
+            }
+        } catch (SQLException e) {
+            System.out.println("Connection pool could not open a connection: " + e.getMessage());
+        }
+
+        // Leak detection: report connections held longer than the threshold, once each
+        if (leakThresholdMs > 0) {
+            for (PooledConnection pooled : inUse) {
+                if (!pooled.leakReported && now - pooled.borrowedAt > leakThresholdMs) {
+                    pooled.leakReported = true;
+                    leakCount.incrementAndGet();
+                    System.out.println("Possible connection leak: connection held for " + (now - pooled.borrowedAt) + " ms.");
+                    if (pooled.borrowSite != null) {
+                        pooled.borrowSite.printStackTrace(System.out);
+                    } else if (!traceBorrowSites) {
+                        System.out.println("Start with -Dlibrary.pool.leakTrace=true to see where it was borrowed.");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A physical connection plus the bookkeeping the pool needs for it.
+     */
+    private final class PooledConnection {
+
+        private final Connection raw;
+        private final StatementCache statements = new StatementCache(statementCacheSize,
+                statementCacheHits, statementCacheMisses, statementCacheEvictions);
+        private volatile long lastUsedAt = System.currentTimeMillis();
+        private volatile long borrowedAt;
+        private volatile boolean leakReported;
+        private volatile boolean broken;
+        private volatile Throwable borrowSite;
+
+        PooledConnection(Connection raw) {
+            this.raw = raw;
+        }
+
+        Connection checkout(boolean recordBorrowSite, long connectNanos) {
+            borrowedAt = System.currentTimeMillis();
+            leakReported = false;
+            borrowSite = recordBorrowSite ? new Throwable("Connection borrowed here") : null;
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Handle(this, connectNanos));
+        }
+
+        Object forward(Method method, Object[] args) throws Throwable {
+            return forward(raw, method, args);
+        }
+
+        // Calls through to the driver object, noting when the physical connection has died
+        Object forward(Object target, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException) {
+                    String state = ((SQLException) cause).getSQLState();
+                    // SQLState class 08 means the connection itself is gone
+                    if (state != null && state.startsWith("08")) {
+                        broken = true;
+                    }
+                }
+                throw cause;
+            }
+        }
+    }
+
+    /**
+     * The object callers actually hold. One per checkout, so a stale reference kept
+     * after close() cannot touch a connection that has been lent to someone else.
+     */
+    private final class Handle implements InvocationHandler {
+
+        private final PooledConnection pooled;
+        private volatile boolean released;
+        // Time borrow() took; charged to the first statement traced on this checkout
+        private long unchargedConnectNanos;
+
+        Handle(PooledConnection pooled, long connectNanos) {
+            this.pooled = pooled;
+            this.unchargedConnectNanos = connectNanos;
+        }
+
+        long takeConnectNanos() {
+            long nanos = unchargedConnectNanos;
+            unchargedConnectNanos = 0;
+            return nanos;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!released) {
+                        released = true;
+                        release(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return released || pooled.raw.isClosed();
+                case "prepareStatement":
+                    // Cache prepareStatement(sql) and prepareStatement(sql, autoGeneratedKeys)
+                    boolean cacheable = args.length == 1
+                            || (args.length == 2 && method.getParameterTypes()[1] == int.class);
+                    if (!released && cacheable) {
+                        String key = args.length == 1 ? (String) args[0] : args[1] + ":" + args[0];
+                        PreparedStatement statement = pooled.statements.take(key);
+                        if (statement == null) {
+                            statement = (PreparedStatement) pooled.forward(method, args);
+                        }
+                        return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                                new Class<?>[]{PreparedStatement.class}, new StatementHandle(this, (Connection) proxy, (String) args[0], key, statement));
+                    }
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + pooled.raw + "]";
+                default:
+                    break;
+            }
+            if (released) {
+                throw new SQLException("Connection has already been returned to the pool.");
+            }
+            return pooled.forward(method, args);
+        }
+    }
+
+    /**
+     * A prepared statement lent out from the connection's statement cache. Closing it
+     * clears its parameters and puts it back in the cache for the next caller. Every
+     * execute call is timed and reported to {@link Metrics} under its SQL text. When the
+     * slow query log is on, the bound parameters are kept as well, and a trace is
+     * finished (and logged if slow) when its rows have been read, that is when the
+     * result set or statement is closed or the statement is executed again.
+     */
+    private final class StatementHandle implements InvocationHandler {
+
+        private final Handle connection;
+        private final Connection connectionProxy;
+        private final String sql;
+        private final String cacheKey;
+        private final PreparedStatement statement;
+        private ResultSet lastResult;
+        private boolean closed;
+        private final List<Object> parameters = new ArrayList<>();
+        private int batchSize;
+        private SqlTrace trace; // The execution whose rows are still being read
+
+        StatementHandle(Handle connection, Connection connectionProxy, String sql, String cacheKey, PreparedStatement statement) {
+            this.connection = connection;
+            this.connectionProxy = connectionProxy;
+            this.sql = sql;
+            this.cacheKey = cacheKey;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        finishTrace();
+                        checkIn();
+                    }
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "getConnection":
+                    return connectionProxy;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "CachedStatement[" + cacheKey + "]";
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("Statement has already been closed.");
+            }
+            if (!method.getName().startsWith("execute")) {
+                if (slowQueryLog.isEnabled()) {
+                    trackParameters(method, args);
+                }
+                Object result = connection.pooled.forward(statement, method, args);
+                if (result instanceof ResultSet) {
+                    lastResult = (ResultSet) result;
+                }
+                return result;
+            }
+
+            finishTrace();
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = connection.pooled.forward(statement, method, args);
+            } catch (Throwable e) {
+                long elapsed = System.nanoTime() - start;
+                Metrics.recordSql(sql, elapsed, true);
+                if (slowQueryLog.isEnabled()) {
+                    SqlTrace failed = newTrace(elapsed, -1);
+                    failed.fail(e);
+                    slowQueryLog.record(failed);
+                    batchSize = 0;
+                }
+                throw e;
+            }
+            long elapsed = System.nanoTime() - start;
+            Metrics.recordSql(sql, elapsed, false);
+            if (!slowQueryLog.isEnabled()) {
+                if (result instanceof ResultSet) {
+                    lastResult = (ResultSet) result;
+                }
+                return result;
+            }
+
+            trace = newTrace(elapsed, rowsAffected(result));
+            batchSize = 0;
+            if (result instanceof ResultSet) {
+                lastResult = (ResultSet) result;
+                return Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                        new Class<?>[]{ResultSet.class}, new TracedResultSet(this, (Statement) proxy, lastResult));
+            }
+            return result;
+        }
+
+        // Remembers bound values by position, plus the batch size, for the trace
+        private void trackParameters(Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("clearParameters")) {
+                parameters.clear();
+            } else if (name.equals("addBatch")) {
+                batchSize++;
+            } else if (name.equals("clearBatch")) {
+                batchSize = 0;
+            } else if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                int index = (Integer) args[0] - 1;
+                while (parameters.size() <= index) {
+                    parameters.add(null);
+                }
+                parameters.set(index, name.equals("setNull") ? null : args[1]);
+            }
+        }
+
+        private SqlTrace newTrace(long executeNanos, long rows) {
+            return new SqlTrace(sql, parameters, batchSize, connection.takeConnectNanos(), executeNanos, rows);
+        }
+
+        private long rowsAffected(Object result) {
+            if (result instanceof Integer || result instanceof Long) {
+                return ((Number) result).longValue();
+            }
+            if (result instanceof int[]) {
+                long total = 0;
+                for (int count : (int[]) result) {
+                    total += Math.max(count, 0); // SUCCESS_NO_INFO is -2
+                }
+                return total;
+            }
+            return -1; // A result set (counted while fetching) or execute()
+        }
+
+        void finishTrace() {
+            if (trace != null) {
+                slowQueryLog.record(trace);
+                trace = null;
+            }
+        }
+
+        private void checkIn() throws SQLException {
+            parameters.clear();
+            batchSize = 0;
+            if (connection.released) {
+                // The connection went back to the pool first; it may already belong to someone else
+                statement.close();
+                return;
+            }
+            try {
+                if (lastResult != null) {
+                    lastResult.close();
+                }
+                statement.clearParameters();
+                statement.clearBatch();
+            } catch (SQLException e) {
+                statement.close();
+                return;
+            }
+            connection.pooled.statements.put(cacheKey, statement);
+        }
+    }
+
+    /**
+     * Result set of a traced query. Times each next() call and counts the rows, and
+     * finishes the statement's trace when closed.
+     */
+    private static final class TracedResultSet implements InvocationHandler {
+
+        private final StatementHandle owner;
+        private final Statement statementProxy;
+        private final ResultSet results;
+
+        TracedResultSet(StatementHandle owner, Statement statementProxy, ResultSet results) {
+            this.owner = owner;
+            this.statementProxy = statementProxy;
+            this.results = results;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "next":
+                    long start = System.nanoTime();
+                    boolean gotRow = results.next();
+                    if (owner.trace != null) {
+                        owner.trace.recordFetch(System.nanoTime() - start, gotRow);
+                    }
+                    return gotRow;
+                case "close":
+                    owner.finishTrace();
+                    results.close();
+                    return null;
+                case "getStatement":
+                    return statementProxy;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            try {
+                return method.invoke(results, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
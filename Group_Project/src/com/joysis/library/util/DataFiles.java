@@ -0,0 +1,29 @@
+package com.joysis.library.util;
+
+import java.io.File;
+
+/**
+ * Where the application keeps its own files by default: the embedded database, the
+ * warm-start snapshot and the slow query log.
+ *
+ * They all live in one data directory, -Dlibrary.data.dir (default library-data). It is
+ * made absolute once, at startup, so every file ends up in the same folder.
+ */
+public final class DataFiles {
+
+    private static final String DEFAULT_DIRECTORY = "library-data";
+    private static final File DIRECTORY =
+            new File(System.getProperty("library.data.dir", DEFAULT_DIRECTORY)).getAbsoluteFile();
+
+    private DataFiles() {
+    }
+
+    public static File directory() {
+        return DIRECTORY;
+    }
+
+    // Absolute path of a file in the data directory, e.g. path("logs/slow.log")
+    public static String path(String relativePath) {
+        return new File(DIRECTORY, relativePath).getPath();
+    }
+}
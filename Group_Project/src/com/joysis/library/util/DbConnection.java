@@ -1,7 +1,8 @@
 package com.joysis.library.util;
 
+import com.joysis.library.metrics.SlowQueryLog;
+import java.io.File;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 
@@ -14,25 +15,150 @@ public class DbConnection {
 
     //Kurt Kenji's Databse URL
     //private static final String URL = "jdbc:mysql://localhost:3306/group4?useTimezone=true&serverTimezone=UTC";
+    // Tip: add &rewriteBatchedStatements=true so the bulk import sends each batch as one multi-row INSERT
     
     //Lagay nyu nalang URL ng sarili nyu pong databse nyu dto
     private static final String URL = " ";
     private static final String USERNAME = "root"; 
     private static final String PASSWORD = ""; 
-    private static final String DRIVER = "com.mysql.jdbc.Driver";
 
-    static {
+    // To run without a MySQL server, start the app with -Dlibrary.storage=h2 (or sqlite).
+    // The database is then kept in the file named by -Dlibrary.db.path (default "library" in the data directory, see DataFiles)
+    // and the tables are created on first start (see SchemaMigrator). -Dlibrary.db.url, -Dlibrary.db.user and
+    // -Dlibrary.db.password override the connection settings for any backend.
+    // The H2 or SQLite JDBC driver jar has to be added to the project libraries first.
+    private static final String DEFAULT_EMBEDDED_FILE = "library";
+
+    // Connection pool settings
+    private static final int MIN_POOL_SIZE = 2;
+    private static final int MAX_POOL_SIZE = 10;
+    private static final long IDLE_TIMEOUT_MS = 10 * 60 * 1000;    // close idle connections after 10 minutes
+    private static final long BORROW_TIMEOUT_MS = 30 * 1000;       // give up waiting for a free connection after 30 seconds
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+    private static final long LEAK_THRESHOLD_MS = 2 * 60 * 1000;   // warn when a connection is held for 2 minutes
+    // -Dlibrary.pool.leakTrace=true adds where each leaked connection was borrowed to the warning.
+    // Off by default: it captures a stack trace on every borrow.
+    private static final boolean LEAK_TRACE = Boolean.getBoolean("library.pool.leakTrace");
+    private static final int STATEMENT_CACHE_SIZE = 64;             // prepared statements kept per connection
+    // Statements slower than -Dlibrary.slowquery.ms (default 500) are logged under the data directory; see SlowQueryLog
+
+    private final StorageBackend backend;
+    private final ConnectionPool pool;
+
+    // Uses the backend chosen with the library.* system properties, MySQL if none is set
+    public DbConnection() {
+        this(configuredBackend(), configuredUrl(), System.getProperty("library.db.user", USERNAME),
+             System.getProperty("library.db.password", PASSWORD));
+    }
+
+    // Connects to a different database, e.g. an embedded one for benchmarks. Its JDBC driver must be on the classpath.
+    public DbConnection(String url, String username, String password) {
+        this(StorageBackend.forUrl(url), url, username, password);
+    }
+
+    public DbConnection(StorageBackend backend, String url, String username, String password) {
+        this.backend = backend;
         try {
             // Load the JDBC driver
-            Class.forName(DRIVER);
+            Class.forName(backend.getDriverClass());
             System.out.println("JDBC Driver loaded successfully."); 
         } catch (ClassNotFoundException e) {
             System.out.println("Failed to load JDBC Driver: " + e.getMessage()); 
             e.printStackTrace(); 
         }
+        pool = new ConnectionPool(url, username, password, MIN_POOL_SIZE, MAX_POOL_SIZE,
+                IDLE_TIMEOUT_MS, BORROW_TIMEOUT_MS, VALIDATION_TIMEOUT_SECONDS, LEAK_THRESHOLD_MS, LEAK_TRACE, STATEMENT_CACHE_SIZE,
+                SlowQueryLog.fromSystemProperties());
+        migrateSchema();
+    }
+
+    private static StorageBackend configuredBackend() {
+        String name = System.getProperty("library.storage");
+        if (name != null) {
+            return StorageBackend.fromName(name);
+        }
+        return StorageBackend.forUrl(System.getProperty("library.db.url", URL));
+    }
+
+    private static String configuredUrl() {
+        String url = System.getProperty("library.db.url");
+        if (url != null) {
+            return url;
+        }
+        StorageBackend backend = configuredBackend();
+        if (!backend.isEmbedded()) {
+            return URL;
+        }
+        File file = new File(System.getProperty("library.db.path", DataFiles.path(DEFAULT_EMBEDDED_FILE))).getAbsoluteFile();
+        file.getParentFile().mkdirs(); // SQLite will not create missing folders
+        return backend.fileUrl(file.getPath());
+    }
+
+    // Creates the library tables on a new database and applies any pending schema changes, such as new indexes
+    private void migrateSchema() {
+        try (Connection connection = connect()) {
+            new SchemaMigrator(backend).migrate(connection);
+        } catch (SQLException e) {
+            System.out.println("Error updating the database schema: " + e.getMessage());
+        }
     }
 
+    public StorageBackend getBackend() {
+        return backend;
+    }
+
+    // Hands out a pooled connection. Closing it returns it to the pool.
     public Connection connect() throws SQLException {
-        return DriverManager.getConnection(URL, USERNAME, PASSWORD);
+        return pool.borrow();
+    }
+
+    /**
+     * Runs the given work on a single connection inside one transaction.
+     * Commits if the work returns normally and rolls back if it throws.
+     */
+    public <T> T inTransaction(SqlWork<T> work) throws SQLException {
+        try (Connection connection = connect()) {
+            return runTransaction(connection, work);
+        }
+    }
+
+    /**
+     * As inTransaction, at the given isolation level (a Connection.TRANSACTION_* constant),
+     * or at SERIALIZABLE where the database does not offer that level (SQLite). The
+     * connection goes back to the pool at the level it had before.
+     */
+    public <T> T inTransaction(int isolation, SqlWork<T> work) throws SQLException {
+        try (Connection connection = connect()) {
+            int previous = connection.getTransactionIsolation();
+            connection.setTransactionIsolation(connection.getMetaData().supportsTransactionIsolationLevel(isolation)
+                    ? isolation : Connection.TRANSACTION_SERIALIZABLE);
+            try {
+                return runTransaction(connection, work);
+            } finally {
+                connection.setAutoCommit(true); // The level cannot change inside a transaction
+                connection.setTransactionIsolation(previous);
+            }
+        }
+    }
+
+    private static <T> T runTransaction(Connection connection, SqlWork<T> work) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            T result = work.execute(connection);
+            connection.commit();
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        }
+    }
+
+    public PoolStats getPoolStats() {
+        return pool.getStats();
+    }
+
+    // Closes every pooled connection. Call once when the application exits.
+    public void close() {
+        pool.shutdown();
     }
-}
\ No newline at end of file
+}
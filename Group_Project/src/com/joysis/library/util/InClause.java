@@ -0,0 +1,35 @@
+package com.joysis.library.util;
+
+/**
+ * Helpers for building "IN (?, ?, ...)" lists.
+ *
+ * Lists are padded to a few fixed sizes (1, 4, 16, 64, 256) by repeating the last value,
+ * so a query built this way only ever has a handful of distinct SQL strings and the
+ * statement cache keeps working.
+ */
+public final class InClause {
+
+    public static final int MAX_SIZE = 256;
+
+    private InClause() {
+    }
+
+    // Number of placeholders to use for count values (count must be 1..MAX_SIZE)
+    public static int paddedSize(int count) {
+        int slots = 1;
+        while (slots < count) {
+            slots *= 4;
+        }
+        return Math.min(slots, MAX_SIZE);
+    }
+
+    // "?, ?, ?" with the given number of placeholders
+    public static String placeholders(int slots) {
+        StringBuilder placeholders = new StringBuilder(slots * 3);
+        placeholders.append('?');
+        for (int i = 1; i < slots; i++) {
+            placeholders.append(", ?");
+        }
+        return placeholders.toString();
+    }
+}
@@ -0,0 +1,125 @@
+package com.joysis.library.util;
+
+/**
+ * Point-in-time snapshot of {@link ConnectionPool} counters.
+ */
+public final class PoolStats {
+
+    private final int totalConnections;
+    private final int idleConnections;
+    private final int activeConnections;
+    private final int waitingThreads;
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowCount;
+    private final long createdCount;
+    private final long destroyedCount;
+    private final long timeoutCount;
+    private final long validationFailures;
+    private final long leakCount;
+    private final double averageWaitMillis;
+    private final long statementCacheHits;
+    private final long statementCacheMisses;
+    private final long statementCacheEvictions;
+
+    public PoolStats(int totalConnections, int idleConnections, int activeConnections, int waitingThreads,
+                     int minSize, int maxSize, long borrowCount, long createdCount, long destroyedCount,
+                     long timeoutCount, long validationFailures, long leakCount, double averageWaitMillis,
+                     long statementCacheHits, long statementCacheMisses, long statementCacheEvictions) {
+        this.totalConnections = totalConnections;
+        this.idleConnections = idleConnections;
+        this.activeConnections = activeConnections;
+        this.waitingThreads = waitingThreads;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.borrowCount = borrowCount;
+        this.createdCount = createdCount;
+        this.destroyedCount = destroyedCount;
+        this.timeoutCount = timeoutCount;
+        this.validationFailures = validationFailures;
+        this.leakCount = leakCount;
+        this.averageWaitMillis = averageWaitMillis;
+        this.statementCacheHits = statementCacheHits;
+        this.statementCacheMisses = statementCacheMisses;
+        this.statementCacheEvictions = statementCacheEvictions;
+    }
+
+    public int getTotalConnections() {
+        return totalConnections;
+    }
+
+    public int getIdleConnections() {
+        return idleConnections;
+    }
+
+    public int getActiveConnections() {
+        return activeConnections;
+    }
+
+    public int getWaitingThreads() {
+        return waitingThreads;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getBorrowCount() {
+        return borrowCount;
+    }
+
+    public long getCreatedCount() {
+        return createdCount;
+    }
+
+    public long getDestroyedCount() {
+        return destroyedCount;
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    public long getValidationFailures() {
+        return validationFailures;
+    }
+
+    public long getLeakCount() {
+        return leakCount;
+    }
+
+    public double getAverageWaitMillis() {
+        return averageWaitMillis;
+    }
+
+    public long getStatementCacheHits() {
+        return statementCacheHits;
+    }
+
+    public long getStatementCacheMisses() {
+        return statementCacheMisses;
+    }
+
+    public long getStatementCacheEvictions() {
+        return statementCacheEvictions;
+    }
+
+    public double getStatementCacheHitRatio() {
+        long lookups = statementCacheHits + statementCacheMisses;
+        return lookups == 0 ? 0.0 : (double) statementCacheHits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("total=%d, idle=%d, active=%d, waiting=%d, min=%d, max=%d, borrows=%d, created=%d, "
+                + "destroyed=%d, timeouts=%d, validationFailures=%d, leaks=%d, avgWait=%.3fms, "
+                + "stmtCacheHits=%d, stmtCacheMisses=%d, stmtCacheEvictions=%d, stmtCacheHitRatio=%.1f%%",
+                totalConnections, idleConnections, activeConnections, waitingThreads, minSize, maxSize,
+                borrowCount, createdCount, destroyedCount, timeoutCount, validationFailures, leakCount, averageWaitMillis,
+                statementCacheHits, statementCacheMisses, statementCacheEvictions, getStatementCacheHitRatio() * 100);
+    }
+}
@@ -0,0 +1,247 @@
+package com.joysis.library.util;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Brings the database schema up to date at startup.
+ *
+ * Schema changes are numbered migrations applied in order. Each applied version is
+ * recorded in the schema_version table, so a migration runs once per database. The
+ * migrations are also written to be safe to re-run (CREATE ... IF NOT EXISTS, and
+ * indexes are only created when the table does not already have one on the same
+ * column), so a database that was set up by hand is adopted without errors.
+ *
+ * To change the schema, append a migration with the next version number to
+ * MIGRATIONS. Never edit or renumber one that has shipped.
+ */
+public class SchemaMigrator {
+
+    private static final String VERSION_TABLE = "schema_version";
+
+    private static final List<Migration> MIGRATIONS = Collections.unmodifiableList(Arrays.asList(
+        new Migration(1, "Create booklist, borrower_list and user_credentials",
+            (connection, backend) -> backend.createSchema(connection)),
+
+        new Migration(2, "Index active loans, book status, titles and usernames", (connection, backend) -> {
+            // borrowBook, returnBook and every catalog listing look up the active loan of a book.
+            // Matched by name only: the foreign key usually has a plain book_id index already.
+            if (backend == StorageBackend.SQLITE) {
+                createIndex(connection, backend, "borrower_list", "idx_borrower_list_active_loan", "book_id", null, "time_out IS NULL");
+            } else {
+                createIndex(connection, backend, "borrower_list", "idx_borrower_list_active_loan", "book_id, time_out", null, null);
+            }
+            // displayBorrowedBooks filters on status = 1
+            createIndex(connection, backend, "booklist", "idx_booklist_status", "status", "status", null);
+            // The LIKE search fallback and title sorting; InnoDB limits key length, so MySQL indexes a prefix
+            createIndex(connection, backend, "booklist", "idx_booklist_title",
+                        backend == StorageBackend.MYSQL ? "title(100)" : "title", "title", null);
+            // Login; the bootstrap DDL declares username UNIQUE, older hand-made tables may not
+            createIndex(connection, backend, "user_credentials", "idx_user_credentials_username", "username", "username", null);
+        }),
+
+        new Migration(3, "Add the loan_history archive table and the all_loans view", (connection, backend) -> {
+            // Closed loans moved out of borrower_list by LoanArchiver. Keeps the original loan id;
+            // no foreign key, so archived history does not stop a book from being deleted.
+            String dateType = backend == StorageBackend.H2 ? "TIMESTAMP" : "DATETIME";
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE IF NOT EXISTS loan_history (" +
+                                  "id " + (backend == StorageBackend.SQLITE ? "INTEGER" : "INT") + " PRIMARY KEY, " +
+                                  "book_id INT NOT NULL, " +
+                                  "borrower_name " + (backend == StorageBackend.SQLITE ? "TEXT" : "VARCHAR(255)") + " NOT NULL, " +
+                                  "time_in " + dateType + ", " +
+                                  "scheduled_return " + dateType + ", " +
+                                  "time_out " + dateType + " NOT NULL, " +
+                                  "archived_at " + dateType + " NOT NULL)");
+            }
+            createIndex(connection, backend, "loan_history", "idx_loan_history_book_id", "book_id", "book_id", null);
+            // The archiver picks closed loans by return time
+            createIndex(connection, backend, "borrower_list", "idx_borrower_list_time_out", "time_out", "time_out", null);
+
+            // Every loan, current and archived, for history lookups
+            String view = "all_loans AS " +
+                          "SELECT id, book_id, borrower_name, time_in, scheduled_return, time_out FROM borrower_list " +
+                          "UNION ALL " +
+                          "SELECT id, book_id, borrower_name, time_in, scheduled_return, time_out FROM loan_history";
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(backend == StorageBackend.SQLITE ? "CREATE VIEW IF NOT EXISTS " + view
+                                                                   : "CREATE OR REPLACE VIEW " + view);
+            }
+        }),
+
+        new Migration(4, "Index loans by borrower name", (connection, backend) -> {
+            // getLoansForBorrower looks up one borrower's active loans at the desk
+            if (backend == StorageBackend.SQLITE) {
+                createIndex(connection, backend, "borrower_list", "idx_borrower_list_borrower", "borrower_name", null, "time_out IS NULL");
+            } else {
+                createIndex(connection, backend, "borrower_list", "idx_borrower_list_borrower",
+                            backend == StorageBackend.MYSQL ? "borrower_name(100), time_out" : "borrower_name, time_out", null, null);
+            }
+        }),
+
+        new Migration(5, "Add a row version to booklist", (connection, backend) -> {
+            // Every booklist write bumps it; updateBook and updateBookStatus only apply to the
+            // version they read, so concurrent edits are detected instead of overwritten
+            if (!hasColumn(connection, "booklist", "version")) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("ALTER TABLE booklist ADD COLUMN version INT NOT NULL DEFAULT 0");
+                }
+            }
+        })
+    ));
+
+    private final StorageBackend backend;
+
+    public SchemaMigrator(StorageBackend backend) {
+        this.backend = backend;
+    }
+
+    public static int getLatestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    /**
+     * Applies every migration newer than the database's recorded version.
+     *
+     * @return the number of migrations applied
+     */
+    public int migrate(Connection connection) throws SQLException {
+        createVersionTable(connection);
+        int current = getCurrentVersion(connection);
+        int applied = 0;
+
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version <= current) {
+                continue;
+            }
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false); // MySQL commits DDL implicitly; H2 and SQLite can roll it back
+            try {
+                migration.step.apply(connection, backend);
+                recordVersion(connection, migration);
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                if (getCurrentVersion(connection) >= migration.version) {
+                    continue; // Another instance applied it at the same time
+                }
+                throw new SQLException("Schema migration " + migration.version + " (" + migration.description
+                        + ") failed: " + e.getMessage(), e);
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            System.out.println("Applied schema migration " + migration.version + ": " + migration.description);
+            applied++;
+        }
+        return applied;
+    }
+
+    // Highest applied version, or 0 for a database that has never been migrated
+    public int getCurrentVersion(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT MAX(version) FROM " + VERSION_TABLE)) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private void createVersionTable(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS " + VERSION_TABLE + " (" +
+                              "version INT PRIMARY KEY, " +
+                              "description VARCHAR(255) NOT NULL, " +
+                              "applied_at TIMESTAMP NOT NULL)");
+        }
+    }
+
+    private void recordVersion(Connection connection, Migration migration) throws SQLException {
+        String query = "INSERT INTO " + VERSION_TABLE + " (version, description, applied_at) VALUES (?, ?, ?)";
+        try (PreparedStatement prep = connection.prepareStatement(query)) {
+            prep.setInt(1, migration.version);
+            prep.setString(2, migration.description);
+            prep.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+            prep.executeUpdate();
+        }
+    }
+
+    /**
+     * Creates an index unless the table already has it by name, or (when leadingColumn is
+     * not null) already has an index that starts with that column. partialWhere is only
+     * used on SQLite.
+     */
+    static void createIndex(Connection connection, StorageBackend backend, String table, String indexName,
+                            String columns, String leadingColumn, String partialWhere) throws SQLException {
+        if (hasIndex(connection, table, indexName, leadingColumn)) {
+            return;
+        }
+        String ddl = "CREATE INDEX " + indexName + " ON " + table + " (" + columns + ")";
+        if (partialWhere != null) {
+            ddl += " WHERE " + partialWhere;
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(ddl);
+        }
+    }
+
+    private static boolean hasColumn(Connection connection, String table, String column) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        for (String name : Arrays.asList(table, table.toUpperCase(Locale.ROOT))) {
+            try (ResultSet rs = metaData.getColumns(connection.getCatalog(), null, name, null)) {
+                while (rs.next()) {
+                    if (column.equalsIgnoreCase(rs.getString("COLUMN_NAME"))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasIndex(Connection connection, String table, String indexName, String leadingColumn) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        // Databases differ in how they store unquoted names (H2 upper-cases them)
+        List<String> tableNames = new ArrayList<>();
+        tableNames.add(table);
+        tableNames.add(table.toUpperCase(Locale.ROOT));
+        for (String name : tableNames) {
+            try (ResultSet rs = metaData.getIndexInfo(connection.getCatalog(), null, name, false, false)) {
+                while (rs.next()) {
+                    String existing = rs.getString("INDEX_NAME");
+                    String column = rs.getString("COLUMN_NAME");
+                    if (existing != null && existing.equalsIgnoreCase(indexName)) {
+                        return true;
+                    }
+                    if (leadingColumn != null && rs.getShort("ORDINAL_POSITION") == 1 && leadingColumn.equalsIgnoreCase(column)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private interface MigrationStep {
+        void apply(Connection connection, StorageBackend backend) throws SQLException;
+    }
+
+    private static final class Migration {
+        final int version;
+        final String description;
+        final MigrationStep step;
+
+        Migration(int version, String description, MigrationStep step) {
+            this.version = version;
+            this.description = description;
+            this.step = step;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.joysis.library.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A unit of database work that runs on a connection supplied by {@link DbConnection}.
+ *
+ * @param <T> the result type
+ */
+public interface SqlWork<T> {
+
+    T execute(Connection connection) throws SQLException;
+}
@@ -0,0 +1,75 @@
+package com.joysis.library.util;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of prepared statements for one physical connection, keyed by SQL text
+ * (prefixed with the generated-keys flag when one was given).
+ *
+ * A statement is taken out of the cache while a caller is using it and put back when
+ * the caller closes it, so two open statements never share the same cached object.
+ * Only the thread that currently holds the connection touches its cache.
+ */
+final class StatementCache {
+
+    private final int capacity;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+
+    // Access-ordered, so iteration starts at the least recently used statement
+    private final LinkedHashMap<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+
+    StatementCache(int capacity, AtomicLong hits, AtomicLong misses, AtomicLong evictions) {
+        this.capacity = capacity;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    // Returns the cached statement for this SQL, or null if the caller has to prepare it
+    PreparedStatement take(String sql) {
+        PreparedStatement statement = statements.remove(sql);
+        if (statement != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return statement;
+    }
+
+    // Hands a statement back for reuse, closing it instead if there is no room for it
+    void put(String sql, PreparedStatement statement) {
+        if (capacity <= 0 || statements.containsKey(sql)) {
+            closeQuietly(statement);
+            return;
+        }
+        statements.put(sql, statement);
+        if (statements.size() > capacity) {
+            Iterator<Map.Entry<String, PreparedStatement>> eldest = statements.entrySet().iterator();
+            closeQuietly(eldest.next().getValue());
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    void clear() {
+        for (PreparedStatement statement : statements.values()) {
+            closeQuietly(statement);
+        }
+        statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // Statement is being discarded anyway
+        }
+    }
+}
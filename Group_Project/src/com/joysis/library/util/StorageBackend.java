@@ -0,0 +1,143 @@
+package com.joysis.library.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The databases the library can run on: a MySQL server, or an embedded file-backed
+ * H2 or SQLite database that needs no server at all. Each backend knows its JDBC
+ * driver, how to build a URL for a database file, and how to create the tables in its
+ * own SQL dialect.
+ */
+public enum StorageBackend {
+
+    MYSQL("com.mysql.jdbc.Driver", false,
+          "CREATE TABLE IF NOT EXISTS user_credentials (" +
+          "id INT AUTO_INCREMENT PRIMARY KEY, " +
+          "username VARCHAR(100) NOT NULL UNIQUE, " +
+          "password VARCHAR(255) NOT NULL)",
+          "CREATE TABLE IF NOT EXISTS booklist (" +
+          "id INT AUTO_INCREMENT PRIMARY KEY, " +
+          "title VARCHAR(255) NOT NULL, " +
+          "author VARCHAR(255) NOT NULL, " +
+          "year INT, " +
+          "isbn VARCHAR(32) UNIQUE, " +
+          "status INT DEFAULT 0 NOT NULL)", // 0 = available, 1 = borrowed
+          "CREATE TABLE IF NOT EXISTS borrower_list (" +
+          "id INT AUTO_INCREMENT PRIMARY KEY, " +
+          "book_id INT NOT NULL, " +
+          "borrower_name VARCHAR(255) NOT NULL, " +
+          "time_in DATETIME DEFAULT CURRENT_TIMESTAMP, " +
+          "scheduled_return DATETIME, " +
+          "time_out DATETIME, " +
+          "FOREIGN KEY (book_id) REFERENCES booklist(id))"),
+
+    H2("org.h2.Driver", true,
+       "CREATE TABLE IF NOT EXISTS user_credentials (" +
+       "id INT AUTO_INCREMENT PRIMARY KEY, " +
+       "username VARCHAR(100) NOT NULL UNIQUE, " +
+       "password VARCHAR(255) NOT NULL)",
+       "CREATE TABLE IF NOT EXISTS booklist (" +
+       "id INT AUTO_INCREMENT PRIMARY KEY, " +
+       "title VARCHAR(255) NOT NULL, " +
+       "author VARCHAR(255) NOT NULL, " +
+       "year INT, " +
+       "isbn VARCHAR(32) UNIQUE, " +
+       "status INT DEFAULT 0 NOT NULL)",
+       "CREATE TABLE IF NOT EXISTS borrower_list (" +
+       "id INT AUTO_INCREMENT PRIMARY KEY, " +
+       "book_id INT NOT NULL, " +
+       "borrower_name VARCHAR(255) NOT NULL, " +
+       "time_in TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+       "scheduled_return TIMESTAMP, " +
+       "time_out TIMESTAMP, " +
+       "FOREIGN KEY (book_id) REFERENCES booklist(id))"),
+
+    // Same tables as the shipped SQL script, with the year column the code uses
+    SQLITE("org.sqlite.JDBC", true,
+           "CREATE TABLE IF NOT EXISTS user_credentials (" +
+           "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+           "username TEXT NOT NULL UNIQUE, " +
+           "password TEXT NOT NULL)",
+           "CREATE TABLE IF NOT EXISTS booklist (" +
+           "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+           "title TEXT NOT NULL, " +
+           "author TEXT NOT NULL, " +
+           "year INTEGER, " +
+           "isbn TEXT UNIQUE, " +
+           "status INTEGER DEFAULT 0 NOT NULL)",
+           "CREATE TABLE IF NOT EXISTS borrower_list (" +
+           "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+           "book_id INTEGER NOT NULL, " +
+           "borrower_name TEXT NOT NULL, " +
+           "time_in DATETIME DEFAULT CURRENT_TIMESTAMP, " +
+           "scheduled_return DATETIME, " +
+           "time_out DATETIME, " +
+           "FOREIGN KEY (book_id) REFERENCES booklist(id))");
+
+    private final String driverClass;
+    private final boolean embedded;
+    private final String[] schema;
+
+    StorageBackend(String driverClass, boolean embedded, String... schema) {
+        this.driverClass = driverClass;
+        this.embedded = embedded;
+        this.schema = schema;
+    }
+
+    public String getDriverClass() {
+        return driverClass;
+    }
+
+    // True when the database lives in a local file and needs no server
+    public boolean isEmbedded() {
+        return embedded;
+    }
+
+    /**
+     * JDBC URL for a database stored at the given file path (without extension).
+     * H2 runs in MySQL mode so the existing queries work unchanged; SQLite gets WAL
+     * journaling and a busy timeout so several pooled connections can share the file.
+     */
+    public String fileUrl(String path) {
+        switch (this) {
+            case H2:
+                return "jdbc:h2:file:" + path + ";MODE=MySQL;NON_KEYWORDS=YEAR;DB_CLOSE_ON_EXIT=FALSE";
+            case SQLITE:
+                return "jdbc:sqlite:" + path + ".db?journal_mode=WAL&busy_timeout=5000&foreign_keys=on";
+            default:
+                throw new IllegalStateException(name() + " is not an embedded database");
+        }
+    }
+
+    // Creates any of the library tables that do not exist yet
+    public void createSchema(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String ddl : schema) {
+                statement.execute(ddl);
+            }
+        }
+    }
+
+    // Works out the backend from a JDBC URL; anything that is not H2 or SQLite is treated as MySQL
+    public static StorageBackend forUrl(String url) {
+        if (url != null && url.startsWith("jdbc:h2:")) {
+            return H2;
+        }
+        if (url != null && url.startsWith("jdbc:sqlite:")) {
+            return SQLITE;
+        }
+        return MYSQL;
+    }
+
+    // Parses "mysql", "h2" or "sqlite" (any case)
+    public static StorageBackend fromName(String name) {
+        for (StorageBackend backend : values()) {
+            if (backend.name().equalsIgnoreCase(name.trim())) {
+                return backend;
+            }
+        }
+        throw new IllegalArgumentException("Unknown storage backend '" + name + "'. Use mysql, h2 or sqlite.");
+    }
+}